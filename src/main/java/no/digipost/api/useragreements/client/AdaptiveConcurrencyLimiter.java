@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+
+/**
+ * Limits the amount of concurrent calls of each {@link Operation}, with a limit which increases additively
+ * and decreases multiplicatively (AIMD), as described by {@link ConcurrencyLimiterSettings}. The latency is tracked
+ * as a short and a long term exponentially weighted moving average, and the limit decreases when the short term
+ * average exceeds the long term average by more than the tolerance, at most once per latency window.
+ */
+final class AdaptiveConcurrencyLimiter implements ApiCallInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	private static final double SHORT_TERM_WEIGHT = 0.1;
+	private static final double LONG_TERM_WEIGHT = 0.01;
+
+	private final ConcurrencyLimiterSettings settings;
+	private final LongSupplier nanoTime;
+	private final Map<Operation, Limit> limits = new EnumMap<>(Operation.class);
+
+	AdaptiveConcurrencyLimiter(final ConcurrencyLimiterSettings settings) {
+		this(settings, System::nanoTime);
+	}
+
+	AdaptiveConcurrencyLimiter(final ConcurrencyLimiterSettings settings, final LongSupplier nanoTime) {
+		this.settings = settings;
+		this.nanoTime = nanoTime;
+		for (Operation operation : Operation.values()) {
+			limits.put(operation, new Limit(operation));
+		}
+	}
+
+	@Override
+	public <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		Limit limit = limits.get(call.operation);
+		limit.acquire(call);
+		long start = nanoTime.getAsLong();
+		boolean released = false;
+		try {
+			T result = execution.get();
+			long end = nanoTime.getAsLong();
+			limit.releaseSuccess(end - start, end);
+			released = true;
+			return result;
+		} catch (TooManyRequestsException e) {
+			limit.releaseDropped(nanoTime.getAsLong());
+			released = true;
+			throw e;
+		} finally {
+			if (!released) {
+				limit.releaseIgnored();
+			}
+		}
+	}
+
+	int getLimit(final Operation operation) {
+		return limits.get(operation).currentLimit();
+	}
+
+	/**
+	 * Guarded by a {@link ReentrantLock} rather than {@code synchronized}, as waiting for a free slot
+	 * must not pin the carrier of a virtual thread.
+	 */
+	private final class Limit {
+
+		private final Operation operation;
+		private final Lock lock = new ReentrantLock();
+		private final Condition released = lock.newCondition();
+		private double limit = settings.initialLimit;
+		private int inFlight;
+		private double shortTermLatency = Double.NaN;
+		private double longTermLatency = Double.NaN;
+		private long nextDecreaseAllowedAt;
+		private boolean decreased;
+
+		Limit(final Operation operation) {
+			this.operation = operation;
+		}
+
+		int currentLimit() {
+			lock.lock();
+			try {
+				return (int) limit;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Wait for a free slot, for at most the time remaining of the deadline of the call.
+		 */
+		void acquire(final ApiCall call) {
+			Optional<Duration> remainingOfDeadline = call.remainingOfDeadline();
+			long remainingNanos = remainingOfDeadline.map(Duration::toNanos).orElse(Long.MAX_VALUE);
+			lock.lock();
+			try {
+				while (inFlight >= (int) limit) {
+					if (!remainingOfDeadline.isPresent()) {
+						released.await();
+					} else if (remainingNanos > 0) {
+						remainingNanos = released.awaitNanos(remainingNanos);
+					} else {
+						throw new RuntimeIOException("The deadline of " + call.deadline.get() + " was reached while waiting for the concurrency limit of " + call);
+					}
+				}
+				inFlight++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, "Interrupted while waiting for the concurrency limit of " + call, e);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void releaseSuccess(final long latencyNanos, final long now) {
+			lock.lock();
+			try {
+				boolean utilized = inFlight * 2 >= (int) limit;
+				inFlight--;
+				if (Double.isNaN(longTermLatency)) {
+					shortTermLatency = longTermLatency = latencyNanos;
+				} else {
+					shortTermLatency += SHORT_TERM_WEIGHT * (latencyNanos - shortTermLatency);
+					longTermLatency += LONG_TERM_WEIGHT * (latencyNanos - longTermLatency);
+				}
+				if (shortTermLatency > settings.latencyTolerance * longTermLatency) {
+					decrease(now, "latency increased to " + (long) shortTermLatency / 1_000_000 + " ms from " + (long) longTermLatency / 1_000_000 + " ms");
+				} else if (utilized) {
+					setLimit(limit + 1);
+				}
+				released.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void releaseDropped(final long now) {
+			lock.lock();
+			try {
+				inFlight--;
+				decrease(now, "too many requests");
+				released.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void releaseIgnored() {
+			lock.lock();
+			try {
+				inFlight--;
+				released.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Decreases the limit at most once per latency window, i.e. the recent average latency, as the requests completing
+		 * within the same window were most likely sent before the previous decrease could take effect.
+		 */
+		private void decrease(final long now, final String reason) {
+			if (decreased && now - nextDecreaseAllowedAt < 0) {
+				return;
+			}
+			decreased = true;
+			nextDecreaseAllowedAt = now + (Double.isNaN(shortTermLatency) ? 0 : (long) shortTermLatency);
+			int before = (int) limit;
+			setLimit(limit * settings.backoffRatio);
+			if ((int) limit != before) {
+				LOG.debug("Concurrency limit of {} decreased from {} to {} because of {}", operation, before, (int) limit, reason);
+			}
+		}
+
+		private void setLimit(final double newLimit) {
+			limit = Math.max(settings.minLimit, Math.min(settings.maxLimit, newLimit));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.message.StatusLine;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.singleJaxbEntityHandler;
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+import static no.digipost.api.useragreements.client.GetAgreementResult.FailedReason.NO_AGREEMENT;
+import static no.digipost.api.useragreements.client.GetAgreementResult.FailedReason.UNKNOWN_USER;
+
+/**
+ * Serves lookups of single agreements by getting all the agreements of the user. The first lookup for a
+ * sender and user waits for the batching window to pass before it gets the agreements, and the lookups
+ * for the same sender and user arriving in the meantime share the same response. The agreements are then
+ * fanned out to a {@link GetAgreementResult} for each lookup, with {@link GetAgreementResult.FailedReason#NO_AGREEMENT NO_AGREEMENT}
+ * for an agreement type the user does not have.
+ * <p>
+ * The lookups are batched regardless of which {@link ApiService} they are done with, e.g. the one of a
+ * {@link DigipostUserAgreementsClient#withDeadline(Duration) view with a deadline}, and the shared request is
+ * sent with the service, and so the deadline, of the lookup which initiated it.
+ */
+final class AgreementLookupBatcher {
+
+	private static final StatusLine NOT_FOUND = new StatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_FOUND, "Not Found");
+
+	private final long windowNanos;
+	private final SingleFlight<List<Object>> batches = new SingleFlight<>();
+
+	AgreementLookupBatcher(final Duration window) {
+		this.windowNanos = window.toNanos();
+	}
+
+	/**
+	 * @param apiService the service to get the agreements with, if the lookup initiates a new request
+	 */
+	GetAgreementResult getAgreement(final ApiService apiService, final SenderId senderId, final AgreementType type, final UserId userId, final String requestTrackingId) {
+		final List<Agreement> agreements;
+		try {
+			agreements = batches.execute(Arrays.asList(senderId, userId), () -> {
+				awaitWindow(senderId);
+				return apiService.getAgreements(senderId, userId, requestTrackingId, singleJaxbEntityHandler(Agreements.class)).getAgreements();
+			});
+		} catch (UnexpectedResponseException e) {
+			if (e.getErrorCode() == ErrorCode.UNKNOWN_USER_ID) {
+				return new GetAgreementResult(UNKNOWN_USER, () -> e);
+			}
+			throw e;
+		}
+		return agreements.stream()
+				.filter(agreement -> agreement.getType().getType().equals(type.getType()))
+				.findFirst()
+				.map(GetAgreementResult::new)
+				.orElseGet(() -> new GetAgreementResult(NO_AGREEMENT, () -> new UnexpectedResponseException(NOT_FOUND, ErrorCode.AGREEMENT_NOT_FOUND,
+						"The user has no agreement of type " + type.getType() + " with sender " + senderId.serialize())));
+	}
+
+	private void awaitWindow(final SenderId senderId) {
+		try {
+			TimeUnit.NANOSECONDS.sleep(windowNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, "Interrupted while waiting to batch agreement lookups of sender " + senderId.serialize(), e);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.ResponseUtils;
+import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
+import no.digipost.api.useragreements.client.response.XmlDocumentsInputStream;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.message.StatusLine;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.StreamSupport.stream;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static no.digipost.api.useragreements.client.response.ResponseUtils.getResponseEntityContent;
+
+/**
+ * Reads the user ids of a response from the agreement-owners resource one by one as they are
+ * parsed from the response, without materializing any {@link AgreementOwners} documents. The response
+ * may contain several concatenated documents, and the delay until the next allowed request is
+ * taken from the last document which contains it.
+ */
+final class AgreementOwnersReader implements Iterator<UserId>, AutoCloseable {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+	static {
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	static StreamingRateLimitedResponse<UserId> read(HttpResponse response) {
+		InputStream content = getResponseEntityContent(response);
+		if (content == null) {
+			return new StreamingRateLimitedResponse<>(Stream.empty(), () -> null);
+		}
+		AgreementOwnersReader reader = new AgreementOwnersReader(new StatusLine(response), content);
+		Stream<UserId> userIds = stream(spliteratorUnknownSize(reader, ORDERED | NONNULL), false).onClose(reader::close);
+		return new StreamingRateLimitedResponse<>(userIds, reader::getDelayUntilNextAllowedRequest);
+	}
+
+	private final StatusLine status;
+	private final XmlDocumentsInputStream documents;
+	private final InputStream currentDocument;
+	private XMLStreamReader document;
+	private UserId next;
+	private volatile Duration delayUntilNextAllowedRequest;
+
+	AgreementOwnersReader(StatusLine status, InputStream content) {
+		this.status = status;
+		this.documents = new XmlDocumentsInputStream(content);
+		this.currentDocument = new FilterInputStream(documents) {
+			@Override
+			public void close() {
+				// the parser may close its input when reaching the end of a document, which must not close the response
+			}
+		};
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = readNextUserId();
+			} catch (XMLStreamException | IOException | NumberFormatException e) {
+				UnexpectedResponseException unexpectedResponse = new UnexpectedResponseException(status, ErrorCode.GENERAL_ERROR, e.getMessage(), e);
+				ResponseUtils.close(this).ifPresent(unexpectedResponse::addSuppressed);
+				throw unexpectedResponse;
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public UserId next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		UserId userId = next;
+		next = null;
+		return userId;
+	}
+
+	Duration getDelayUntilNextAllowedRequest() {
+		return delayUntilNextAllowedRequest;
+	}
+
+	private UserId readNextUserId() throws XMLStreamException, IOException {
+		while (true) {
+			if (document == null) {
+				if (!documents.nextDocument()) {
+					return null;
+				}
+				document = XML_INPUT_FACTORY.createXMLStreamReader(currentDocument);
+				document.nextTag();
+				if (!"agreement-owners".equals(document.getLocalName())) {
+					throw new XMLStreamException("Expected agreement-owners document, but root element was " + document.getName());
+				}
+			}
+			int event = document.next();
+			if (event == START_ELEMENT) {
+				switch (document.getLocalName()) {
+					case "id":
+						return UserId.of(document.getElementText().trim());
+					case "seconds-until-next-allowed-request":
+						delayUntilNextAllowedRequest = Duration.ofSeconds(Long.parseLong(document.getElementText().trim()));
+						break;
+					default:
+						break;
+				}
+			} else if (event == END_DOCUMENT) {
+				document.close();
+				document = null;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		AutoCloseable currentDocument = document != null ? document::close : () -> {};
+		ResponseUtils.close(currentDocument, documents).map(RuntimeIOException::from).ifPresent(exception -> { throw exception; });
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Describes a call to the API, as given to the {@link ApiCallInterceptor}s.
+ */
+final class ApiCall {
+
+	final Operation operation;
+	final Optional<SenderId> senderId;
+	final URI uri;
+	final Optional<Duration> deadline;
+	final long startedAt;
+
+	ApiCall(final Operation operation, final Optional<SenderId> senderId, final URI uri) {
+		this(operation, senderId, uri, Optional.empty(), System.nanoTime());
+	}
+
+	/**
+	 * @param deadline the longest time the call may take, from when it starts
+	 * @param startedAt the {@link System#nanoTime() time} the call started
+	 */
+	ApiCall(final Operation operation, final Optional<SenderId> senderId, final URI uri, final Optional<Duration> deadline, final long startedAt) {
+		this.operation = operation;
+		this.senderId = senderId;
+		this.uri = uri;
+		this.deadline = deadline;
+		this.startedAt = startedAt;
+	}
+
+	/**
+	 * @return the time remaining until the deadline of the call is reached, which is zero or negative if it has
+	 *         been reached, or empty if the call has no deadline
+	 */
+	Optional<Duration> remainingOfDeadline() {
+		return deadline.map(d -> Duration.ofNanos(startedAt + d.toNanos() - System.nanoTime()));
+	}
+
+	@Override
+	public String toString() {
+		return operation + senderId.map(s -> " for sender " + s.serialize()).orElse("") + " (" + operation.method + " " + uri + ")" +
+				deadline.map(d -> " with deadline " + d).orElse("");
+	}
+}
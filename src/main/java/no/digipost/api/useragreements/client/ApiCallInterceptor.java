@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.util.function.Supplier;
+
+/**
+ * Intercepts each call {@link ApiService} makes to the API, e.g. to limit or retry it.
+ * The interceptors are applied in order, the first one being the outermost.
+ */
+interface ApiCallInterceptor {
+
+	/**
+	 * @param call describes the call
+	 * @param execution executes the call, including the interceptors after this one. It may be
+	 *                  invoked several times, and each invocation sends a new request.
+	 * @return the result of the call
+	 */
+	<T> T intercept(ApiCall call, Supplier<T> execution);
+
+}
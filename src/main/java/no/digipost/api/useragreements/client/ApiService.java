@@ -15,140 +15,222 @@
  */
 package no.digipost.api.useragreements.client;
 
-import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.filters.request.RequestContentHashFilter;
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
 import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
-import no.digipost.cache2.inmemory.SingleCached;
+import no.digipost.api.useragreements.client.transport.ApacheHttpTransport;
+import no.digipost.api.useragreements.client.transport.HttpTransport;
+import no.digipost.api.useragreements.client.xml.JaxbMarshaller;
+import org.apache.hc.client5.http.ClientProtocolException;
 import org.apache.hc.client5.http.classic.methods.HttpDelete;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
-import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
-import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http.protocol.HttpProcessor;
+import org.apache.hc.core5.http.protocol.HttpProcessorBuilder;
+import org.apache.hc.core5.util.Timeout;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static java.time.Duration.ofMinutes;
-import static java.time.format.DateTimeFormatter.ISO_DATE_TIME;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static no.digipost.api.useragreements.client.Headers.X_Digipost_UserId;
 import static no.digipost.api.useragreements.client.response.ResponseUtils.mapOkResponseOrThrowException;
-import static no.digipost.api.useragreements.client.response.ResponseUtils.unmarshallEntities;
+import static no.digipost.api.useragreements.client.response.ResponseUtils.parseDelayDurationOfRetryAfterHeader;
 import static no.digipost.api.useragreements.client.response.ResponseUtils.unmarshallEntity;
-import static no.digipost.cache2.inmemory.CacheConfig.expireAfterAccess;
-import static no.digipost.cache2.inmemory.CacheConfig.useSoftValues;
 
 public class ApiService {
 
 	public static final String DIGIPOST_MEDIA_TYPE_USERS_V1 = "application/vnd.digipost.user-v1+xml";
 	public static final String DIGIPOST_MEDIA_TYPE_USERS_V2 = "application/vnd.digipost.user-v2+xml";
-	private static final String USER_DOCUMENTS_PATH = "user-documents";
-	private static final String USER_AGREEMENTS_PATH = "user-agreements";
 
-	private final URI serviceEndpoint;
-	private final BrokerId brokerId;
-	private final CloseableHttpClient httpClient;
+	private static final RequestContentHashFilter contentHash = new RequestContentSHA256Filter();
+
+	/**
+	 * Aborts the requests which have not completed within the deadline of their call.
+	 */
+	private static final ScheduledThreadPoolExecutor deadlineTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "digipost-deadlines");
+		thread.setDaemon(true);
+		return thread;
+	});
+	static {
+		deadlineTimer.setRemoveOnCancelPolicy(true);
+	}
 
+	private final ApiUris uris;
+	private final BrokerId brokerId;
+	private final HttpTransport transport;
+	private final HttpProcessor httpProcessor;
+	private final Optional<SingleFlight<String>> coalescedReads;
+	private final List<ApiCallInterceptor> interceptors;
+	private final ClientMetrics metrics;
+	private final Optional<Duration> deadline;
+	private final RefreshAheadCache<EntryPoint> cachedEntryPoint;
+
+	/**
+	 * Create an API service sending requests with the given Apache HttpClient, which must itself
+	 * be configured to date and sign the requests.
+	 */
 	public ApiService(final URI serviceEndpoint, final BrokerId brokerId, final CloseableHttpClient httpClient) {
-		this.serviceEndpoint = serviceEndpoint;
+		this(serviceEndpoint, brokerId, new ApacheHttpTransport(httpClient), HttpProcessorBuilder.create().build());
+	}
+
+	/**
+	 * Create an API service sending requests with the given transport.
+	 *
+	 * @param httpProcessor processes each request before it is given to the transport, and each response
+	 *                      before it is handled, typically
+	 *                      {@link no.digipost.api.useragreements.client.filters.DigipostHttpProcessor dating and signing} the requests.
+	 */
+	public ApiService(final URI serviceEndpoint, final BrokerId brokerId, final HttpTransport transport, final HttpProcessor httpProcessor) {
+		this(serviceEndpoint, brokerId, transport, httpProcessor, false, emptyList());
+	}
+
+	/**
+	 * @param coalesceReads if concurrent GET requests for the same URI should share a single request and its result,
+	 *                      unless the response is streamed
+	 * @param interceptors intercepts each call, the first one being the outermost
+	 */
+	ApiService(final URI serviceEndpoint, final BrokerId brokerId, final HttpTransport transport, final HttpProcessor httpProcessor,
+			final boolean coalesceReads, final List<? extends ApiCallInterceptor> interceptors) {
+		this(serviceEndpoint, brokerId, transport, httpProcessor, coalesceReads, interceptors, ClientMetrics.NONE);
+	}
+
+	/**
+	 * @param metrics receives the measurements of each call and request
+	 */
+	ApiService(final URI serviceEndpoint, final BrokerId brokerId, final HttpTransport transport, final HttpProcessor httpProcessor,
+			final boolean coalesceReads, final List<? extends ApiCallInterceptor> interceptors, final ClientMetrics metrics) {
+		this.uris = new ApiUris(serviceEndpoint);
 		this.brokerId = brokerId;
-		this.httpClient = httpClient;
+		this.transport = transport;
+		this.httpProcessor = httpProcessor;
+		this.coalescedReads = coalesceReads ? Optional.of(new SingleFlight<>()) : Optional.empty();
+		this.interceptors = unmodifiableList(new ArrayList<>(interceptors));
+		this.metrics = GuardedClientMetrics.guard(metrics);
+		this.deadline = Optional.empty();
+		this.cachedEntryPoint = new RefreshAheadCache<>("digipost-entrypoint", this::performGetEntryPoint, ofMinutes(5), ofSeconds(30));
+	}
+
+	private ApiService(final ApiService service, final Duration deadline) {
+		this.uris = service.uris;
+		this.brokerId = service.brokerId;
+		this.transport = service.transport;
+		this.httpProcessor = service.httpProcessor;
+		this.coalescedReads = service.coalescedReads;
+		this.interceptors = service.interceptors;
+		this.metrics = service.metrics;
+		this.deadline = Optional.of(deadline);
+		this.cachedEntryPoint = service.cachedEntryPoint;
+	}
+
+	/**
+	 * Get a view of this service where each call must complete within the given deadline, including any retries.
+	 * The deadline limits the timeouts of each request, and a request which has not completed when the deadline
+	 * is reached is aborted. The view shares the transport, interceptors and entry point of this service.
+	 *
+	 * @param deadline the longest time each call may take
+	 * @return the service with the given deadline
+	 */
+	public ApiService withDeadline(final Duration deadline) {
+		Objects.requireNonNull(deadline, "deadline cannot be null");
+		if (deadline.isNegative() || deadline.isZero()) {
+			throw new IllegalArgumentException("deadline must be positive, was " + deadline);
+		}
+		return new ApiService(this, deadline);
 	}
 
 	public IdentificationResult identifyUser(final SenderId senderId, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<IdentificationResult> handler) {
-		return executeHttpRequest(newPostRequest(getEntryPoint().getIdentificationUri(), requestTrackingId, new Identification(userId.serialize())), handler);
+		long startedAt = System.nanoTime();
+		URI identificationUri = getEntryPoint().getIdentificationUri();
+		return execute(Operation.IDENTIFY_USER, Optional.empty(), identificationUri, startedAt,
+				uri -> newPostRequest(uri, requestTrackingId, new Identification(userId.serialize())), handler);
 	}
 
 	public void createAgreement(final SenderId senderId, final Agreement agreement, final String requestTrackingId, final HttpClientResponseHandler<Void> handler) {
-		executeHttpRequest(newPostRequest(new URIBuilder(serviceEndpoint).setPath(userAgreementsPath(senderId)), requestTrackingId, agreement), handler);
+		execute(Operation.CREATE_OR_REPLACE_AGREEMENT, Optional.of(senderId), uris.userAgreements(senderId),
+				uri -> newPostRequest(uri, requestTrackingId, agreement), handler);
 	}
 
 	public GetAgreementResult getAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<GetAgreementResult> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userAgreementsPath(senderId))
-				.setParameter("user-id", userId.serialize())
-				.setParameter("agreement-type", agreementType.getType());
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
+		return execute(Operation.GET_AGREEMENT, Optional.of(senderId), uris.agreement(senderId, agreementType, userId), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public Agreements getAgreements(final SenderId senderId, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<Agreements> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userAgreementsPath(senderId))
-				.setParameter("user-id", userId.serialize());
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
+		return execute(Operation.GET_AGREEMENTS, Optional.of(senderId), uris.agreements(senderId, userId), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public void deleteAgrement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<Void> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userAgreementsPath(senderId))
-				.setParameter("user-id", userId.serialize())
-				.setParameter("agreement-type", agreementType.getType());
-		HttpDelete deleteAgreementRequest = new HttpDelete(buildUri(uriBuilder));
-		executeHttpRequest(withRequestTrackingHeader(deleteAgreementRequest, requestTrackingId), handler);
+		execute(Operation.DELETE_AGREEMENT, Optional.of(senderId), uris.agreement(senderId, agreementType, userId),
+				uri -> withRequestTrackingHeader(new HttpDelete(uri), requestTrackingId), handler);
 	}
 
 	public Documents getDocuments(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId, final HttpClientResponseHandler<Documents> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userDocumentsPath(senderId))
-				.setParameter(UserId.QUERY_PARAM_NAME, userId.serialize())
-				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
-		setGetDocumentsQueryParams(uriBuilder, query);
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
-	}
-
-	private void setGetDocumentsQueryParams(final URIBuilder uriBuilder, final GetDocumentsQuery query) {
-		if (query.getDeliveryTimeFrom() != null) {
-			uriBuilder.setParameter("delivery-time-from", query.getDeliveryTimeFrom().format(ISO_DATE_TIME));
-		}
-		if (query.getDeliveryTimeTo() != null) {
-			uriBuilder.setParameter("delivery-time-to", query.getDeliveryTimeTo().format(ISO_DATE_TIME));
-		}
+		return execute(Operation.GET_DOCUMENTS, Optional.of(senderId), uris.documents(senderId, agreementType, userId, query), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public Document getDocument(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId, final HttpClientResponseHandler<Document> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userDocumentsPath(senderId) + "/" + documentId)
-				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
+		return execute(Operation.GET_DOCUMENT, Optional.of(senderId), uris.document(senderId, agreementType, documentId), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public DocumentCount getDocumentCount(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId, final HttpClientResponseHandler<DocumentCount> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userDocumentsPath(senderId) + "/count")
-				.setParameter(UserId.QUERY_PARAM_NAME, userId.serialize())
-				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
-		setGetDocumentsQueryParams(uriBuilder, query);
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
+		return execute(Operation.GET_DOCUMENT_COUNT, Optional.of(senderId), uris.documentCount(senderId, agreementType, userId, query), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public DocumentContent getDocumentContent(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId, final HttpClientResponseHandler<DocumentContent> handler) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userDocumentsPath(senderId) + "/" + documentId + "/content")
-				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
-		return executeHttpRequest(newGetRequest(uriBuilder, requestTrackingId), handler);
+		return execute(Operation.GET_DOCUMENT_CONTENT, Optional.of(senderId), uris.documentContent(senderId, agreementType, documentId), uri -> newGetRequest(uri, requestTrackingId), handler);
 	}
 
 	public StreamingRateLimitedResponse<UserId> getAgreementOwners(final SenderId senderId, final AgreementType agreementType, final String requestTrackingId) {
-		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
-				.setPath(userAgreementsPath(senderId) + "/agreement-owners")
-				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
+		ApiCall call = new ApiCall(Operation.GET_AGREEMENT_OWNERS, Optional.of(senderId), uris.agreementOwners(senderId, agreementType), deadline, System.nanoTime());
+		return intercept(call, () -> {
+			RequestPhaseTimer timer = new RequestPhaseTimer();
+			HttpGet request = newGetRequest(call.uri, requestTrackingId);
+			timer.marshalled();
+			return withinDeadline(call, request, r -> executeStreamingHttpRequest(call, timer, r));
+		});
+	}
 
-		HttpGet request = newGetRequest(uriBuilder, requestTrackingId);
-		request.setHeader(X_Digipost_UserId, brokerId.serialize());
-		CloseableHttpResponse response = null;
+	private StreamingRateLimitedResponse<UserId> executeStreamingHttpRequest(final ApiCall call, final RequestPhaseTimer timer, final ClassicHttpRequest request) {
+		Operation operation = call.operation;
+		ClassicHttpResponse response = null;
 		try {
-			response = httpClient.execute(request);
-			return new StreamingRateLimitedResponse<>(mapOkResponseOrThrowException(response, r -> unmarshallEntities(r, AgreementOwners.class)), AgreementOwners::getIdsAsStream);
+			HttpContext context = processRequest(operation, request);
+			timer.signed();
+			response = transport.executeOpen(request);
+			measureResponse(operation, response, timer);
+			processResponse(response, context);
+			return mapOkResponseOrThrowException(response, AgreementOwnersReader::read);
 		} catch (IOException ioe) {
-			throw new RuntimeIOException(ioe.getMessage(), ioe);
+			throw withRequestTimings(new RuntimeIOException(ioe.getMessage(), ioe), timer);
 		} catch (RuntimeException rte) {
 			if (response != null) {
 				try {
@@ -157,37 +239,216 @@ public class ApiService {
 					rte.addSuppressed(e);
 				}
 			}
-			throw rte;
+			throw withRequestTimings(rte, timer);
+		} finally {
+			completed(call, request, timer);
 		}
 	}
 
-	private static String userAgreementsPath(final SenderId senderId) {
-		return "/" + senderId.serialize() + "/" + USER_AGREEMENTS_PATH;
+	private <T> T execute(final Operation operation, final Optional<SenderId> senderId, final URI uri,
+			final Function<URI, ? extends ClassicHttpRequest> newRequest, final HttpClientResponseHandler<T> handler) {
+		return execute(operation, senderId, uri, System.nanoTime(), newRequest, handler);
 	}
 
-	private static String userDocumentsPath(final SenderId senderId) {
-		return "/" + senderId.serialize() + "/" + USER_DOCUMENTS_PATH;
+	/**
+	 * @param startedAt the {@link System#nanoTime() time} the call started, which the deadline is counted from
+	 */
+	private <T> T execute(final Operation operation, final Optional<SenderId> senderId, final URI uri, final long startedAt,
+			final Function<URI, ? extends ClassicHttpRequest> newRequest, final HttpClientResponseHandler<T> handler) {
+		ApiCall call = new ApiCall(operation, senderId, uri, deadline, startedAt);
+		return intercept(call, () -> {
+			RequestPhaseTimer timer = new RequestPhaseTimer();
+			ClassicHttpRequest request = newRequest.apply(uri);
+			timer.marshalled();
+			if (request instanceof HttpUriRequestBase) {
+				AttemptCancellation.onCancel(((HttpUriRequestBase) request)::cancel);
+			}
+			return withinDeadline(call, request, r -> executeHttpRequest(call, timer, r, handler));
+		});
 	}
 
-	private <T> T executeHttpRequest(final ClassicHttpRequest request, final HttpClientResponseHandler<T> handler) {
+	/**
+	 * Execute a request of a call with a deadline, with timeouts limited to the time remaining of the deadline.
+	 * The request is aborted if it has not completed, or for a streaming response, opened, when the deadline is reached.
+	 */
+	private <T> T withinDeadline(final ApiCall call, final ClassicHttpRequest request, final Function<ClassicHttpRequest, T> execution) {
+		if (!call.deadline.isPresent()) {
+			return execution.apply(request);
+		}
+		long remaining = call.remainingOfDeadline().get().toNanos();
+		if (remaining <= 0) {
+			throw new RuntimeIOException("The deadline of " + call.deadline.get() + " was reached before sending the request of " + call);
+		}
+		ScheduledFuture<?> abort = null;
+		if (request instanceof HttpUriRequestBase) {
+			HttpUriRequestBase abortableRequest = (HttpUriRequestBase) request;
+			abortableRequest.setConfig(requestConfig(Timeout.of(remaining, NANOSECONDS)));
+			abort = deadlineTimer.schedule(abortableRequest::cancel, remaining, NANOSECONDS);
+		}
+		try {
+			return execution.apply(request);
+		} catch (RuntimeIOException e) {
+			if (abort != null && abort.isDone()) {
+				RuntimeIOException aborted = new RuntimeIOException("The request of " + call + " was aborted as the deadline of " + call.deadline.get() + " was reached", e);
+				e.getRequestTimings().ifPresent(aborted::attachRequestTimings);
+				throw aborted;
+			}
+			throw e;
+		} finally {
+			if (abort != null) {
+				abort.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * The connect timeout of a request is deprecated in favor of the one of the connection manager, but it is still
+	 * the only way to limit the time connecting for a single request.
+	 */
+	@SuppressWarnings("deprecation")
+	private static RequestConfig requestConfig(final Timeout timeout) {
+		return RequestConfig.custom()
+				.setConnectionRequestTimeout(timeout)
+				.setConnectTimeout(timeout)
+				.setResponseTimeout(timeout)
+				.build();
+	}
+
+	/**
+	 * @return the interceptor of the given type, if the service has one
+	 */
+	<I extends ApiCallInterceptor> Optional<I> getInterceptor(final Class<I> type) {
+		return interceptors.stream().filter(type::isInstance).map(type::cast).findFirst();
+	}
+
+	/**
+	 * Apply the interceptors to the execution of a call. Concurrent identical reads are coalesced before
+	 * the interceptors, so that the shared request is only limited and retried once. The call is measured
+	 * as a whole, including any waiting for a coalesced read.
+	 */
+	private <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		Supplier<T> intercepted = execution;
+		for (int i = interceptors.size() - 1; i >= 0; i--) {
+			ApiCallInterceptor interceptor = interceptors.get(i);
+			Supplier<T> next = intercepted;
+			intercepted = () -> interceptor.intercept(call, next);
+		}
+		long startedAt = System.nanoTime();
 		try {
-			request.setHeader(X_Digipost_UserId, brokerId.serialize());
-			return httpClient.execute(request, handler);
+			T result;
+			if (coalescedReads.isPresent() && call.operation.isRead() && !call.operation.streamed) {
+				result = coalescedReads.get().execute(call.operation + " " + call.uri + call.deadline.map(d -> " " + d).orElse(""), intercepted);
+			} else {
+				result = intercepted.get();
+			}
+			metrics.callSucceeded(call.operation.name(), Duration.ofNanos(System.nanoTime() - startedAt));
+			return result;
+		} catch (RuntimeException e) {
+			ErrorCode errorCode = e instanceof UserAgreementsApiException ? ((UserAgreementsApiException) e).getErrorCode() : null;
+			metrics.callFailed(call.operation.name(), Duration.ofNanos(System.nanoTime() - startedAt), errorCode != null ? errorCode : ErrorCode.CLIENT_TECHNICAL_ERROR);
+			throw e;
+		}
+	}
+
+	private <T> T executeHttpRequest(final ApiCall call, final RequestPhaseTimer timer, final ClassicHttpRequest request, final HttpClientResponseHandler<T> handler) {
+		Operation operation = call.operation;
+		try {
+			HttpContext context = processRequest(operation, request);
+			timer.signed();
+			return transport.execute(request, response -> {
+				measureResponse(operation, response, timer);
+				processResponse(response, context);
+				return handler.handleResponse(response);
+			});
 		} catch (IOException e) {
-			throw RuntimeIOException.from(e);
+			throw withRequestTimings(RuntimeIOException.from(e), timer);
+		} catch (RuntimeException e) {
+			throw withRequestTimings(e, timer);
+		} finally {
+			completed(call, request, timer);
 		}
 	}
 
-	private HttpGet newGetRequest(final URIBuilder uriBuilder, String requestTrackingId) {
-		return newGetRequest(buildUri(uriBuilder), requestTrackingId);
+	private void completed(final ApiCall call, final ClassicHttpRequest request, final RequestPhaseTimer timer) {
+		if (metrics != ClientMetrics.NONE) {
+			metrics.requestCompleted(call.operation.name(), timer.completed());
+		}
+		RequestEvent event = timer.event;
+		event.end();
+		if (event.shouldCommit()) {
+			RequestTimings timings = timer.completed();
+			event.operation = call.operation.name();
+			event.sender = call.senderId.map(SenderId::getId).orElse(0L);
+			event.bytesSent = request.getEntity() != null ? Math.max(request.getEntity().getContentLength(), 0) : 0;
+			event.marshal = timings.getMarshal().toNanos();
+			event.sign = timings.getSign().toNanos();
+			event.network = timings.getNetwork().toNanos();
+			event.unmarshal = timings.getUnmarshal().toNanos();
+			event.commit();
+		}
 	}
 
-	private HttpGet newGetRequest(final URI uri, String requestTrackingId) {
-		return withCommonHeaders(new HttpGet(uri), requestTrackingId);
+	private static RuntimeException withRequestTimings(final RuntimeException failure, final RequestPhaseTimer timer) {
+		if (failure instanceof UserAgreementsApiException) {
+			((UserAgreementsApiException) failure).attachRequestTimings(timer.completed());
+		}
+		return failure;
+	}
+
+	private HttpContext processRequest(final Operation operation, final ClassicHttpRequest request) throws IOException {
+		request.setHeader(X_Digipost_UserId, brokerId.serialize());
+		HttpContext context = HttpCoreContext.create();
+		try {
+			httpProcessor.process(request, request.getEntity(), context);
+		} catch (HttpException e) {
+			throw new ClientProtocolException(e.getMessage(), e);
+		}
+		if (metrics != ClientMetrics.NONE && request.getEntity() != null && request.getEntity().getContentLength() >= 0) {
+			metrics.bytesSent(operation.name(), request.getEntity().getContentLength());
+		}
+		return context;
+	}
+
+	/**
+	 * Record the status and latency of a response, and count the bytes read from its body.
+	 */
+	private void measureResponse(final Operation operation, final ClassicHttpResponse response, final RequestPhaseTimer timer) {
+		Duration latency = timer.responded();
+		RequestEvent event = timer.event;
+		event.status = response.getCode();
+		if (metrics == ClientMetrics.NONE && !event.isEnabled()) {
+			return;
+		}
+		String operationName = operation.name();
+		metrics.responseReceived(operationName, response.getCode(), latency);
+		if (response.getCode() == HttpStatus.SC_TOO_MANY_REQUESTS) {
+			Optional<Duration> retryAfter;
+			try {
+				retryAfter = parseDelayDurationOfRetryAfterHeader(response);
+			} catch (RuntimeException e) {
+				retryAfter = Optional.empty();
+			}
+			metrics.tooManyRequests(operationName, retryAfter);
+		}
+		HttpEntity entity = response.getEntity();
+		if (entity != null && entity.getContentLength() != 0) {
+			response.setEntity(new ByteCountingEntity(entity, bytes -> {
+				event.bytesReceived = bytes;
+				metrics.bytesReceived(operationName, bytes);
+			}));
+		}
+	}
+
+	private void processResponse(final ClassicHttpResponse response, final HttpContext context) throws IOException {
+		try {
+			httpProcessor.process(response, response.getEntity(), context);
+		} catch (HttpException e) {
+			throw new ClientProtocolException(e.getMessage(), e);
+		}
 	}
 
-	private HttpPost newPostRequest(final URIBuilder uriBuilder, String requestTrackingId, Object postBodyEntity) {
-		return newPostRequest(buildUri(uriBuilder), requestTrackingId, postBodyEntity);
+	private HttpGet newGetRequest(final URI uri, String requestTrackingId) {
+		return withCommonHeaders(new HttpGet(uri), requestTrackingId);
 	}
 
 	private HttpPost newPostRequest(final URI uri, String requestTrackingId, Object postBodyEntity) {
@@ -197,20 +458,12 @@ public class ApiService {
 		return request;
 	}
 
-	private static URI buildUri(URIBuilder builder) {
-		try {
-			return builder.build();
-		} catch (URISyntaxException e) {
-			throw new RuntimeException(e.getMessage(), e);
-		}
-	}
-
-	private static <REQ extends HttpRequest> REQ withCommonHeaders(REQ request, String requestTrackingId) {
+	static <REQ extends HttpRequest> REQ withCommonHeaders(REQ request, String requestTrackingId) {
 		request.setHeader(HttpHeaders.ACCEPT, DIGIPOST_MEDIA_TYPE_USERS_V2);
 		return withRequestTrackingHeader(request, requestTrackingId);
 	}
 
-	private static <REQ extends HttpRequest> REQ withRequestTrackingHeader(REQ request, final String requestTrackingId) {
+	static <REQ extends HttpRequest> REQ withRequestTrackingHeader(REQ request, final String requestTrackingId) {
 		if (requestTrackingId != null && !requestTrackingId.isEmpty()) {
 			request.setHeader("X-Digipost-Request-Id", requestTrackingId);
 		}
@@ -218,30 +471,34 @@ public class ApiService {
 	}
 
 	private static HttpEntity marshallJaxbEntity(final Object obj) {
+		return contentHash.createEntity(content -> JaxbMarshaller.getInstance().marshal(obj, content), ContentType.APPLICATION_XML);
+	}
+
+	static byte[] marshallJaxb(final Object obj) {
 		ByteArrayOutputStream bao = new ByteArrayOutputStream(1024);
-		JAXB.marshal(obj, bao);
-		return new ByteArrayEntity(bao.toByteArray(), ContentType.APPLICATION_XML);
+		JaxbMarshaller.getInstance().marshal(obj, bao);
+		return bao.toByteArray();
 	}
 
+	/**
+	 * Get the entry point of the API. The entry point is fetched on first access, and then refreshed in the
+	 * background, while the previously fetched entry point is still used. If this service has a
+	 * {@link #withDeadline(Duration) deadline}, the first access fetches the entry point within it.
+	 */
 	public EntryPoint getEntryPoint() {
-		try {
-			return cachedEntryPoint.get();
-		} catch (RuntimeException e) {
-			if (e.getCause() instanceof UserAgreementsApiException) {
-				throw (UserAgreementsApiException) e.getCause();
-			} else {
-				throw e;
-			}
-		}
+		return cachedEntryPoint.get(this::performGetEntryPoint, deadline);
+	}
+
+	/**
+	 * Start fetching the entry point in the background, to avoid waiting for it on the first request which needs it.
+	 */
+	public void preloadEntryPoint() {
+		cachedEntryPoint.preload();
 	}
 
 
 	private EntryPoint performGetEntryPoint() {
-		return executeHttpRequest(newGetRequest(serviceEndpoint, null),
+		return execute(Operation.GET_ENTRY_POINT, Optional.empty(), uris.root(), uri -> newGetRequest(uri, null),
 				response -> mapOkResponseOrThrowException(response, r -> unmarshallEntity(r, EntryPoint.class)));
 	}
-
-
-	private final SingleCached<EntryPoint> cachedEntryPoint =
-			new SingleCached<>("digipost-entrypoint", this::performGetEntryPoint, expireAfterAccess(ofMinutes(5)), useSoftValues);
 }
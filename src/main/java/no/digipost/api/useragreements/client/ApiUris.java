@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.net.URIBuilder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static java.time.format.DateTimeFormatter.ISO_DATE_TIME;
+
+/**
+ * Resolves the URIs of the API resources, shared by the blocking {@link ApiService}
+ * and the non-blocking {@link AsyncApiService}.
+ */
+final class ApiUris {
+
+	private static final String USER_DOCUMENTS_PATH = "user-documents";
+	private static final String USER_AGREEMENTS_PATH = "user-agreements";
+
+	private final URI serviceEndpoint;
+
+	ApiUris(final URI serviceEndpoint) {
+		this.serviceEndpoint = serviceEndpoint;
+	}
+
+	URI root() {
+		return serviceEndpoint;
+	}
+
+	URI userAgreements(final SenderId senderId) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userAgreementsPath(senderId)));
+	}
+
+	URI agreement(final SenderId senderId, final AgreementType agreementType, final UserId userId) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userAgreementsPath(senderId))
+				.setParameter("user-id", userId.serialize())
+				.setParameter("agreement-type", agreementType.getType()));
+	}
+
+	URI agreements(final SenderId senderId, final UserId userId) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userAgreementsPath(senderId))
+				.setParameter("user-id", userId.serialize()));
+	}
+
+	URI agreementOwners(final SenderId senderId, final AgreementType agreementType) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userAgreementsPath(senderId) + "/agreement-owners")
+				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType()));
+	}
+
+	URI documents(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query) {
+		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
+				.setPath(userDocumentsPath(senderId))
+				.setParameter(UserId.QUERY_PARAM_NAME, userId.serialize())
+				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
+		setGetDocumentsQueryParams(uriBuilder, query);
+		return buildUri(uriBuilder);
+	}
+
+	URI document(final SenderId senderId, final AgreementType agreementType, final long documentId) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userDocumentsPath(senderId) + "/" + documentId)
+				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType()));
+	}
+
+	URI documentCount(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query) {
+		URIBuilder uriBuilder = new URIBuilder(serviceEndpoint)
+				.setPath(userDocumentsPath(senderId) + "/count")
+				.setParameter(UserId.QUERY_PARAM_NAME, userId.serialize())
+				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType());
+		setGetDocumentsQueryParams(uriBuilder, query);
+		return buildUri(uriBuilder);
+	}
+
+	URI documentContent(final SenderId senderId, final AgreementType agreementType, final long documentId) {
+		return buildUri(new URIBuilder(serviceEndpoint)
+				.setPath(userDocumentsPath(senderId) + "/" + documentId + "/content")
+				.setParameter(AgreementType.QUERY_PARAM_NAME, agreementType.getType()));
+	}
+
+	private static void setGetDocumentsQueryParams(final URIBuilder uriBuilder, final GetDocumentsQuery query) {
+		if (query.getDeliveryTimeFrom() != null) {
+			uriBuilder.setParameter("delivery-time-from", query.getDeliveryTimeFrom().format(ISO_DATE_TIME));
+		}
+		if (query.getDeliveryTimeTo() != null) {
+			uriBuilder.setParameter("delivery-time-to", query.getDeliveryTimeTo().format(ISO_DATE_TIME));
+		}
+	}
+
+	private static String userAgreementsPath(final SenderId senderId) {
+		return "/" + senderId.serialize() + "/" + USER_AGREEMENTS_PATH;
+	}
+
+	private static String userDocumentsPath(final SenderId senderId) {
+		return "/" + senderId.serialize() + "/" + USER_DOCUMENTS_PATH;
+	}
+
+	private static URI buildUri(URIBuilder builder) {
+		try {
+			return builder.build();
+		} catch (URISyntaxException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.filters.request.RequestContentHashFilter;
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
+import no.digipost.cache2.inmemory.SingleCached;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static java.time.Duration.ofMinutes;
+import static no.digipost.api.useragreements.client.ApiService.DIGIPOST_MEDIA_TYPE_USERS_V2;
+import static no.digipost.api.useragreements.client.ApiService.marshallJaxb;
+import static no.digipost.api.useragreements.client.ApiService.withCommonHeaders;
+import static no.digipost.api.useragreements.client.ApiService.withRequestTrackingHeader;
+import static no.digipost.api.useragreements.client.Headers.X_Digipost_UserId;
+import static no.digipost.api.useragreements.client.response.ResponseUtils.mapOkResponseOrThrowException;
+import static no.digipost.api.useragreements.client.response.ResponseUtils.unmarshallEntity;
+import static no.digipost.cache2.inmemory.CacheConfig.expireAfterAccess;
+
+/**
+ * The non-blocking counterpart of {@link ApiService}, executing the requests with a
+ * {@link CloseableHttpAsyncClient}. Responses are buffered in memory before they are handed
+ * to the {@link HttpClientResponseHandler response handlers}, which are the same as used
+ * with the blocking client.
+ * <p>
+ * The request body is hashed here, before the request is submitted, as the request
+ * interceptors of the async client are not given access to the content of the request.
+ * The signature interceptor will then include the already set content hash header when
+ * signing the request.
+ */
+public class AsyncApiService {
+
+	private final ApiUris uris;
+	private final BrokerId brokerId;
+	private final CloseableHttpAsyncClient httpClient;
+	private final RequestContentHashFilter hashFilter;
+
+	public AsyncApiService(final URI serviceEndpoint, final BrokerId brokerId, final CloseableHttpAsyncClient httpClient) {
+		this(serviceEndpoint, brokerId, httpClient, new RequestContentSHA256Filter());
+	}
+
+	public AsyncApiService(final URI serviceEndpoint, final BrokerId brokerId, final CloseableHttpAsyncClient httpClient, final RequestContentHashFilter hashFilter) {
+		this.uris = new ApiUris(serviceEndpoint);
+		this.brokerId = brokerId;
+		this.httpClient = httpClient;
+		this.hashFilter = hashFilter;
+	}
+
+	public CompletableFuture<IdentificationResult> identifyUser(final SenderId senderId, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<IdentificationResult> handler) {
+		return getEntryPoint().thenCompose(entryPoint ->
+				executeHttpRequest(newPostRequest(entryPoint.getIdentificationUri(), requestTrackingId, new Identification(userId.serialize())), handler));
+	}
+
+	public CompletableFuture<Void> createAgreement(final SenderId senderId, final Agreement agreement, final String requestTrackingId, final HttpClientResponseHandler<Void> handler) {
+		return executeHttpRequest(newPostRequest(uris.userAgreements(senderId), requestTrackingId, agreement), handler);
+	}
+
+	public CompletableFuture<GetAgreementResult> getAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<GetAgreementResult> handler) {
+		return executeHttpRequest(newGetRequest(uris.agreement(senderId, agreementType, userId), requestTrackingId), handler);
+	}
+
+	public CompletableFuture<Agreements> getAgreements(final SenderId senderId, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<Agreements> handler) {
+		return executeHttpRequest(newGetRequest(uris.agreements(senderId, userId), requestTrackingId), handler);
+	}
+
+	public CompletableFuture<Void> deleteAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId, final HttpClientResponseHandler<Void> handler) {
+		SimpleHttpRequest deleteAgreementRequest = SimpleHttpRequest.create(Method.DELETE, uris.agreement(senderId, agreementType, userId));
+		return executeHttpRequest(withRequestTrackingHeader(deleteAgreementRequest, requestTrackingId), handler);
+	}
+
+	public CompletableFuture<Documents> getDocuments(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId, final HttpClientResponseHandler<Documents> handler) {
+		return executeHttpRequest(newGetRequest(uris.documents(senderId, agreementType, userId, query), requestTrackingId), handler);
+	}
+
+	public CompletableFuture<Document> getDocument(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId, final HttpClientResponseHandler<Document> handler) {
+		return executeHttpRequest(newGetRequest(uris.document(senderId, agreementType, documentId), requestTrackingId), handler);
+	}
+
+	public CompletableFuture<DocumentCount> getDocumentCount(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId, final HttpClientResponseHandler<DocumentCount> handler) {
+		return executeHttpRequest(newGetRequest(uris.documentCount(senderId, agreementType, userId, query), requestTrackingId), handler);
+	}
+
+	public CompletableFuture<DocumentContent> getDocumentContent(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId, final HttpClientResponseHandler<DocumentContent> handler) {
+		return executeHttpRequest(newGetRequest(uris.documentContent(senderId, agreementType, documentId), requestTrackingId), handler);
+	}
+
+	private <T> CompletableFuture<T> executeHttpRequest(final SimpleHttpRequest request, final HttpClientResponseHandler<T> handler) {
+		request.setHeader(X_Digipost_UserId, brokerId.serialize());
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Future<SimpleHttpResponse> inFlight = httpClient.execute(request, new FutureCallback<SimpleHttpResponse>() {
+			@Override
+			public void completed(SimpleHttpResponse response) {
+				try {
+					result.complete(handler.handleResponse(toClassicResponse(response)));
+				} catch (IOException e) {
+					result.completeExceptionally(RuntimeIOException.from(e));
+				} catch (Exception e) {
+					result.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				result.completeExceptionally(e instanceof IOException ? RuntimeIOException.from(e) : e);
+			}
+
+			@Override
+			public void cancelled() {
+				result.cancel(false);
+			}
+		});
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled()) {
+				inFlight.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	private static ClassicHttpResponse toClassicResponse(SimpleHttpResponse response) {
+		BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(response.getCode(), response.getReasonPhrase());
+		classicResponse.setVersion(response.getVersion());
+		classicResponse.setHeaders(response.getHeaders());
+		byte[] body = response.getBodyBytes();
+		classicResponse.setEntity(new ByteArrayEntity(body != null ? body : new byte[0], response.getContentType()));
+		return classicResponse;
+	}
+
+	private SimpleHttpRequest newGetRequest(final URI uri, String requestTrackingId) {
+		return withCommonHeaders(SimpleHttpRequest.create(Method.GET, uri), requestTrackingId);
+	}
+
+	private SimpleHttpRequest newPostRequest(final URI uri, String requestTrackingId, Object postBodyEntity) {
+		SimpleHttpRequest request = withCommonHeaders(SimpleHttpRequest.create(Method.POST, uri), requestTrackingId);
+		request.setHeader(HttpHeaders.CONTENT_TYPE, DIGIPOST_MEDIA_TYPE_USERS_V2);
+		byte[] body = marshallJaxb(postBodyEntity);
+		hashFilter.settContentHashHeader(body, request);
+		request.setBody(body, ContentType.APPLICATION_XML);
+		return request;
+	}
+
+	public CompletableFuture<EntryPoint> getEntryPoint() {
+		CompletableFuture<EntryPoint> entryPoint = cachedEntryPoint.get();
+		entryPoint.whenComplete((loaded, error) -> {
+			if (error != null) {
+				cachedEntryPoint.invalidate();
+			}
+		});
+		return entryPoint;
+	}
+
+
+	private CompletableFuture<EntryPoint> performGetEntryPoint() {
+		return executeHttpRequest(newGetRequest(uris.root(), null),
+				response -> mapOkResponseOrThrowException(response, r -> unmarshallEntity(r, EntryPoint.class)));
+	}
+
+
+	private final SingleCached<CompletableFuture<EntryPoint>> cachedEntryPoint =
+			new SingleCached<>("digipost-entrypoint-async", this::performGetEntryPoint, expireAfterAccess(ofMinutes(5)));
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.util.function.Supplier;
+
+/**
+ * Lets an interceptor abort the request of an attempt it executes on another thread, e.g. the losing
+ * request of a hedged call. Interrupting the thread of the attempt is not enough, as blocking socket I/O
+ * ignores interrupts, and the request would hold its connection until it completes or times out.
+ */
+final class AttemptCancellation {
+
+	private static final ThreadLocal<AttemptCancellation> current = new ThreadLocal<>();
+
+	/**
+	 * Register how to abort the request which is about to be sent, if it is sent as part of an attempt
+	 * which may be cancelled.
+	 */
+	static void onCancel(final Runnable abortRequest) {
+		AttemptCancellation attempt = current.get();
+		if (attempt != null) {
+			attempt.setAbort(abortRequest);
+		}
+	}
+
+	/**
+	 * @return if the current thread executes an attempt which has been cancelled, i.e. its request
+	 *         fails because it was aborted on purpose, and not because of the API
+	 */
+	static boolean isCancelled() {
+		AttemptCancellation attempt = current.get();
+		if (attempt == null) {
+			return false;
+		}
+		synchronized (attempt) {
+			return attempt.cancelled;
+		}
+	}
+
+	private Runnable abort;
+	private boolean cancelled;
+	private boolean completed;
+
+	/**
+	 * Execute the attempt on the current thread, where the requests it sends may be aborted by {@link #cancel()}.
+	 */
+	<T> T run(final Supplier<T> execution) {
+		AttemptCancellation outer = current.get();
+		current.set(this);
+		try {
+			return execution.get();
+		} finally {
+			current.set(outer);
+			synchronized (this) {
+				completed = true;
+				abort = null;
+			}
+		}
+	}
+
+	/**
+	 * Abort the request of the attempt, if it has not completed.
+	 */
+	void cancel() {
+		Runnable abortRequest;
+		synchronized (this) {
+			if (cancelled || completed) {
+				return;
+			}
+			cancelled = true;
+			abortRequest = abort;
+		}
+		if (abortRequest != null) {
+			abortRequest.run();
+		}
+	}
+
+	private void setAbort(final Runnable abortRequest) {
+		synchronized (this) {
+			if (!cancelled) {
+				abort = abortRequest;
+				return;
+			}
+		}
+		abortRequest.run();
+	}
+}
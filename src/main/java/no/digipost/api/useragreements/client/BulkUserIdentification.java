@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * Identifies a (potentially unbounded) sequence of users, with at most a given amount
+ * of identifications in progress at any time. Input is only pulled as results are consumed, and the
+ * results are yielded in the same order as the user ids are given.
+ * <p>
+ * Repeated user ids are skipped if they have been seen among the most recent
+ * {@code deduplicationWindow} distinct ids, which keeps memory usage bounded regardless of
+ * the size of the input.
+ */
+final class BulkUserIdentification implements Iterator<UserIdentificationResult>, AutoCloseable {
+
+	static int requireValidConcurrency(int maxConcurrentRequests) {
+		if (maxConcurrentRequests < 1) {
+			throw new IllegalArgumentException("maxConcurrentRequests must be at least 1, was " + maxConcurrentRequests);
+		}
+		return maxConcurrentRequests;
+	}
+
+	static Stream<UserIdentificationResult> identifyAll(Stream<UserId> userIds, Function<UserId, IdentificationResult> identify, ExecutorService executor, int maxConcurrentRequests, int deduplicationWindow) {
+		BulkUserIdentification identifications = new BulkUserIdentification(userIds, identify, executor, maxConcurrentRequests, deduplicationWindow);
+		return stream(spliteratorUnknownSize(identifications, ORDERED | NONNULL), false).onClose(identifications::close);
+	}
+
+	private static final class Pending {
+		final UserId userId;
+		final Future<IdentificationResult> identification;
+
+		Pending(UserId userId, Future<IdentificationResult> identification) {
+			this.userId = userId;
+			this.identification = identification;
+		}
+	}
+
+	private final Stream<UserId> userIds;
+	private final Iterator<UserId> remainingUserIds;
+	private final Function<UserId, IdentificationResult> identify;
+	private final ExecutorService executor;
+	private final int maxConcurrentRequests;
+	private final Set<UserId> recentlySeen;
+	private final Deque<Pending> inProgress;
+
+	BulkUserIdentification(Stream<UserId> userIds, Function<UserId, IdentificationResult> identify, ExecutorService executor, int maxConcurrentRequests, int deduplicationWindow) {
+		requireValidConcurrency(maxConcurrentRequests);
+		this.userIds = userIds;
+		this.remainingUserIds = userIds.iterator();
+		this.identify = identify;
+		this.executor = executor;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.recentlySeen = Collections.newSetFromMap(new LinkedHashMap<UserId, Boolean>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UserId, Boolean> eldest) {
+				return size() > deduplicationWindow;
+			}
+		});
+		this.inProgress = new ArrayDeque<>(maxConcurrentRequests);
+	}
+
+	@Override
+	public boolean hasNext() {
+		startIdentifications();
+		if (inProgress.isEmpty()) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public UserIdentificationResult next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Pending next = inProgress.poll();
+		UserIdentificationResult result;
+		try {
+			result = UserIdentificationResult.success(next.userId, next.identification.get());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			result = UserIdentificationResult.failure(next.userId, cause instanceof Exception ? (Exception) cause : e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new RuntimeIOException("Interrupted while waiting for identification of " + next.userId, e);
+		}
+		startIdentifications();
+		return result;
+	}
+
+	private void startIdentifications() {
+		while (inProgress.size() < maxConcurrentRequests && remainingUserIds.hasNext()) {
+			UserId userId = remainingUserIds.next();
+			if (recentlySeen.add(userId)) {
+				inProgress.add(new Pending(userId, executor.submit(() -> identify.apply(userId))));
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		inProgress.forEach(pending -> pending.identification.cancel(true));
+		inProgress.clear();
+		executor.shutdownNow();
+		userIds.close();
+	}
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Counts the bytes read from the content of a response entity, and gives the count when the content is closed.
+ * The content is given once, as for a streamed entity, so that the entity is not counted again when it is consumed
+ * after being read.
+ */
+final class ByteCountingEntity extends HttpEntityWrapper {
+
+	private final LongConsumer onClose;
+	private CountingInputStream content;
+
+	ByteCountingEntity(final HttpEntity entity, final LongConsumer onClose) {
+		super(entity);
+		this.onClose = onClose;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		if (content == null) {
+			InputStream wrappedContent = super.getContent();
+			if (wrappedContent == null) {
+				return null;
+			}
+			content = new CountingInputStream(wrappedContent);
+		}
+		return content;
+	}
+
+	@Override
+	public void writeTo(final OutputStream outStream) throws IOException {
+		try (InputStream in = getContent()) {
+			if (in != null) {
+				in.transferTo(outStream);
+			}
+		}
+	}
+
+	private final class CountingInputStream extends FilterInputStream {
+
+		private long count;
+		private boolean closed;
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (!closed) {
+					closed = true;
+					onClose.accept(count);
+				}
+			}
+		}
+	}
+}
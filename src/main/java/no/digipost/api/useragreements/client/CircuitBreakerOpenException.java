@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+
+/**
+ * Thrown without sending a request when the circuit breaker of an endpoint of the API is open,
+ * because too many of the recent requests to the endpoint have failed or been slow.
+ *
+ * @see CircuitBreakerSettings
+ */
+public class CircuitBreakerOpenException extends UserAgreementsApiException {
+
+	private static final long serialVersionUID = 1;
+
+	private final String endpoint;
+	private final Duration remainingOpenDuration;
+
+	public CircuitBreakerOpenException(final String endpoint, final Duration remainingOpenDuration) {
+		super(CLIENT_TECHNICAL_ERROR, "The circuit breaker for " + endpoint + " is open, as too many recent requests have failed or been slow. " +
+				(remainingOpenDuration.isZero() ? "Probe requests are in progress." : "Requests are allowed again in " + remainingOpenDuration + "."));
+		this.endpoint = endpoint;
+		this.remainingOpenDuration = remainingOpenDuration;
+	}
+
+	/**
+	 * @return the endpoint of the API with the open circuit breaker, e.g. {@code /user-agreements}
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return how long until the circuit breaker lets probe requests through, or zero if probes are already in progress
+	 */
+	public Duration getRemainingOpenDuration() {
+		return remainingOpenDuration;
+	}
+}
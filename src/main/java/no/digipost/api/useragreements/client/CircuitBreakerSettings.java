@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for a circuit breaker for each endpoint of the API, i.e. identification, user agreements, agreement owners
+ * and user documents, enabled with {@link DigipostUserAgreementsClient.Builder#circuitBreaker(CircuitBreakerSettings)}.
+ * <p>
+ * The breaker records the outcome of the most recent requests to the endpoint, within a {@link #window(int, int) window}
+ * of a given size. A request fails if it gets an I/O error or a {@code 5xx} server error, and is slow if it takes longer than
+ * the {@link #slowCallThreshold(Duration, double) slow call duration}. When the rate of failed or slow requests exceeds its
+ * threshold, the breaker opens, and calls to the endpoint fail immediately with {@link CircuitBreakerOpenException}. After
+ * the {@link #openFor(Duration) open duration}, the breaker is half-open and lets a few {@link #halfOpenProbes(int) probe requests}
+ * through. If they all succeed the breaker closes, and if any of them fails or is slow it opens again.
+ */
+public final class CircuitBreakerSettings {
+
+	public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+	public static final Duration DEFAULT_SLOW_CALL_DURATION = Duration.ofSeconds(5);
+	public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+	public static final int DEFAULT_WINDOW_SIZE = 50;
+	public static final int DEFAULT_MINIMUM_CALLS = 20;
+	public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+	public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+	/**
+	 * Open the breaker when the rate of failed or slow requests exceeds the default thresholds.
+	 *
+	 * @return the settings
+	 */
+	public static CircuitBreakerSettings tripOnFailuresOrSlowCalls() {
+		return new CircuitBreakerSettings(DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_DURATION, DEFAULT_SLOW_CALL_RATE_THRESHOLD,
+				DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_OPEN_DURATION, DEFAULT_HALF_OPEN_PROBES);
+	}
+
+
+	final double failureRateThreshold;
+	final Duration slowCallDuration;
+	final double slowCallRateThreshold;
+	final int windowSize;
+	final int minimumCalls;
+	final Duration openDuration;
+	final int halfOpenProbes;
+
+	private CircuitBreakerSettings(final double failureRateThreshold, final Duration slowCallDuration, final double slowCallRateThreshold,
+			final int windowSize, final int minimumCalls, final Duration openDuration, final int halfOpenProbes) {
+		if (!(failureRateThreshold > 0 && failureRateThreshold <= 1) || !(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1)) {
+			throw new IllegalArgumentException("failureRateThreshold and slowCallRateThreshold must be greater than 0 and at most 1, was " +
+					failureRateThreshold + " and " + slowCallRateThreshold);
+		}
+		if (minimumCalls < 1 || windowSize < minimumCalls) {
+			throw new IllegalArgumentException("minimumCalls must be positive and at most windowSize, was " + minimumCalls + " and " + windowSize);
+		}
+		if (halfOpenProbes < 1) {
+			throw new IllegalArgumentException("halfOpenProbes must be positive, was " + halfOpenProbes);
+		}
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallDuration = Objects.requireNonNull(slowCallDuration, "slowCallDuration cannot be null");
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.windowSize = windowSize;
+		this.minimumCalls = minimumCalls;
+		this.openDuration = Objects.requireNonNull(openDuration, "openDuration cannot be null");
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	/**
+	 * @param failureRateThreshold the ratio of failed requests, from 0 exclusive to 1 inclusive, which opens the breaker,
+	 *                             the default is {@link #DEFAULT_FAILURE_RATE_THRESHOLD}
+	 * @return new settings with the given threshold
+	 */
+	public CircuitBreakerSettings failureRateThreshold(final double failureRateThreshold) {
+		return new CircuitBreakerSettings(failureRateThreshold, slowCallDuration, slowCallRateThreshold, windowSize, minimumCalls, openDuration, halfOpenProbes);
+	}
+
+	/**
+	 * @param slowCallDuration the duration after which a request is slow, the default is {@link #DEFAULT_SLOW_CALL_DURATION}
+	 * @param slowCallRateThreshold the ratio of slow requests, from 0 exclusive to 1 inclusive, which opens the breaker,
+	 *                              the default is {@link #DEFAULT_SLOW_CALL_RATE_THRESHOLD}
+	 * @return new settings with the given threshold
+	 */
+	public CircuitBreakerSettings slowCallThreshold(final Duration slowCallDuration, final double slowCallRateThreshold) {
+		return new CircuitBreakerSettings(failureRateThreshold, slowCallDuration, slowCallRateThreshold, windowSize, minimumCalls, openDuration, halfOpenProbes);
+	}
+
+	/**
+	 * @param windowSize the amount of recent requests the rates are calculated from, the default is {@link #DEFAULT_WINDOW_SIZE}
+	 * @param minimumCalls the amount of recorded requests required before the breaker may open, the default is {@link #DEFAULT_MINIMUM_CALLS}
+	 * @return new settings with the given window
+	 */
+	public CircuitBreakerSettings window(final int windowSize, final int minimumCalls) {
+		return new CircuitBreakerSettings(failureRateThreshold, slowCallDuration, slowCallRateThreshold, windowSize, minimumCalls, openDuration, halfOpenProbes);
+	}
+
+	/**
+	 * @param openDuration how long the breaker stays open before letting probe requests through,
+	 *                     the default is {@link #DEFAULT_OPEN_DURATION}
+	 * @return new settings with the given open duration
+	 */
+	public CircuitBreakerSettings openFor(final Duration openDuration) {
+		return new CircuitBreakerSettings(failureRateThreshold, slowCallDuration, slowCallRateThreshold, windowSize, minimumCalls, openDuration, halfOpenProbes);
+	}
+
+	/**
+	 * @param halfOpenProbes the amount of probe requests let through when the breaker is half-open,
+	 *                       the default is {@link #DEFAULT_HALF_OPEN_PROBES}
+	 * @return new settings with the given amount of probes
+	 */
+	public CircuitBreakerSettings halfOpenProbes(final int halfOpenProbes) {
+		return new CircuitBreakerSettings(failureRateThreshold, slowCallDuration, slowCallRateThreshold, windowSize, minimumCalls, openDuration, halfOpenProbes);
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreakerSettings{failureRateThreshold=" + failureRateThreshold + ", slowCallDuration=" + slowCallDuration +
+				", slowCallRateThreshold=" + slowCallRateThreshold + ", windowSize=" + windowSize + ", minimumCalls=" + minimumCalls +
+				", openDuration=" + openDuration + ", halfOpenProbes=" + halfOpenProbes + "}";
+	}
+}
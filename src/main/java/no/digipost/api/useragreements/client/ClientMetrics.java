@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Receives measurements of the calls the client makes to the API, to record them with a metrics library.
+ * All methods do nothing by default, so an implementation only needs to override the measurements it records.
+ * See {@link MeterClientMetrics} for recording them as the timers, distribution summaries and counters
+ * of e.g. Micrometer.
+ * <p>
+ * The methods are invoked on the threads performing the calls, and must be thread-safe and fast. An
+ * exception thrown by them does not affect the call, and is logged, at most once a minute.
+ * <p>
+ * The operation of a measurement is the name of the API operation, e.g. {@code GET_AGREEMENT} or {@code IDENTIFY_USER}.
+ */
+public interface ClientMetrics {
+
+	/**
+	 * Records nothing. This is the default.
+	 */
+	ClientMetrics NONE = new ClientMetrics() {};
+
+	/**
+	 * A call has succeeded.
+	 *
+	 * @param operation the operation of the call
+	 * @param latency the duration of the call, including any retries and waiting for rate and concurrency limits
+	 */
+	default void callSucceeded(String operation, Duration latency) {}
+
+	/**
+	 * A call has failed.
+	 *
+	 * @param operation the operation of the call
+	 * @param latency the duration of the call, including any retries and waiting for rate and concurrency limits
+	 * @param errorCode the error code of the failure, or {@link ErrorCode#CLIENT_TECHNICAL_ERROR} if it did not have any
+	 */
+	default void callFailed(String operation, Duration latency, ErrorCode errorCode) {}
+
+	/**
+	 * A response has been received for a request. A call sends several requests if it is retried or hedged.
+	 *
+	 * @param operation the operation the request was sent for
+	 * @param statusCode the status code of the response
+	 * @param latency the duration from sending the request until the response was received, excluding reading the body
+	 */
+	default void responseReceived(String operation, int statusCode, Duration latency) {}
+
+	/**
+	 * A request has completed, with or without a response, or failed. This tells where the time of the
+	 * request was spent, in the client or waiting for the API.
+	 *
+	 * @param operation the operation the request was sent for
+	 * @param timings the duration of each phase of the request
+	 */
+	default void requestCompleted(String operation, RequestTimings timings) {}
+
+	/**
+	 * A {@code 429 Too Many Requests} response has been received.
+	 *
+	 * @param operation the operation the request was sent for
+	 * @param retryAfter the delay of the {@code Retry-After} of the response, if it had one
+	 */
+	default void tooManyRequests(String operation, Optional<Duration> retryAfter) {}
+
+	/**
+	 * The body of a request has been sent.
+	 *
+	 * @param operation the operation the request was sent for
+	 * @param bytes the size of the body
+	 */
+	default void bytesSent(String operation, long bytes) {}
+
+	/**
+	 * The body of a response has been read, completely or until it was closed.
+	 *
+	 * @param operation the operation the request was sent for
+	 * @param bytes the amount of bytes read from the body
+	 */
+	default void bytesReceived(String operation, long bytes) {}
+
+	/**
+	 * A connection has been leased from the connection pool of the default Apache HttpClient.
+	 * This is not measured for a customized HttpClient, or the {@link java.net.http.HttpClient}.
+	 *
+	 * @param leaseTime how long the request waited for the connection
+	 */
+	default void connectionLeased(Duration leaseTime) {}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+/**
+ * Settings for adapting the amount of concurrent requests the client sends for each operation,
+ * enabled with {@link DigipostUserAgreementsClient.Builder#adaptiveConcurrencyLimit(ConcurrencyLimiterSettings)}.
+ * <p>
+ * The limit grows by one for each successful request while the requests in flight use at least half of it, and the
+ * latency stays within the {@link #latencyTolerance(double) tolerance} of the long term average latency. The limit is
+ * multiplied by the {@link #backoffRatio(double) backoff ratio} when the latency rises above the tolerance, or the API
+ * responds with {@link no.digipost.api.useragreements.client.response.TooManyRequestsException 429 Too Many Requests},
+ * but at most once within the recent average latency, as the requests completing within that time were sent before
+ * the previous decrease could take effect.
+ * Requests exceeding the limit wait until a request in flight completes.
+ */
+public final class ConcurrencyLimiterSettings {
+
+	public static final int DEFAULT_INITIAL_LIMIT = 10;
+	public static final int DEFAULT_MIN_LIMIT = 1;
+	public static final int DEFAULT_MAX_LIMIT = 200;
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+	/**
+	 * @return settings with the default limits, latency tolerance and backoff ratio
+	 */
+	public static ConcurrencyLimiterSettings adaptive() {
+		return new ConcurrencyLimiterSettings(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_LATENCY_TOLERANCE, DEFAULT_BACKOFF_RATIO);
+	}
+
+
+	final int initialLimit;
+	final int minLimit;
+	final int maxLimit;
+	final double latencyTolerance;
+	final double backoffRatio;
+
+	private ConcurrencyLimiterSettings(final int initialLimit, final int minLimit, final int maxLimit, final double latencyTolerance, final double backoffRatio) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("The limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit, " +
+					"was minLimit=" + minLimit + ", initialLimit=" + initialLimit + ", maxLimit=" + maxLimit);
+		}
+		if (!(latencyTolerance >= 1)) {
+			throw new IllegalArgumentException("latencyTolerance must be at least 1, was " + latencyTolerance);
+		}
+		if (!(backoffRatio > 0 && backoffRatio < 1)) {
+			throw new IllegalArgumentException("backoffRatio must be between 0 and 1, was " + backoffRatio);
+		}
+		this.initialLimit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyTolerance = latencyTolerance;
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * @param initialLimit the limit to start with, the default is {@value #DEFAULT_INITIAL_LIMIT}
+	 * @return new settings with the given initial limit
+	 */
+	public ConcurrencyLimiterSettings initialLimit(final int initialLimit) {
+		return new ConcurrencyLimiterSettings(initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio);
+	}
+
+	/**
+	 * @param minLimit the lowest the limit may shrink to, the default is {@value #DEFAULT_MIN_LIMIT}
+	 * @param maxLimit the highest the limit may grow to, the default is {@value #DEFAULT_MAX_LIMIT}
+	 * @return new settings with the given bounds of the limit
+	 */
+	public ConcurrencyLimiterSettings limits(final int minLimit, final int maxLimit) {
+		return new ConcurrencyLimiterSettings(Math.max(minLimit, Math.min(initialLimit, maxLimit)), minLimit, maxLimit, latencyTolerance, backoffRatio);
+	}
+
+	/**
+	 * @param latencyTolerance how many times the long term average latency the recent latency may be before the
+	 *                         limit shrinks, the default is {@value #DEFAULT_LATENCY_TOLERANCE}
+	 * @return new settings with the given latency tolerance
+	 */
+	public ConcurrencyLimiterSettings latencyTolerance(final double latencyTolerance) {
+		return new ConcurrencyLimiterSettings(initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio);
+	}
+
+	/**
+	 * @param backoffRatio what the limit is multiplied with when it shrinks, the default is {@value #DEFAULT_BACKOFF_RATIO}
+	 * @return new settings with the given backoff ratio
+	 */
+	public ConcurrencyLimiterSettings backoffRatio(final double backoffRatio) {
+		return new ConcurrencyLimiterSettings(initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio);
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrencyLimiterSettings{initialLimit=" + initialLimit + ", minLimit=" + minLimit + ", maxLimit=" + maxLimit +
+				", latencyTolerance=" + latencyTolerance + ", backoffRatio=" + backoffRatio + "}";
+	}
+}
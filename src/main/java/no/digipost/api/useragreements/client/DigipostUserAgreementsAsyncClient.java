@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
+import no.digipost.api.useragreements.client.filters.request.RequestDateInterceptor;
+import no.digipost.api.useragreements.client.filters.request.RequestSignatureInterceptor;
+import no.digipost.api.useragreements.client.filters.request.RequestUserAgentInterceptor;
+import no.digipost.api.useragreements.client.filters.response.ResponseDateInterceptor;
+import no.digipost.api.useragreements.client.security.CryptoUtil;
+import no.digipost.api.useragreements.client.security.PrivateKeySigner;
+import no.digipost.http.client.HttpClientFactory;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequestInterceptor;
+import org.apache.hc.core5.http.HttpResponseInterceptor;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Arrays.asList;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.getAgreementResultHandler;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.singleJaxbEntityHandler;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.voidOkHandler;
+
+/**
+ * Non-blocking API client for managing Digipost documents on behalf of users. Every
+ * operation returns immediately with a {@link CompletableFuture} which is completed
+ * when the response has been received and handled, allowing a large number of requests
+ * to be in flight on the few I/O threads of the underlying {@link CloseableHttpAsyncClient}.
+ * <p>
+ * The operations correspond to those of {@link DigipostUserAgreementsClient}, with the
+ * exception of {@link DigipostUserAgreementsClient#getAgreementOwners(SenderId, AgreementType) getAgreementOwners},
+ * which is a streaming resource and only available from the blocking client.
+ * <p>
+ * The client must be {@link #close() closed} when no longer in use, to shut down the I/O threads.
+ */
+public class DigipostUserAgreementsAsyncClient implements Closeable {
+
+	static {
+		CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
+	}
+
+	private final AsyncApiService apiService;
+	private final CloseableHttpAsyncClient httpClient;
+
+	public DigipostUserAgreementsAsyncClient(final AsyncApiService apiService, final CloseableHttpAsyncClient httpClient) {
+		this.apiService = apiService;
+		this.httpClient = httpClient;
+		CryptoUtil.verifyTLSCiphersAvailable();
+	}
+
+	public CompletableFuture<IdentificationResult> identifyUser(final SenderId senderId, final UserId userId) {
+		return identifyUser(senderId, userId, null);
+	}
+
+	public CompletableFuture<IdentificationResult> identifyUser(final SenderId senderId, final UserId userId, final String requestTrackingId) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(userId, "userId cannot be null");
+		return apiService.identifyUser(senderId, userId, requestTrackingId, singleJaxbEntityHandler(IdentificationResult.class));
+	}
+
+	public CompletableFuture<Void> createOrReplaceAgreement(final SenderId senderId, final Agreement agreement) {
+		return createOrReplaceAgreement(senderId, agreement, null);
+	}
+
+	public CompletableFuture<Void> createOrReplaceAgreement(final SenderId senderId, final Agreement agreement, final String requestTrackingId) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(agreement, "agreement cannot be null");
+		return apiService.createAgreement(senderId, agreement, requestTrackingId, voidOkHandler());
+	}
+
+	public CompletableFuture<GetAgreementResult> getAgreement(final SenderId senderId, final AgreementType type, final UserId userId) {
+		return getAgreement(senderId, type, userId, null);
+	}
+
+	public CompletableFuture<GetAgreementResult> getAgreement(final SenderId senderId, final AgreementType type, final UserId userId, final String requestTrackingId) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(type, "agreementType cannot be null");
+		Objects.requireNonNull(userId, "userId cannot be null");
+		return apiService.getAgreement(senderId, type, userId, requestTrackingId, getAgreementResultHandler());
+	}
+
+	public CompletableFuture<List<Agreement>> getAgreements(final SenderId senderId, final UserId userId) {
+		return getAgreements(senderId, userId, null);
+	}
+
+	public CompletableFuture<List<Agreement>> getAgreements(final SenderId senderId, final UserId userId, final String requestTrackingId) {
+		return apiService.getAgreements(senderId, userId, requestTrackingId, singleJaxbEntityHandler(Agreements.class)).thenApply(Agreements::getAgreements);
+	}
+
+	public CompletableFuture<Void> deleteAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId) {
+		return deleteAgreement(senderId, agreementType, userId, null);
+	}
+
+	public CompletableFuture<Void> deleteAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId) {
+		return apiService.deleteAgreement(senderId, agreementType, userId, requestTrackingId, voidOkHandler());
+	}
+
+	public CompletableFuture<List<Document>> getDocuments(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query) {
+		return getDocuments(senderId, agreementType, userId, query, null);
+	}
+
+	public CompletableFuture<List<Document>> getDocuments(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(agreementType, "agreementType cannot be null");
+		Objects.requireNonNull(userId, "userId cannot be null");
+		return apiService.getDocuments(senderId, agreementType, userId, query, requestTrackingId, singleJaxbEntityHandler(Documents.class)).thenApply(Documents::getDocuments);
+	}
+
+	public CompletableFuture<Document> getDocument(final SenderId senderId, final AgreementType agreementType, final long documentId) {
+		return getDocument(senderId, agreementType, documentId, null);
+	}
+
+	public CompletableFuture<Document> getDocument(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId) {
+		return apiService.getDocument(senderId, agreementType, documentId, requestTrackingId, singleJaxbEntityHandler(Document.class));
+	}
+
+	public CompletableFuture<Long> getDocumentCount(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query) {
+		return getDocumentCount(senderId, agreementType, userId, query, null);
+	}
+
+	public CompletableFuture<Long> getDocumentCount(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query, final String requestTrackingId) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(agreementType, "agreementType cannot be null");
+		Objects.requireNonNull(userId, "userId cannot be null");
+		return apiService.getDocumentCount(senderId, agreementType, userId, query, requestTrackingId, singleJaxbEntityHandler(DocumentCount.class)).thenApply(DocumentCount::getCount);
+	}
+
+	public CompletableFuture<DocumentContent> getDocumentContent(final SenderId senderId, final AgreementType agreementType, final long documentId) {
+		return getDocumentContent(senderId, agreementType, documentId, null);
+	}
+
+	public CompletableFuture<DocumentContent> getDocumentContent(final SenderId senderId, final AgreementType agreementType, final long documentId, final String requestTrackingId) {
+		return apiService.getDocumentContent(senderId, agreementType, documentId, requestTrackingId, singleJaxbEntityHandler(DocumentContent.class));
+	}
+
+	/**
+	 * Shut down the underlying HTTP client, cancelling any requests still in flight.
+	 */
+	@Override
+	public void close() {
+		httpClient.close(CloseMode.GRACEFUL);
+	}
+
+	public static class Builder {
+
+		private static final URI PRODUCTION_ENDPOINT = URI.create("https://api.digipost.no");
+
+		private URI serviceEndpoint;
+		private final BrokerId brokerId;
+		private final InputStream certificateP12File;
+		private final String certificatePassword;
+		private final Optional<PrivateKey> privateKey;
+		private HttpAsyncClientBuilder httpClientBuilder;
+		private Optional<H2AsyncClientBuilder> http2ClientBuilder = Optional.empty();
+		private Optional<HttpHost> proxyHost = Optional.empty();
+
+		public Builder(final BrokerId brokerId, InputStream certificateP12File, String certificatePassword){
+			this(brokerId, certificateP12File, certificatePassword, null);
+		}
+
+		public Builder(BrokerId brokerId, PrivateKey privateKey) {
+			this(brokerId, null, null, privateKey);
+		}
+
+		private Builder(BrokerId brokerId, InputStream certificateP12File, String certificatePassword, PrivateKey privateKey) {
+			this.brokerId = brokerId;
+			if (privateKey == null && (certificateP12File == null || certificatePassword == null)) {
+				throw new IllegalArgumentException("Client must be supplied either PrivateKey, or Certificate and password for certificate");
+			}
+			this.certificateP12File = certificateP12File;
+			this.certificatePassword = certificatePassword;
+			this.privateKey = Optional.ofNullable(privateKey);
+			serviceEndpoint(PRODUCTION_ENDPOINT);
+			httpClientBuilder = HttpAsyncClients.custom()
+					.setDefaultRequestConfig(HttpClientFactory.createDefaultRequestConfig())
+					.setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+							.setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1).build())
+							.build());
+		}
+
+		public Builder useProxy(final HttpHost proxyHost) {
+			this.proxyHost = Optional.ofNullable(proxyHost);
+			return this;
+		}
+
+		public Builder serviceEndpoint(URI endpointUri) {
+			this.serviceEndpoint = endpointUri;
+			return this;
+		}
+
+		public Builder setHttpClientBuilder(final HttpAsyncClientBuilder httpClientBuilder) {
+			this.httpClientBuilder = httpClientBuilder;
+			this.http2ClientBuilder = Optional.empty();
+			return this;
+		}
+
+		/**
+		 * Use HTTP/2, which multiplexes concurrent requests as streams over a single connection
+		 * to the service endpoint, instead of opening a connection for each request in flight.
+		 * The endpoint must support HTTP/2, i.e. negotiated with ALPN for https, or with prior knowledge
+		 * for plain http. HTTP/2 can not be combined with {@link #useProxy(HttpHost) a proxy}.
+		 */
+		public Builder useHttp2() {
+			return setHttp2ClientBuilder(HttpAsyncClients.customHttp2()
+					.setDefaultRequestConfig(HttpClientFactory.createDefaultRequestConfig()));
+		}
+
+		/**
+		 * Use HTTP/2 with a customized client, see {@link #useHttp2()}.
+		 */
+		public Builder setHttp2ClientBuilder(final H2AsyncClientBuilder http2ClientBuilder) {
+			this.http2ClientBuilder = Optional.of(http2ClientBuilder);
+			return this;
+		}
+
+		public DigipostUserAgreementsAsyncClient build() {
+			CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
+
+			PrivateKeySigner pkSigner = privateKey.map(PrivateKeySigner::new).orElseGet(() -> new PrivateKeySigner(certificateP12File, certificatePassword));
+			RequestContentSHA256Filter hashFilter = new RequestContentSHA256Filter();
+			List<HttpRequestInterceptor> requestInterceptors = asList(
+					new RequestDateInterceptor(), new RequestUserAgentInterceptor(), new RequestSignatureInterceptor(pkSigner, hashFilter));
+			HttpResponseInterceptor responseInterceptor = new ResponseDateInterceptor();
+
+			final CloseableHttpAsyncClient httpClient;
+			if (http2ClientBuilder.isPresent()) {
+				if (proxyHost.isPresent()) {
+					throw new IllegalStateException("HTTP/2 can not be used together with proxy " + proxyHost.get());
+				}
+				H2AsyncClientBuilder builder = http2ClientBuilder.get();
+				requestInterceptors.forEach(builder::addRequestInterceptorLast);
+				builder.addResponseInterceptorLast(responseInterceptor);
+				httpClient = builder.build();
+			} else {
+				requestInterceptors.forEach(httpClientBuilder::addRequestInterceptorLast);
+				httpClientBuilder.addResponseInterceptorLast(responseInterceptor);
+				proxyHost.ifPresent(httpClientBuilder::setProxy);
+				httpClient = httpClientBuilder.build();
+			}
+			httpClient.start();
+			AsyncApiService apiService = new AsyncApiService(serviceEndpoint, brokerId, httpClient, hashFilter);
+			return new DigipostUserAgreementsAsyncClient(apiService, httpClient);
+		}
+	}
+}
@@ -15,28 +15,35 @@
  */
 package no.digipost.api.useragreements.client;
 
-import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
-import no.digipost.api.useragreements.client.filters.request.RequestDateInterceptor;
-import no.digipost.api.useragreements.client.filters.request.RequestSignatureInterceptor;
-import no.digipost.api.useragreements.client.filters.request.RequestUserAgentInterceptor;
-import no.digipost.api.useragreements.client.filters.response.ResponseDateInterceptor;
+import no.digipost.api.useragreements.client.filters.DigipostHttpProcessor;
 import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
 import no.digipost.api.useragreements.client.security.CryptoUtil;
 import no.digipost.api.useragreements.client.security.PrivateKeySigner;
+import no.digipost.api.useragreements.client.transport.ApacheHttpTransport;
+import no.digipost.api.useragreements.client.transport.HttpTransport;
+import no.digipost.api.useragreements.client.transport.JavaNetHttpTransport;
+import no.digipost.http.client.HttpClientConnectionManagerFactory;
 import no.digipost.http.client.HttpClientFactory;
 import no.digipost.http.client.HttpClientSettings;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.http.HttpHost;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.message.StatusLine;
 
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
 import java.net.URI;
 import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static no.digipost.api.useragreements.client.response.ResponseUtils.isOkResponse;
 import static no.digipost.api.useragreements.client.response.ResponseUtils.mapOkResponseOrThrowException;
@@ -52,20 +59,129 @@ public class DigipostUserAgreementsClient {
 		CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
 	}
 
+	/**
+	 * The default maximum amount of concurrent requests for bulk operations, which
+	 * corresponds to the default maximum amount of pooled connections per route.
+	 */
+	public static final int DEFAULT_BULK_CONCURRENCY = 10;
+
+	static final int BULK_DEDUPLICATION_WINDOW = 10_000;
+
 	private final ApiService apiService;
+	private final ExecutionMode executionMode;
+	private final ExpiringResultCache<AgreementKey, GetAgreementResult> agreementCache;
+	private final ExpiringResultCache<UserId, IdentificationResult> identificationCache;
+	private final Optional<AgreementLookupBatcher> agreementLookupBatcher;
 
 	public DigipostUserAgreementsClient(final ApiService apiService) {
+		this(apiService, ExecutionMode.PLATFORM_THREADS);
+	}
+
+	public DigipostUserAgreementsClient(final ApiService apiService, final ExecutionMode executionMode) {
+		this(apiService, executionMode, Optional.empty(), Optional.empty(), Optional.empty());
+	}
+
+	DigipostUserAgreementsClient(final ApiService apiService, final ExecutionMode executionMode,
+			final Optional<ResultCacheSettings> agreementCache, final Optional<ResultCacheSettings> identificationCache,
+			final Optional<Duration> agreementLookupBatchWindow) {
 		this.apiService = apiService;
+		this.executionMode = executionMode;
+		this.agreementCache = new ExpiringResultCache<>(agreementCache, GetAgreementResult::isSuccess);
+		this.identificationCache = new ExpiringResultCache<>(identificationCache, result -> result.getResult() == IdentificationResultCode.DIGIPOST);
+		this.agreementLookupBatcher = agreementLookupBatchWindow.map(window -> new AgreementLookupBatcher(window));
 		CryptoUtil.verifyTLSCiphersAvailable();
 	}
 
+	private DigipostUserAgreementsClient(final DigipostUserAgreementsClient client, final ApiService apiService) {
+		this.apiService = apiService;
+		this.executionMode = client.executionMode;
+		this.agreementCache = client.agreementCache;
+		this.identificationCache = client.identificationCache;
+		this.agreementLookupBatcher = client.agreementLookupBatcher;
+	}
+
+	/**
+	 * Get a view of this client where each call must complete within the given deadline, e.g.
+	 * {@code client.withDeadline(Duration.ofMillis(300)).identifyUser(senderId, userId)}. The timeouts of each request
+	 * are limited to the time remaining of the deadline, and a request which has not completed when the deadline
+	 * is reached is aborted, failing the call with {@link RuntimeIOException}. Calls are not
+	 * {@link Builder#retry(RetrySettings) retried} beyond the deadline, wait for the
+	 * {@link Builder#adaptiveConcurrencyLimit(ConcurrencyLimiterSettings) concurrency limit} at most until the deadline,
+	 * and fail immediately with {@link no.digipost.api.useragreements.client.response.TooManyRequestsException} if the
+	 * {@link Builder#rateLimit(RateLimiterSettings) rate limit} would make them wait beyond it. The view shares the
+	 * connections, caches and limits of this client, and its {@link Builder#batchAgreementLookups(Duration) agreement lookups}
+	 * are batched with those of this client and its other views.
+	 *
+	 * @param deadline the longest time each call of the returned client may take
+	 * @return the client with the given deadline
+	 */
+	public DigipostUserAgreementsClient withDeadline(final Duration deadline) {
+		return new DigipostUserAgreementsClient(this, apiService.withDeadline(deadline));
+	}
+
 	public IdentificationResult identifyUser(final SenderId senderId, final UserId userId) {
 		return identifyUser(senderId, userId, null); }
 
 	public IdentificationResult identifyUser(final SenderId senderId, final UserId userId, final String requestTrackingId) {
 		Objects.requireNonNull(senderId, "senderId cannot be null");
 		Objects.requireNonNull(userId, "userId cannot be null");
-		return apiService.identifyUser(senderId, userId, requestTrackingId, singleJaxbEntityHandler(IdentificationResult.class));
+		return identificationCache.get(userId, key -> apiService.identifyUser(senderId, userId, requestTrackingId, singleJaxbEntityHandler(IdentificationResult.class)));
+	}
+
+	/**
+	 * @return the hits and misses of the cache enabled with {@link Builder#cacheIdentifications(ResultCacheSettings)}
+	 */
+	public ResultCacheStats getIdentificationCacheStats() {
+		return identificationCache.stats();
+	}
+
+	/**
+	 * @return the hits and misses of the cache enabled with {@link Builder#cacheAgreements(ResultCacheSettings)}
+	 */
+	public ResultCacheStats getAgreementCacheStats() {
+		return agreementCache.stats();
+	}
+
+	/**
+	 * @return the calls and retries of the retries enabled with {@link Builder#retry(RetrySettings)}
+	 */
+	public RetryStats getRetryStats() {
+		return apiService.getInterceptor(RetryingInterceptor.class).map(RetryingInterceptor::stats).orElseGet(() -> new RetryStats(0, 0, 0, 0));
+	}
+
+	/**
+	 * Identify many users, with at most {@link #DEFAULT_BULK_CONCURRENCY} identifications in progress at a time.
+	 *
+	 * @see #identifyUsers(SenderId, Stream, int)
+	 */
+	public Stream<UserIdentificationResult> identifyUsers(final SenderId senderId, final Stream<UserId> userIds) {
+		return identifyUsers(senderId, userIds, DEFAULT_BULK_CONCURRENCY);
+	}
+
+	public Stream<UserIdentificationResult> identifyUsers(final SenderId senderId, final Iterable<UserId> userIds, final int maxConcurrentRequests) {
+		return identifyUsers(senderId, StreamSupport.stream(userIds.spliterator(), false), maxConcurrentRequests);
+	}
+
+	/**
+	 * Identify many users concurrently. The user ids are consumed lazily as the returned stream is consumed,
+	 * and each user yields a {@link UserIdentificationResult}, in the same order as the given user ids,
+	 * containing either the {@link IdentificationResult} or the exception which caused the identification to fail.
+	 * A user id which is repeated among the most recent ids is only identified once.
+	 * <p>
+	 * The returned stream holds threads and open HTTP requests, and <strong>must</strong> be
+	 * {@link Stream#close() closed}, preferably using {@code try-with-resources}, if it is not consumed completely.
+	 *
+	 * @param senderId the sender to identify the users for
+	 * @param userIds the users to identify
+	 * @param maxConcurrentRequests the maximum amount of identification requests in progress at any time
+	 * @return the stream of identification results
+	 */
+	public Stream<UserIdentificationResult> identifyUsers(final SenderId senderId, final Stream<UserId> userIds, final int maxConcurrentRequests) {
+		Objects.requireNonNull(senderId, "senderId cannot be null");
+		Objects.requireNonNull(userIds, "userIds cannot be null");
+		BulkUserIdentification.requireValidConcurrency(maxConcurrentRequests);
+		return BulkUserIdentification.identifyAll(userIds, userId -> identifyUser(senderId, userId),
+				executionMode.newExecutor("identify-users", maxConcurrentRequests), maxConcurrentRequests, BULK_DEDUPLICATION_WINDOW);
 	}
 
 	public void createOrReplaceAgreement(final SenderId senderId, final Agreement agreement) {
@@ -74,7 +190,11 @@ public class DigipostUserAgreementsClient {
 	public void createOrReplaceAgreement(final SenderId senderId, final Agreement agreement, final String requestTrackingId) {
 		Objects.requireNonNull(senderId, "senderId cannot be null");
 		Objects.requireNonNull(agreement, "agreement cannot be null");
-		apiService.createAgreement(senderId, agreement, requestTrackingId, voidOkHandler());
+		try {
+			apiService.createAgreement(senderId, agreement, requestTrackingId, voidOkHandler());
+		} finally {
+			agreementCache.invalidate(new AgreementKey(senderId, agreement.getType(), agreement.getUserId()));
+		}
 	}
 
 	public GetAgreementResult getAgreement(final SenderId senderId, final AgreementType type, final UserId userId) {
@@ -85,22 +205,9 @@ public class DigipostUserAgreementsClient {
 		Objects.requireNonNull(senderId, "senderId cannot be null");
 		Objects.requireNonNull(type, "agreementType cannot be null");
 		Objects.requireNonNull(userId, "userId cannot be null");
-		return apiService.getAgreement(senderId, type, userId, requestTrackingId, response -> {
-			StatusLine status = new StatusLine(response);
-			if (isOkResponse(status.getStatusCode())) {
-				return new GetAgreementResult(unmarshallEntity(response, Agreement.class));
-			} else {
-				final Error error = readErrorEntity(response);
-				if (status.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
-					if (error.hasCode(ErrorCode.UNKNOWN_USER_ID)) {
-						return new GetAgreementResult(GetAgreementResult.FailedReason.UNKNOWN_USER, () -> new UnexpectedResponseException(status, error));
-					} else if (error.hasCode(ErrorCode.AGREEMENT_NOT_FOUND)) {
-						return new GetAgreementResult(GetAgreementResult.FailedReason.NO_AGREEMENT, () -> new UnexpectedResponseException(status, error));
-					}
-				}
-				throw new UnexpectedResponseException(status, error);
-			}
-		});
+		return agreementCache.get(new AgreementKey(senderId, type, userId), key -> agreementLookupBatcher
+				.map(batcher -> batcher.getAgreement(apiService, senderId, type, userId, requestTrackingId))
+				.orElseGet(() -> apiService.getAgreement(senderId, type, userId, requestTrackingId, getAgreementResultHandler())));
 	}
 
 	public List<Agreement> getAgreements(final SenderId senderId, final UserId userId) {
@@ -116,7 +223,11 @@ public class DigipostUserAgreementsClient {
 	}
 
 	public void deleteAgreement(final SenderId senderId, final AgreementType agreementType, final UserId userId, final String requestTrackingId) {
-		apiService.deleteAgrement(senderId, agreementType, userId, requestTrackingId, voidOkHandler());
+		try {
+			apiService.deleteAgrement(senderId, agreementType, userId, requestTrackingId, voidOkHandler());
+		} finally {
+			agreementCache.invalidate(new AgreementKey(senderId, agreementType, userId));
+		}
 	}
 
 	public List<Document> getDocuments(final SenderId senderId, final AgreementType agreementType, final UserId userId, final GetDocumentsQuery query) {
@@ -168,14 +279,66 @@ public class DigipostUserAgreementsClient {
 		return apiService.getAgreementOwners(senderId, agreementType, requestTrackingId);
 	}
 
-	private HttpClientResponseHandler<Void> voidOkHandler() {
+	static HttpClientResponseHandler<Void> voidOkHandler() {
 		return response -> mapOkResponseOrThrowException(response, r -> null);
 	}
 
-	private <T> HttpClientResponseHandler<T> singleJaxbEntityHandler(Class<T> responseType) {
+	static <T> HttpClientResponseHandler<T> singleJaxbEntityHandler(Class<T> responseType) {
 		return response -> mapOkResponseOrThrowException(response, r -> unmarshallEntity(r, responseType));
 	}
 
+	static HttpClientResponseHandler<GetAgreementResult> getAgreementResultHandler() {
+		return response -> {
+			StatusLine status = new StatusLine(response);
+			if (isOkResponse(status.getStatusCode())) {
+				return new GetAgreementResult(unmarshallEntity(response, Agreement.class));
+			} else {
+				final Error error = readErrorEntity(response);
+				if (status.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+					if (error.hasCode(ErrorCode.UNKNOWN_USER_ID)) {
+						return new GetAgreementResult(GetAgreementResult.FailedReason.UNKNOWN_USER, () -> new UnexpectedResponseException(status, error));
+					} else if (error.hasCode(ErrorCode.AGREEMENT_NOT_FOUND)) {
+						return new GetAgreementResult(GetAgreementResult.FailedReason.NO_AGREEMENT, () -> new UnexpectedResponseException(status, error));
+					}
+				}
+				throw new UnexpectedResponseException(status, error);
+			}
+		};
+	}
+
+	/**
+	 * Identifies an agreement of a user with a sender. {@link AgreementType} has no equality,
+	 * so the type is identified by its name.
+	 */
+	static final class AgreementKey {
+		private final SenderId senderId;
+		private final String agreementType;
+		private final UserId userId;
+
+		AgreementKey(final SenderId senderId, final AgreementType agreementType, final UserId userId) {
+			this.senderId = senderId;
+			this.agreementType = agreementType.getType();
+			this.userId = userId;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof AgreementKey)) {
+				return false;
+			}
+			AgreementKey other = (AgreementKey) o;
+			return senderId.equals(other.senderId) && agreementType.equals(other.agreementType) && userId.equals(other.userId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(senderId, agreementType, userId);
+		}
+	}
+
 	public static class Builder {
 
 		private static final URI PRODUCTION_ENDPOINT = URI.create("https://api.digipost.no");
@@ -186,7 +349,21 @@ public class DigipostUserAgreementsClient {
 		private final String certificatePassword;
 		private final Optional<PrivateKey> privateKey;
 		private HttpClientBuilder httpClientBuilder;
+		private Optional<PoolingHttpClientConnectionManager> defaultConnectionManager;
+		private Optional<java.net.http.HttpClient.Builder> javaNetHttpClientBuilder = Optional.empty();
 		private Optional<HttpHost> proxyHost = Optional.empty();
+		private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+		private Optional<ResultCacheSettings> agreementCache = Optional.empty();
+		private Optional<ResultCacheSettings> identificationCache = Optional.empty();
+		private boolean preloadEntryPoint = false;
+		private boolean coalesceReads = false;
+		private Optional<Duration> agreementLookupBatchWindow = Optional.empty();
+		private Optional<RateLimiterSettings> rateLimiter = Optional.empty();
+		private Optional<ConcurrencyLimiterSettings> concurrencyLimiter = Optional.empty();
+		private Optional<RetrySettings> retry = Optional.empty();
+		private Optional<HedgingSettings> hedging = Optional.empty();
+		private Optional<CircuitBreakerSettings> circuitBreaker = Optional.empty();
+		private ClientMetrics metrics = ClientMetrics.NONE;
 
 		public Builder(final BrokerId brokerId, InputStream certificateP12File, String certificatePassword){
 			this(brokerId, certificateP12File, certificatePassword, null);
@@ -205,7 +382,9 @@ public class DigipostUserAgreementsClient {
 			this.certificatePassword = certificatePassword;
 			this.privateKey = Optional.ofNullable(privateKey);
 			serviceEndpoint(PRODUCTION_ENDPOINT);
-			httpClientBuilder = HttpClientFactory.createBuilder(HttpClientSettings.DEFAULT);
+			PoolingHttpClientConnectionManager connectionManager = HttpClientConnectionManagerFactory.createDefault();
+			httpClientBuilder = HttpClientFactory.createBuilder(HttpClientSettings.DEFAULT, connectionManager);
+			defaultConnectionManager = Optional.of(connectionManager);
 		}
 
 		public Builder useProxy(final HttpHost proxyHost) {
@@ -220,21 +399,231 @@ public class DigipostUserAgreementsClient {
 
         public Builder setHttpClientBuilder(final HttpClientBuilder httpClientBuilder) {
             this.httpClientBuilder = httpClientBuilder;
+            this.defaultConnectionManager = Optional.empty();
+            this.javaNetHttpClientBuilder = Optional.empty();
             return this;
         }
 
+		/**
+		 * Send requests using the {@link java.net.http.HttpClient} of the Java runtime instead of
+		 * Apache HttpClient. It negotiates HTTP/2 with the service endpoint when possible.
+		 * <p>
+		 * This requires Java 12 or later, as the {@code HttpClient} of Java 11 refuses to set
+		 * the signed {@code Date} header.
+		 *
+		 * @return the builder
+		 * @throws IllegalStateException if run on Java 11
+		 */
+		public Builder useJavaNetHttpClient() {
+			return setJavaNetHttpClientBuilder(JavaNetHttpTransport.defaultHttpClientBuilder());
+		}
+
+		/**
+		 * Send requests using a customized {@link java.net.http.HttpClient}, see {@link #useJavaNetHttpClient()}.
+		 *
+		 * @param javaNetHttpClientBuilder the builder of the {@code HttpClient}
+		 * @return the builder
+		 * @throws IllegalStateException if run on Java 11
+		 */
+		public Builder setJavaNetHttpClientBuilder(final java.net.http.HttpClient.Builder javaNetHttpClientBuilder) {
+			JavaNetHttpTransport.requireSupportedByRuntime();
+			this.javaNetHttpClientBuilder = Optional.of(javaNetHttpClientBuilder);
+			return this;
+		}
+
+		/**
+		 * Set which kind of threads to run the requests of bulk and fan-out operations on.
+		 * The default is {@link ExecutionMode#PLATFORM_THREADS}.
+		 *
+		 * @param executionMode the {@link ExecutionMode}
+		 * @return the builder
+		 */
+		public Builder executionMode(final ExecutionMode executionMode) {
+			this.executionMode = Objects.requireNonNull(executionMode, "executionMode cannot be null");
+			return this;
+		}
+
+		/**
+		 * Cache the results of {@link DigipostUserAgreementsClient#getAgreement(SenderId, AgreementType, UserId) getAgreement},
+		 * including results for unknown users and missing agreements. A cached agreement is invalidated when
+		 * it is created, replaced or deleted through the same client, but changes done elsewhere are not
+		 * visible until the cached result expires.
+		 *
+		 * @param settings the {@link ResultCacheSettings} of the cache
+		 * @return the builder
+		 */
+		public Builder cacheAgreements(final ResultCacheSettings settings) {
+			this.agreementCache = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Cache the results of {@link DigipostUserAgreementsClient#identifyUser(SenderId, UserId) identifyUser}.
+		 * The identification of a user does not depend on the sender, so a cached result is shared by all senders.
+		 * Results for users who are not {@link IdentificationResultCode#DIGIPOST Digipost users} are cached for the
+		 * {@link ResultCacheSettings#failuresExpireAfterWrite(java.time.Duration) failure time to live}, as they
+		 * change when the user signs up.
+		 *
+		 * @param settings the {@link ResultCacheSettings} of the cache
+		 * @return the builder
+		 */
+		public Builder cacheIdentifications(final ResultCacheSettings settings) {
+			this.identificationCache = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Start fetching the entry point of the API in the background when the client is built, instead
+		 * of on the first {@link DigipostUserAgreementsClient#identifyUser(SenderId, UserId) identification}.
+		 * A failure to fetch it does not fail building the client, and it is then fetched on first use.
+		 *
+		 * @return the builder
+		 */
+		public Builder preloadEntryPoint() {
+			this.preloadEntryPoint = true;
+			return this;
+		}
+
+		/**
+		 * Let concurrent calls which read the same resource, e.g. {@link DigipostUserAgreementsClient#getAgreement(SenderId, AgreementType, UserId) getAgreement}
+		 * with the same arguments, share a single request to the API. The calls arriving while the request is in flight
+		 * get the same result object, or the same exception if the request fails. The request is sent with the request
+		 * tracking id of the call which initiated it. Streamed responses, i.e. from
+		 * {@link DigipostUserAgreementsClient#getAgreementOwners(SenderId, AgreementType) getAgreementOwners}, can only be
+		 * consumed once, and are never shared.
+		 *
+		 * @return the builder
+		 */
+		public Builder coalesceConcurrentReads() {
+			this.coalesceReads = true;
+			return this;
+		}
+
+		/**
+		 * Serve {@link DigipostUserAgreementsClient#getAgreement(SenderId, AgreementType, UserId) getAgreement} by
+		 * getting all agreements of the user, as with {@link DigipostUserAgreementsClient#getAgreements(SenderId, UserId) getAgreements},
+		 * and merge the lookups for the same sender and user arriving within the given window into a single request.
+		 * Each lookup waits for the window to pass, so it should be short, typically a few milliseconds.
+		 *
+		 * @param window how long the first lookup for a sender and user waits for other lookups to merge with
+		 * @return the builder
+		 */
+		public Builder batchAgreementLookups(final Duration window) {
+			Objects.requireNonNull(window, "window cannot be null");
+			if (window.isNegative()) {
+				throw new IllegalArgumentException("window cannot be negative, was " + window);
+			}
+			this.agreementLookupBatchWindow = Optional.of(window);
+			return this;
+		}
+
+		/**
+		 * Limit the requests to each resource of the API for each sender, and wait until requests are
+		 * allowed after the API has responded with {@code 429 Too Many Requests}, instead of sending
+		 * requests which will be rejected.
+		 *
+		 * @param settings the {@link RateLimiterSettings}
+		 * @return the builder
+		 */
+		public Builder rateLimit(final RateLimiterSettings settings) {
+			this.rateLimiter = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Limit the amount of concurrent requests for each operation, with a limit which adapts to the
+		 * latency of the API and to {@code 429 Too Many Requests} responses. Calls exceeding the limit wait until
+		 * a call in flight completes.
+		 *
+		 * @param settings the {@link ConcurrencyLimiterSettings}
+		 * @return the builder
+		 */
+		public Builder adaptiveConcurrencyLimit(final ConcurrencyLimiterSettings settings) {
+			this.concurrencyLimiter = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Retry calls which may safely be repeated, i.e. all calls except identifying users, when they fail
+		 * with an I/O error, a server error or {@code 429 Too Many Requests}. Each attempt is also subject to the
+		 * {@link #rateLimit(RateLimiterSettings) rate limit} and {@link #adaptiveConcurrencyLimit(ConcurrencyLimiterSettings)
+		 * concurrency limit}, if enabled.
+		 *
+		 * @param settings the {@link RetrySettings}
+		 * @return the builder
+		 */
+		public Builder retry(final RetrySettings settings) {
+			this.retry = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Send a second request for read-only calls which are slower than most calls of the same operation, and
+		 * use the response which arrives first. Requests run on threads given by the {@link #executionMode(ExecutionMode)
+		 * execution mode}, while the calling thread waits for the response.
+		 *
+		 * @param settings the {@link HedgingSettings}
+		 * @return the builder
+		 */
+		public Builder hedgeReads(final HedgingSettings settings) {
+			this.hedging = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Fail calls to an endpoint of the API immediately with {@link CircuitBreakerOpenException}, instead of waiting
+		 * for requests to time out, when too many of the recent requests to the endpoint have failed or been slow.
+		 *
+		 * @param settings the {@link CircuitBreakerSettings}
+		 * @return the builder
+		 */
+		public Builder circuitBreaker(final CircuitBreakerSettings settings) {
+			this.circuitBreaker = Optional.of(Objects.requireNonNull(settings, "settings cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Give measurements of the calls, requests and connection pool of the client to a metrics library,
+		 * e.g. Micrometer with {@link MeterClientMetrics}. The time waiting for a connection from the pool
+		 * is only measured for the default Apache HttpClient.
+		 *
+		 * @param metrics the {@link ClientMetrics} receiving the measurements
+		 * @return the builder
+		 */
+		public Builder metrics(final ClientMetrics metrics) {
+			this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+			return this;
+		}
+
 		public DigipostUserAgreementsClient build() {
 			CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
 
-			httpClientBuilder.addRequestInterceptorLast(new RequestDateInterceptor());
-			httpClientBuilder.addRequestInterceptorLast(new RequestUserAgentInterceptor());
 			PrivateKeySigner pkSigner = privateKey.map(PrivateKeySigner::new).orElseGet(() -> new PrivateKeySigner(certificateP12File, certificatePassword));
-			httpClientBuilder.addRequestInterceptorLast(new RequestSignatureInterceptor(pkSigner, new RequestContentSHA256Filter()));
-			httpClientBuilder.addResponseInterceptorLast(new ResponseDateInterceptor());
-			proxyHost.ifPresent(httpClientBuilder::setProxy);
+			ClientMetrics guardedMetrics = GuardedClientMetrics.guard(metrics);
+			final HttpTransport transport;
+			if (javaNetHttpClientBuilder.isPresent()) {
+				java.net.http.HttpClient.Builder builder = javaNetHttpClientBuilder.get();
+				proxyHost.ifPresent(proxy -> builder.proxy(ProxySelector.of(InetSocketAddress.createUnresolved(proxy.getHostName(), proxy.getPort()))));
+				transport = new JavaNetHttpTransport(builder.build());
+			} else {
+				proxyHost.ifPresent(httpClientBuilder::setProxy);
+				if (metrics != ClientMetrics.NONE) {
+					defaultConnectionManager.ifPresent(pool -> httpClientBuilder.setConnectionManager(new LeaseTimingConnectionManager(pool, guardedMetrics)));
+				}
+				transport = new ApacheHttpTransport(httpClientBuilder.build());
+			}
 
-			ApiService apiService = new ApiService(serviceEndpoint, brokerId, httpClientBuilder.build());
-			return new DigipostUserAgreementsClient(apiService);
+			List<ApiCallInterceptor> interceptors = new ArrayList<>();
+			retry.map(RetryingInterceptor::new).ifPresent(interceptors::add);
+			hedging.map(settings -> new HedgingInterceptor(settings, executionMode.newExecutor("hedging"))).ifPresent(interceptors::add);
+			rateLimiter.map(RetryAfterRateLimiter::new).ifPresent(interceptors::add);
+			concurrencyLimiter.map(AdaptiveConcurrencyLimiter::new).ifPresent(interceptors::add);
+			circuitBreaker.map(EndpointCircuitBreaker::new).ifPresent(interceptors::add);
+			ApiService apiService = new ApiService(serviceEndpoint, brokerId, transport, DigipostHttpProcessor.create(pkSigner), coalesceReads, interceptors, guardedMetrics);
+			if (preloadEntryPoint) {
+				apiService.preloadEntryPoint();
+			}
+			return new DigipostUserAgreementsClient(apiService, executionMode, agreementCache, identificationCache, agreementLookupBatchWindow);
 		}
 	}
 }
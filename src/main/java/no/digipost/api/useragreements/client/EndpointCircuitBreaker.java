@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A circuit breaker for each endpoint of the API, as described by {@link CircuitBreakerSettings}. The endpoint
+ * of an operation is its resource, except that all the user document resources share one endpoint.
+ * <p>
+ * Each breaker has a generation which is incremented on every change of state, and the outcome of a request is only
+ * recorded if the breaker is still in the generation the request was let through in. A request failing after it has
+ * been {@link AttemptCancellation cancelled}, e.g. when it lost to a hedged request, or while its thread is interrupted,
+ * has failed on purpose, and its outcome is not recorded.
+ */
+final class EndpointCircuitBreaker implements ApiCallInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EndpointCircuitBreaker.class);
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	private final CircuitBreakerSettings settings;
+	private final LongSupplier nanoTime;
+	private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+	EndpointCircuitBreaker(final CircuitBreakerSettings settings) {
+		this(settings, System::nanoTime);
+	}
+
+	EndpointCircuitBreaker(final CircuitBreakerSettings settings, final LongSupplier nanoTime) {
+		this.settings = settings;
+		this.nanoTime = nanoTime;
+	}
+
+	@Override
+	public <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		Breaker breaker = breakers.computeIfAbsent(endpoint(call.operation), Breaker::new);
+		long generation = breaker.acquire();
+		long start = nanoTime.getAsLong();
+		boolean recorded = false;
+		try {
+			T result = execution.get();
+			breaker.record(generation, (byte) 0, nanoTime.getAsLong() - start);
+			recorded = true;
+			return result;
+		} catch (RuntimeException e) {
+			if (!AttemptCancellation.isCancelled() && !Thread.currentThread().isInterrupted()) {
+				breaker.record(generation, isFailure(e) ? FAILED : 0, nanoTime.getAsLong() - start);
+				recorded = true;
+			}
+			throw e;
+		} finally {
+			if (!recorded) {
+				breaker.release(generation);
+			}
+		}
+	}
+
+	State getState(final Operation operation) {
+		Breaker breaker = breakers.get(endpoint(operation));
+		return breaker != null ? breaker.state : State.CLOSED;
+	}
+
+	static String endpoint(final Operation operation) {
+		return operation.resource.startsWith("/user-documents") ? "/user-documents" : operation.resource;
+	}
+
+	private static boolean isFailure(final RuntimeException e) {
+		if (e instanceof RuntimeIOException) {
+			return true;
+		} else if (e instanceof UnexpectedResponseException) {
+			return ((UnexpectedResponseException) e).getStatusCode() >= 500;
+		} else {
+			return false;
+		}
+	}
+
+	private final class Breaker {
+
+		private final String endpoint;
+		private final byte[] outcomes = new byte[settings.windowSize];
+		private volatile State state = State.CLOSED;
+		private long generation;
+		private long openedAt;
+		private int nextSlot;
+		private int recordedCalls;
+		private int failedCalls;
+		private int slowCalls;
+		private int probesStarted;
+		private int probesSucceeded;
+
+		Breaker(final String endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		synchronized long acquire() {
+			if (state == State.OPEN) {
+				long remaining = openedAt + settings.openDuration.toNanos() - nanoTime.getAsLong();
+				if (remaining > 0) {
+					throw new CircuitBreakerOpenException(endpoint, Duration.ofNanos(remaining));
+				}
+				transitionTo(State.HALF_OPEN);
+			}
+			if (state == State.HALF_OPEN) {
+				if (probesStarted >= settings.halfOpenProbes) {
+					throw new CircuitBreakerOpenException(endpoint, Duration.ZERO);
+				}
+				probesStarted++;
+			}
+			return generation;
+		}
+
+		synchronized void record(final long requestGeneration, final byte failed, final long elapsedNanos) {
+			if (requestGeneration != generation) {
+				return;
+			}
+			byte outcome = (byte) (failed | (elapsedNanos > settings.slowCallDuration.toNanos() ? SLOW : 0));
+			if (state == State.HALF_OPEN) {
+				if (outcome != 0) {
+					LOG.warn("Circuit breaker for {} opens again, as a probe request {}", endpoint, (outcome & FAILED) != 0 ? "failed" : "was slow");
+					transitionTo(State.OPEN);
+				} else if (++probesSucceeded >= settings.halfOpenProbes) {
+					LOG.info("Circuit breaker for {} closes, as {} probe requests succeeded", endpoint, probesSucceeded);
+					transitionTo(State.CLOSED);
+				}
+			} else if (state == State.CLOSED) {
+				int slot = nextSlot;
+				nextSlot = (slot + 1) % outcomes.length;
+				if (recordedCalls == outcomes.length) {
+					failedCalls -= outcomes[slot] & FAILED;
+					slowCalls -= (outcomes[slot] & SLOW) >> 1;
+				} else {
+					recordedCalls++;
+				}
+				outcomes[slot] = outcome;
+				failedCalls += outcome & FAILED;
+				slowCalls += (outcome & SLOW) >> 1;
+				if (recordedCalls >= settings.minimumCalls
+						&& (failedCalls >= settings.failureRateThreshold * recordedCalls || slowCalls >= settings.slowCallRateThreshold * recordedCalls)) {
+					LOG.warn("Circuit breaker for {} opens for {}, as {} of the last {} requests failed and {} were slow",
+							endpoint, settings.openDuration, failedCalls, recordedCalls, slowCalls);
+					transitionTo(State.OPEN);
+				}
+			}
+		}
+
+		synchronized void release(final long requestGeneration) {
+			if (requestGeneration == generation && state == State.HALF_OPEN) {
+				probesStarted--;
+			}
+		}
+
+		private void transitionTo(final State newState) {
+			state = newState;
+			generation++;
+			openedAt = nanoTime.getAsLong();
+			nextSlot = 0;
+			recordedCalls = 0;
+			failedCalls = 0;
+			slowCalls = 0;
+			probesStarted = 0;
+			probesSucceeded = 0;
+		}
+	}
+}
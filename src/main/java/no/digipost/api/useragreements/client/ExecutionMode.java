@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Determines which kind of threads the blocking {@link DigipostUserAgreementsClient} uses
+ * to run the requests of bulk and fan-out operations, e.g.
+ * {@link DigipostUserAgreementsClient#identifyUsers(SenderId, java.util.stream.Stream, int) identifyUsers}.
+ */
+public enum ExecutionMode {
+
+	/**
+	 * Run requests on a pool of platform threads, sized to the maximum amount of concurrent requests.
+	 * This is the default.
+	 */
+	PLATFORM_THREADS {
+		@Override
+		ExecutorService newExecutor(String name, int maxConcurrentRequests) {
+			return Executors.newFixedThreadPool(maxConcurrentRequests, daemonThreads(name));
+		}
+
+		@Override
+		ExecutorService newExecutor(String name) {
+			return Executors.newCachedThreadPool(daemonThreads(name));
+		}
+	},
+
+	/**
+	 * Run each request on a new virtual thread, which is available from Java 21. A request blocking
+	 * on I/O will then not occupy a platform thread, and the throughput is bounded by the size of the connection pool
+	 * rather than the amount of threads. If the runtime does not support virtual threads, this falls back to
+	 * {@link #PLATFORM_THREADS}.
+	 */
+	VIRTUAL_THREADS {
+		@Override
+		ExecutorService newExecutor(String name, int maxConcurrentRequests) {
+			return VirtualThreads.newThreadPerTaskExecutor("digipost-" + name + "-")
+					.orElseGet(() -> PLATFORM_THREADS.newExecutor(name, maxConcurrentRequests));
+		}
+
+		@Override
+		ExecutorService newExecutor(String name) {
+			return VirtualThreads.newThreadPerTaskExecutor("digipost-" + name + "-")
+					.orElseGet(() -> PLATFORM_THREADS.newExecutor(name));
+		}
+	};
+
+	abstract ExecutorService newExecutor(String name, int maxConcurrentRequests);
+
+	/**
+	 * Create an executor for requests which are not bounded by a maximum amount of concurrent requests
+	 * given by the caller, but rather by the calls already in progress. Idle platform threads are discarded.
+	 */
+	abstract ExecutorService newExecutor(String name);
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "digipost-" + name + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Resolves the virtual threads API reflectively, as the client is compiled for Java 11.
+	 */
+	static final class VirtualThreads {
+
+		private static final Logger LOG = LoggerFactory.getLogger(ExecutionMode.class);
+
+		private static final Method ofVirtual;
+		private static final Method name;
+		private static final Method factory;
+		private static final Method newThreadPerTaskExecutor;
+		static {
+			Method ofVirtualMethod = null, nameMethod = null, factoryMethod = null, newThreadPerTaskExecutorMethod = null;
+			try {
+				Class<?> threadBuilder = Class.forName("java.lang.Thread$Builder");
+				ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+				nameMethod = threadBuilder.getMethod("name", String.class, long.class);
+				factoryMethod = threadBuilder.getMethod("factory");
+				newThreadPerTaskExecutorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			} catch (ReflectiveOperationException e) {
+				LOG.info("Virtual threads are not supported by the Java runtime {}, falling back to platform threads", Runtime.version());
+			}
+			ofVirtual = ofVirtualMethod;
+			name = nameMethod;
+			factory = factoryMethod;
+			newThreadPerTaskExecutor = newThreadPerTaskExecutorMethod;
+		}
+
+		static boolean isSupported() {
+			return newThreadPerTaskExecutor != null;
+		}
+
+		static Optional<ExecutorService> newThreadPerTaskExecutor(String threadNamePrefix) {
+			if (!isSupported()) {
+				return Optional.empty();
+			}
+			try {
+				Object builder = name.invoke(ofVirtual.invoke(null), threadNamePrefix, 1L);
+				ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+				return Optional.of((ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory));
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				LOG.warn("Unable to create virtual threads, falling back to platform threads: {}: '{}'", e.getClass().getSimpleName(), e.getMessage());
+				return Optional.empty();
+			}
+		}
+
+		private VirtualThreads() {}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Caches results of lookups, where successful and failed results may have different times to live.
+ * Exceptions thrown by a lookup are not cached. A cache created without settings never caches anything.
+ * <p>
+ * A result is not cached if its key is invalidated while it is looked up, as the result may then
+ * predate the change which caused the invalidation. Invalidations are tracked by a generation per
+ * stripe of keys, so an invalidation may also prevent caching a result of another key in the same stripe.
+ */
+final class ExpiringResultCache<K, V> {
+
+	private static final int GENERATION_STRIPES = 64;
+
+	private final Optional<Cache<K, Expiring<V>>> cache;
+	private final Predicate<? super V> isSuccess;
+	private final Duration timeToLive;
+	private final Duration failureTimeToLive;
+	private final Clock clock;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+	ExpiringResultCache(final Optional<ResultCacheSettings> settings, final Predicate<? super V> isSuccess) {
+		this.cache = settings.map(s -> CacheBuilder.newBuilder()
+				.maximumSize(s.maximumSize)
+				.expireAfterWrite(s.timeToLive.compareTo(s.failureTimeToLive) >= 0 ? s.timeToLive : s.failureTimeToLive)
+				.build());
+		this.isSuccess = isSuccess;
+		this.timeToLive = settings.map(s -> s.timeToLive).orElse(Duration.ZERO);
+		this.failureTimeToLive = settings.map(s -> s.failureTimeToLive).orElse(Duration.ZERO);
+		this.clock = settings.map(s -> s.clock).orElseGet(Clock::systemUTC);
+	}
+
+	V get(final K key, final Function<? super K, ? extends V> lookup) {
+		if (!cache.isPresent()) {
+			misses.increment();
+			return lookup.apply(key);
+		}
+		Expiring<V> cached = cache.get().getIfPresent(key);
+		if (cached != null && cached.isValidAt(clock.instant())) {
+			hits.increment();
+			return cached.value;
+		}
+		misses.increment();
+		int stripe = stripeOf(key);
+		long generation = generations.get(stripe);
+		V value = lookup.apply(key);
+		if (generations.get(stripe) == generation) {
+			put(key, value);
+			if (generations.get(stripe) != generation) {
+				cache.get().invalidate(key);
+			}
+		}
+		return value;
+	}
+
+	void put(final K key, final V value) {
+		cache.ifPresent(c -> c.put(key, new Expiring<>(value, clock.instant().plus(isSuccess.test(value) ? timeToLive : failureTimeToLive))));
+	}
+
+	void invalidate(final K key) {
+		cache.ifPresent(c -> {
+			generations.incrementAndGet(stripeOf(key));
+			c.invalidate(key);
+		});
+	}
+
+	private static int stripeOf(final Object key) {
+		return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+	}
+
+	ResultCacheStats stats() {
+		return new ResultCacheStats(hits.sum(), misses.sum());
+	}
+
+	long size() {
+		return cache.map(Cache::size).orElse(0L);
+	}
+
+	private static final class Expiring<V> {
+		final V value;
+		final Instant expires;
+
+		Expiring(final V value, final Instant expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+
+		boolean isValidAt(final Instant instant) {
+			return instant.isBefore(expires);
+		}
+	}
+}
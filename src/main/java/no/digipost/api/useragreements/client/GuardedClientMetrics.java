@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invokes the {@link ClientMetrics} given by the user so that its failures never change the outcome of a call.
+ * A failure is logged, but at most once per {@value #LOG_INTERVAL_SECONDS} seconds, with the amount of failures
+ * which were not logged in between.
+ */
+final class GuardedClientMetrics implements ClientMetrics {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GuardedClientMetrics.class);
+
+	private static final long LOG_INTERVAL_SECONDS = 60;
+
+	static ClientMetrics guard(final ClientMetrics metrics) {
+		if (metrics == ClientMetrics.NONE || metrics instanceof GuardedClientMetrics) {
+			return metrics;
+		}
+		return new GuardedClientMetrics(metrics);
+	}
+
+	private final ClientMetrics metrics;
+	private final AtomicLong nextLogAt = new AtomicLong(System.nanoTime());
+	private final LongAdder unloggedFailures = new LongAdder();
+
+	private GuardedClientMetrics(final ClientMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void callSucceeded(final String operation, final Duration latency) {
+		try {
+			metrics.callSucceeded(operation, latency);
+		} catch (RuntimeException e) {
+			failed("callSucceeded", e);
+		}
+	}
+
+	@Override
+	public void callFailed(final String operation, final Duration latency, final ErrorCode errorCode) {
+		try {
+			metrics.callFailed(operation, latency, errorCode);
+		} catch (RuntimeException e) {
+			failed("callFailed", e);
+		}
+	}
+
+	@Override
+	public void responseReceived(final String operation, final int statusCode, final Duration latency) {
+		try {
+			metrics.responseReceived(operation, statusCode, latency);
+		} catch (RuntimeException e) {
+			failed("responseReceived", e);
+		}
+	}
+
+	@Override
+	public void requestCompleted(final String operation, final RequestTimings timings) {
+		try {
+			metrics.requestCompleted(operation, timings);
+		} catch (RuntimeException e) {
+			failed("requestCompleted", e);
+		}
+	}
+
+	@Override
+	public void tooManyRequests(final String operation, final Optional<Duration> retryAfter) {
+		try {
+			metrics.tooManyRequests(operation, retryAfter);
+		} catch (RuntimeException e) {
+			failed("tooManyRequests", e);
+		}
+	}
+
+	@Override
+	public void bytesSent(final String operation, final long bytes) {
+		try {
+			metrics.bytesSent(operation, bytes);
+		} catch (RuntimeException e) {
+			failed("bytesSent", e);
+		}
+	}
+
+	@Override
+	public void bytesReceived(final String operation, final long bytes) {
+		try {
+			metrics.bytesReceived(operation, bytes);
+		} catch (RuntimeException e) {
+			failed("bytesReceived", e);
+		}
+	}
+
+	@Override
+	public void connectionLeased(final Duration leaseTime) {
+		try {
+			metrics.connectionLeased(leaseTime);
+		} catch (RuntimeException e) {
+			failed("connectionLeased", e);
+		}
+	}
+
+	private void failed(final String measurement, final RuntimeException failure) {
+		long now = System.nanoTime();
+		long logAt = nextLogAt.get();
+		if (now - logAt >= 0 && nextLogAt.compareAndSet(logAt, now + TimeUnit.SECONDS.toNanos(LOG_INTERVAL_SECONDS))) {
+			long unlogged = unloggedFailures.sumThenReset();
+			LOG.warn("{} of {} failed, and the measurement is discarded{}: {}: '{}'", measurement, metrics.getClass().getName(),
+					unlogged > 0 ? " (" + unlogged + " more failures since last logged)" : "", failure.getClass().getSimpleName(), failure.getMessage(), failure);
+		} else {
+			unloggedFailures.increment();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+
+/**
+ * Hedges the calls of {@link Operation#readOnly read-only} operations, as described by {@link HedgingSettings}.
+ * Both requests run on the executor while the calling thread waits for the first successful response, and the
+ * request which loses is aborted through its {@link AttemptCancellation}, which releases its connection, and its thread
+ * is interrupted. Each request invokes the execution of the call,
+ * so it is signed independently, and goes through the interceptors following this one. The agreement owners are
+ * not hedged, as they are streamed from an open response after the call has completed.
+ * <p>
+ * The amount of hedged calls is limited by a budget which earns {@link HedgingSettings#maxHedgeRatio a fraction}
+ * of a hedge for each call, and which may hold at most {@value #MAX_HEDGE_BURST} hedges.
+ */
+final class HedgingInterceptor implements ApiCallInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HedgingInterceptor.class);
+
+	static final int MIN_LATENCY_SAMPLES = 20;
+	private static final int LATENCY_SAMPLES = 256;
+	private static final int MAX_HEDGE_BURST = 10;
+
+	private final HedgingSettings settings;
+	private final ExecutorService executor;
+	private final LongSupplier nanoTime;
+	private final Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+	private double hedgeBudget;
+
+	HedgingInterceptor(final HedgingSettings settings, final ExecutorService executor) {
+		this(settings, executor, System::nanoTime);
+	}
+
+	HedgingInterceptor(final HedgingSettings settings, final ExecutorService executor, final LongSupplier nanoTime) {
+		this.settings = settings;
+		this.executor = executor;
+		this.nanoTime = nanoTime;
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new Latencies());
+		}
+	}
+
+	@Override
+	public <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		if (!call.operation.readOnly || call.operation.streamed) {
+			return execution.get();
+		}
+		Latencies operationLatencies = latencies.get(call.operation);
+		Duration delay = operationLatencies.percentile(settings.percentile).orElse(settings.initialDelay);
+		earnHedge();
+
+		CompletableFuture<T> firstSuccess = new CompletableFuture<>();
+		AtomicInteger pending = new AtomicInteger(1);
+		AttemptCancellation primaryCancellation = new AttemptCancellation();
+		AttemptCancellation hedgeCancellation = new AttemptCancellation();
+		Future<?> primary = executor.submit(() -> attempt(execution, primaryCancellation, operationLatencies, firstSuccess, pending));
+		Future<?> hedge = null;
+		try {
+			try {
+				return firstSuccess.get(delay.toNanos(), NANOSECONDS);
+			} catch (TimeoutException slow) {
+				if (spendHedge()) {
+					LOG.debug("Hedging {} which has not completed within {}", call, delay);
+					pending.incrementAndGet();
+					hedge = executor.submit(() -> attempt(execution, hedgeCancellation, operationLatencies, firstSuccess, pending));
+				}
+				return firstSuccess.get();
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof java.lang.Error) {
+				throw (java.lang.Error) cause;
+			}
+			throw new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, cause.getClass().getSimpleName() + ": '" + cause.getMessage() + "'", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, "Interrupted while waiting for " + call, e);
+		} finally {
+			primaryCancellation.cancel();
+			primary.cancel(true);
+			if (hedge != null) {
+				hedgeCancellation.cancel();
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Execute a request, and complete the call with its result if it is the first to succeed, or with its failure
+	 * if no other request is pending.
+	 */
+	private <T> void attempt(final Supplier<T> execution, final AttemptCancellation cancellation,
+			final Latencies operationLatencies, final CompletableFuture<T> firstSuccess, final AtomicInteger pending) {
+		long start = nanoTime.getAsLong();
+		try {
+			T result = cancellation.run(execution);
+			operationLatencies.record(nanoTime.getAsLong() - start);
+			firstSuccess.complete(result);
+		} catch (RuntimeException | java.lang.Error e) {
+			if (pending.decrementAndGet() == 0) {
+				firstSuccess.completeExceptionally(e);
+			}
+		}
+	}
+
+	private synchronized void earnHedge() {
+		hedgeBudget = Math.min(MAX_HEDGE_BURST, hedgeBudget + settings.maxHedgeRatio);
+	}
+
+	private synchronized boolean spendHedge() {
+		if (hedgeBudget < 1) {
+			return false;
+		}
+		hedgeBudget--;
+		return true;
+	}
+
+	Optional<Duration> getHedgeDelay(final Operation operation) {
+		return latencies.get(operation).percentile(settings.percentile);
+	}
+
+	/**
+	 * The most recent latencies of an operation, with the percentile cached until a few more latencies are recorded.
+	 */
+	private static final class Latencies {
+
+		private static final int RECOMPUTE_INTERVAL = 16;
+
+		private final long[] samples = new long[LATENCY_SAMPLES];
+		private long count;
+		private long countAtPercentile;
+		private Optional<Duration> percentile = Optional.empty();
+
+		synchronized void record(final long latencyNanos) {
+			samples[(int) (count++ % LATENCY_SAMPLES)] = latencyNanos;
+		}
+
+		synchronized Optional<Duration> percentile(final double percentile) {
+			if (count >= MIN_LATENCY_SAMPLES && (!this.percentile.isPresent() || count - countAtPercentile >= RECOMPUTE_INTERVAL)) {
+				long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, LATENCY_SAMPLES));
+				Arrays.sort(sorted);
+				int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+				this.percentile = Optional.of(Duration.ofNanos(sorted[Math.max(index, 0)]));
+				countAtPercentile = count;
+			}
+			return this.percentile;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for hedging read-only calls, enabled with {@link DigipostUserAgreementsClient.Builder#hedgeReads(HedgingSettings)}.
+ * <p>
+ * If a call has not completed when it has taken longer than the given {@link #atPercentile(double) percentile}
+ * of the recent latencies of the same operation, a second request is sent, and the call completes with the
+ * response which arrives first. The other request is then cancelled. Until enough latencies have been observed
+ * for an operation, the second request is sent after the {@link #initialDelay(Duration) initial delay}.
+ * The {@link #maxHedgeRatio(double) ratio} of calls which may be hedged is capped, so that hedging can not
+ * amplify the load on the API when every request is slow.
+ */
+public final class HedgingSettings {
+
+	public static final double DEFAULT_PERCENTILE = 95;
+	public static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMillis(100);
+	public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+	/**
+	 * Hedge calls taking longer than the {@link #DEFAULT_PERCENTILE default percentile} of the latencies,
+	 * and at most the {@link #DEFAULT_MAX_HEDGE_RATIO default ratio} of the calls.
+	 *
+	 * @return the settings
+	 */
+	public static HedgingSettings hedgeSlowReads() {
+		return new HedgingSettings(DEFAULT_PERCENTILE, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_HEDGE_RATIO);
+	}
+
+
+	final double percentile;
+	final Duration initialDelay;
+	final double maxHedgeRatio;
+
+	private HedgingSettings(final double percentile, final Duration initialDelay, final double maxHedgeRatio) {
+		if (!(percentile > 0 && percentile < 100)) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+		}
+		this.initialDelay = Objects.requireNonNull(initialDelay, "initialDelay cannot be null");
+		if (initialDelay.isNegative()) {
+			throw new IllegalArgumentException("initialDelay cannot be negative, was " + initialDelay);
+		}
+		if (!(maxHedgeRatio > 0 && maxHedgeRatio <= 1)) {
+			throw new IllegalArgumentException("maxHedgeRatio must be greater than 0 and at most 1, was " + maxHedgeRatio);
+		}
+		this.percentile = percentile;
+		this.maxHedgeRatio = maxHedgeRatio;
+	}
+
+	/**
+	 * @param percentile the percentile of the recent latencies of an operation after which a second request is sent,
+	 *                   the default is {@link #DEFAULT_PERCENTILE}
+	 * @return new settings with the given percentile
+	 */
+	public HedgingSettings atPercentile(final double percentile) {
+		return new HedgingSettings(percentile, initialDelay, maxHedgeRatio);
+	}
+
+	/**
+	 * @param initialDelay the delay before sending a second request until enough latencies have been observed,
+	 *                     the default is {@link #DEFAULT_INITIAL_DELAY}
+	 * @return new settings with the given initial delay
+	 */
+	public HedgingSettings initialDelay(final Duration initialDelay) {
+		return new HedgingSettings(percentile, initialDelay, maxHedgeRatio);
+	}
+
+	/**
+	 * @param maxHedgeRatio the highest ratio of calls which may send a second request, the default
+	 *                      is {@link #DEFAULT_MAX_HEDGE_RATIO}
+	 * @return new settings with the given ratio
+	 */
+	public HedgingSettings maxHedgeRatio(final double maxHedgeRatio) {
+		return new HedgingSettings(percentile, initialDelay, maxHedgeRatio);
+	}
+
+	@Override
+	public String toString() {
+		return "HedgingSettings{percentile=" + percentile + ", initialDelay=" + initialDelay + ", maxHedgeRatio=" + maxHedgeRatio + "}";
+	}
+}
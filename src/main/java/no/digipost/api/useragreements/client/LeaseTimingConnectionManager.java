@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures how long the requests wait for a connection from the pool of the Apache HttpClient, and otherwise
+ * delegates to the pool. The pool is also exposed as {@link ConnPoolControl}, which the HttpClient requires
+ * to evict idle and expired connections.
+ */
+final class LeaseTimingConnectionManager implements HttpClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+	private final PoolingHttpClientConnectionManager pool;
+	private final ClientMetrics metrics;
+
+	LeaseTimingConnectionManager(final PoolingHttpClientConnectionManager pool, final ClientMetrics metrics) {
+		this.pool = pool;
+		this.metrics = GuardedClientMetrics.guard(metrics);
+	}
+
+	@Override
+	public LeaseRequest lease(final String id, final HttpRoute route, final Timeout requestTimeout, final Object state) {
+		long startedAt = System.nanoTime();
+		LeaseRequest leaseRequest = pool.lease(id, route, requestTimeout, state);
+		return new LeaseRequest() {
+			@Override
+			public ConnectionEndpoint get(final Timeout timeout) throws InterruptedException, ExecutionException, TimeoutException {
+				ConnectionEndpoint endpoint = leaseRequest.get(timeout);
+				metrics.connectionLeased(Duration.ofNanos(System.nanoTime() - startedAt));
+				return endpoint;
+			}
+
+			@Override
+			public boolean cancel() {
+				return leaseRequest.cancel();
+			}
+		};
+	}
+
+	@Override
+	public void release(final ConnectionEndpoint endpoint, final Object newState, final TimeValue validDuration) {
+		pool.release(endpoint, newState, validDuration);
+	}
+
+	@Override
+	public void connect(final ConnectionEndpoint endpoint, final TimeValue connectTimeout, final HttpContext context) throws IOException {
+		pool.connect(endpoint, connectTimeout, context);
+	}
+
+	@Override
+	public void upgrade(final ConnectionEndpoint endpoint, final HttpContext context) throws IOException {
+		pool.upgrade(endpoint, context);
+	}
+
+	@Override
+	public void close(final CloseMode closeMode) {
+		pool.close(closeMode);
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	@Override
+	public void setMaxTotal(final int max) {
+		pool.setMaxTotal(max);
+	}
+
+	@Override
+	public int getMaxTotal() {
+		return pool.getMaxTotal();
+	}
+
+	@Override
+	public void setDefaultMaxPerRoute(final int max) {
+		pool.setDefaultMaxPerRoute(max);
+	}
+
+	@Override
+	public int getDefaultMaxPerRoute() {
+		return pool.getDefaultMaxPerRoute();
+	}
+
+	@Override
+	public void setMaxPerRoute(final HttpRoute route, final int max) {
+		pool.setMaxPerRoute(route, max);
+	}
+
+	@Override
+	public int getMaxPerRoute(final HttpRoute route) {
+		return pool.getMaxPerRoute(route);
+	}
+
+	@Override
+	public void closeIdle(final TimeValue idleTime) {
+		pool.closeIdle(idleTime);
+	}
+
+	@Override
+	public void closeExpired() {
+		pool.closeExpired();
+	}
+
+	@Override
+	public Set<HttpRoute> getRoutes() {
+		return pool.getRoutes();
+	}
+
+	@Override
+	public PoolStats getTotalStats() {
+		return pool.getTotalStats();
+	}
+
+	@Override
+	public PoolStats getStats(final HttpRoute route) {
+		return pool.getStats(route);
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Records the {@link ClientMetrics measurements} of the client as meters named and tagged by the conventions
+ * of Micrometer, without depending on it. The meters are given to {@link Meters}, which for a Micrometer
+ * {@code MeterRegistry} is simply:
+ * <pre>
+ * new MeterClientMetrics(new MeterClientMetrics.Meters() {
+ *     public void time(String name, Duration duration, String... tags) { registry.timer(name, tags).record(duration); }
+ *     public void summarize(String name, double amount, String... tags) { registry.summary(name, tags).record(amount); }
+ *     public void count(String name, String... tags) { registry.counter(name, tags).increment(); }
+ * })
+ * </pre>
+ * Latency histograms and percentiles are enabled for the timers with the means of the metrics library,
+ * e.g. a {@code MeterFilter} in Micrometer.
+ * <p>
+ * The meters, all prefixed with {@code digipost.useragreements.}, are:
+ * <ul>
+ * <li>{@code calls}: timer of each call, tagged with the {@code operation} and the {@code outcome}, which is
+ *     {@code SUCCESS} or the {@link ErrorCode} of the failure</li>
+ * <li>{@code requests}: timer of each request until the response was received, tagged with the {@code operation}
+ *     and the {@code status} code</li>
+ * <li>{@code request.phase}: timer of each phase of each request, tagged with the {@code operation} and the
+ *     {@code phase}, which is {@code marshal}, {@code sign}, {@code network} or {@code unmarshal}, see {@link RequestTimings}</li>
+ * <li>{@code too.many.requests}: counter of {@code 429 Too Many Requests} responses, tagged with the {@code operation}</li>
+ * <li>{@code retry.after}: timer of the {@code Retry-After} delays of the {@code 429} responses, tagged with the {@code operation}</li>
+ * <li>{@code request.size} and {@code response.size}: distribution summaries of the bytes in the bodies
+ *     of the requests and responses, tagged with the {@code operation}</li>
+ * <li>{@code connection.lease}: timer of the waiting for a connection from the connection pool</li>
+ * </ul>
+ */
+public final class MeterClientMetrics implements ClientMetrics {
+
+	/**
+	 * Records the meters, with tags given as alternating names and values.
+	 */
+	public interface Meters {
+
+		void time(String name, Duration duration, String ... tags);
+
+		void summarize(String name, double amount, String ... tags);
+
+		void count(String name, String ... tags);
+
+	}
+
+	public static final String PREFIX = "digipost.useragreements.";
+
+	private final Meters meters;
+
+	public MeterClientMetrics(final Meters meters) {
+		this.meters = Objects.requireNonNull(meters, "meters cannot be null");
+	}
+
+	@Override
+	public void callSucceeded(String operation, Duration latency) {
+		meters.time(PREFIX + "calls", latency, "operation", operation, "outcome", "SUCCESS");
+	}
+
+	@Override
+	public void callFailed(String operation, Duration latency, ErrorCode errorCode) {
+		meters.time(PREFIX + "calls", latency, "operation", operation, "outcome", errorCode.name());
+	}
+
+	@Override
+	public void responseReceived(String operation, int statusCode, Duration latency) {
+		meters.time(PREFIX + "requests", latency, "operation", operation, "status", String.valueOf(statusCode));
+	}
+
+	@Override
+	public void requestCompleted(String operation, RequestTimings timings) {
+		meters.time(PREFIX + "request.phase", timings.getMarshal(), "operation", operation, "phase", "marshal");
+		meters.time(PREFIX + "request.phase", timings.getSign(), "operation", operation, "phase", "sign");
+		meters.time(PREFIX + "request.phase", timings.getNetwork(), "operation", operation, "phase", "network");
+		meters.time(PREFIX + "request.phase", timings.getUnmarshal(), "operation", operation, "phase", "unmarshal");
+	}
+
+	@Override
+	public void tooManyRequests(String operation, Optional<Duration> retryAfter) {
+		meters.count(PREFIX + "too.many.requests", "operation", operation);
+		retryAfter.ifPresent(delay -> meters.time(PREFIX + "retry.after", delay, "operation", operation));
+	}
+
+	@Override
+	public void bytesSent(String operation, long bytes) {
+		meters.summarize(PREFIX + "request.size", bytes, "operation", operation);
+	}
+
+	@Override
+	public void bytesReceived(String operation, long bytes) {
+		meters.summarize(PREFIX + "response.size", bytes, "operation", operation);
+	}
+
+	@Override
+	public void connectionLeased(Duration leaseTime) {
+		meters.time(PREFIX + "connection.lease", leaseTime);
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.Method;
+
+/**
+ * The operations {@link ApiService} performs against the API, with the HTTP method and the
+ * resource they access. The resource is the path of the operation without the sender and parameters,
+ * and is used to group the operations which share a rate limit in the API. An operation is idempotent
+ * if performing it several times has the same effect as performing it once, and may then be retried. An operation
+ * is read-only if it has no effect on the API at all, and may then be performed speculatively. An operation is
+ * streamed if its response is read by the caller after the call has returned, and so cannot be shared with other calls.
+ */
+enum Operation {
+
+	GET_ENTRY_POINT(Method.GET, "/", true, true, false),
+	IDENTIFY_USER(Method.POST, "/identification", false, true, false),
+	CREATE_OR_REPLACE_AGREEMENT(Method.POST, "/user-agreements", true, false, false),
+	GET_AGREEMENT(Method.GET, "/user-agreements", true, true, false),
+	GET_AGREEMENTS(Method.GET, "/user-agreements", true, true, false),
+	DELETE_AGREEMENT(Method.DELETE, "/user-agreements", true, false, false),
+	GET_AGREEMENT_OWNERS(Method.GET, "/user-agreements/agreement-owners", true, true, true),
+	GET_DOCUMENTS(Method.GET, "/user-documents", true, true, false),
+	GET_DOCUMENT(Method.GET, "/user-documents/{id}", true, true, false),
+	GET_DOCUMENT_COUNT(Method.GET, "/user-documents/count", true, true, false),
+	GET_DOCUMENT_CONTENT(Method.GET, "/user-documents/{id}/content", true, true, false);
+
+	final Method method;
+	final String resource;
+	final boolean idempotent;
+	final boolean readOnly;
+	final boolean streamed;
+
+	Operation(final Method method, final String resource, final boolean idempotent, final boolean readOnly, final boolean streamed) {
+		this.method = method;
+		this.resource = resource;
+		this.idempotent = idempotent;
+		this.readOnly = readOnly;
+		this.streamed = streamed;
+	}
+
+	boolean isRead() {
+		return method == Method.GET;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Settings for limiting the rate of requests the client sends to each resource of the API for each sender,
+ * enabled with {@link DigipostUserAgreementsClient.Builder#rateLimit(RateLimiterSettings)}.
+ * <p>
+ * The limiter learns when the API allows the next request to a resource, either from the {@code Retry-After}
+ * of a {@link no.digipost.api.useragreements.client.response.TooManyRequestsException 429 Too Many Requests} response,
+ * or from the {@link no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse#getDelayUntilNextAllowedRequest() delay}
+ * given with the agreement owners. Until then, new requests to the resource wait, and if the wait is longer than
+ * the {@link #maxWait(Duration) maximum wait}, or the time remaining of the
+ * {@link DigipostUserAgreementsClient#withDeadline(Duration) deadline} of the call, they fail immediately with
+ * a {@code TooManyRequestsException}.
+ * The limiter may also {@link #limitTo(double, int) limit the rate} of requests, which spreads out the requests
+ * which have been waiting, instead of sending them all at once.
+ */
+public final class RateLimiterSettings {
+
+	public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+	public static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+
+	/**
+	 * Wait for the delays given by the API, with no limit on the rate of requests.
+	 *
+	 * @return the settings
+	 */
+	public static RateLimiterSettings honorRetryAfter() {
+		return new RateLimiterSettings(DEFAULT_MAX_WAIT, DEFAULT_RETRY_AFTER, Optional.empty(), 1);
+	}
+
+
+	final Duration maxWait;
+	final Duration defaultRetryAfter;
+	final Optional<Duration> interval;
+	final int burst;
+
+	private RateLimiterSettings(final Duration maxWait, final Duration defaultRetryAfter, final Optional<Duration> interval, final int burst) {
+		this.maxWait = Objects.requireNonNull(maxWait, "maxWait cannot be null");
+		this.defaultRetryAfter = Objects.requireNonNull(defaultRetryAfter, "defaultRetryAfter cannot be null");
+		if (maxWait.isNegative() || defaultRetryAfter.isNegative()) {
+			throw new IllegalArgumentException("maxWait and defaultRetryAfter cannot be negative, was " + maxWait + " and " + defaultRetryAfter);
+		}
+		this.interval = interval;
+		this.burst = burst;
+	}
+
+	/**
+	 * Limit the rate of requests to each resource for each sender, allowing bursts of the given
+	 * amount of requests.
+	 *
+	 * @param requestsPerSecond the sustained rate of requests
+	 * @param burst the amount of requests which may be sent at once after a period without requests
+	 * @return new settings with the given rate limit
+	 */
+	public RateLimiterSettings limitTo(final double requestsPerSecond, final int burst) {
+		if (!(requestsPerSecond > 0) || burst < 1) {
+			throw new IllegalArgumentException("requestsPerSecond and burst must be positive, was " + requestsPerSecond + " and " + burst);
+		}
+		return new RateLimiterSettings(maxWait, defaultRetryAfter, Optional.of(Duration.ofNanos((long) (1_000_000_000 / requestsPerSecond))), burst);
+	}
+
+	/**
+	 * @param maxWait the longest a request waits to be allowed before it fails, the default is {@link #DEFAULT_MAX_WAIT}
+	 * @return new settings with the given maximum wait
+	 */
+	public RateLimiterSettings maxWait(final Duration maxWait) {
+		return new RateLimiterSettings(maxWait, defaultRetryAfter, interval, burst);
+	}
+
+	/**
+	 * @param defaultRetryAfter how long to wait after a 429 Too Many Requests response without a {@code Retry-After},
+	 *                          the default is {@link #DEFAULT_RETRY_AFTER}
+	 * @return new settings with the given default delay
+	 */
+	public RateLimiterSettings defaultRetryAfter(final Duration defaultRetryAfter) {
+		return new RateLimiterSettings(maxWait, defaultRetryAfter, interval, burst);
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiterSettings{maxWait=" + maxWait + ", defaultRetryAfter=" + defaultRetryAfter +
+				interval.map(i -> ", interval=" + i + ", burst=" + burst).orElse("") + "}";
+	}
+}
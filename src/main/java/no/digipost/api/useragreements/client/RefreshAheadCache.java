@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Holds a single value which is loaded once, and then refreshed in the background when it is accessed
+ * after the refresh interval has passed. The last loaded value is served while a refresh is in progress,
+ * and also if the refresh fails, in which case the refresh is retried after a shorter interval.
+ * Only the initial load blocks, and concurrent callers wait for the same load.
+ */
+final class RefreshAheadCache<T> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RefreshAheadCache.class);
+
+	private final String name;
+	private final Supplier<? extends T> loader;
+	private final Duration refreshInterval;
+	private final Duration failedRefreshRetryInterval;
+	private final Executor refreshExecutor;
+	private final Clock clock;
+
+	private final AtomicReference<CompletableFuture<T>> loading = new AtomicReference<>();
+	private volatile Loaded<T> loaded;
+
+	RefreshAheadCache(final String name, final Supplier<? extends T> loader, final Duration refreshInterval, final Duration failedRefreshRetryInterval) {
+		this(name, loader, refreshInterval, failedRefreshRetryInterval, newDaemonThreadPerRefresh(name), Clock.systemUTC());
+	}
+
+	RefreshAheadCache(final String name, final Supplier<? extends T> loader, final Duration refreshInterval, final Duration failedRefreshRetryInterval,
+			final Executor refreshExecutor, final Clock clock) {
+		this.name = name;
+		this.loader = loader;
+		this.refreshInterval = refreshInterval;
+		this.failedRefreshRetryInterval = failedRefreshRetryInterval;
+		this.refreshExecutor = refreshExecutor;
+		this.clock = clock;
+	}
+
+	T get() {
+		return get(loader, Optional.empty());
+	}
+
+	/**
+	 * @param initialLoader loads the value if it has not been loaded yet, e.g. within a shorter deadline than the loader of the cache
+	 * @param maxWait the longest to wait for a value which another caller is already loading for the first time
+	 */
+	T get(final Supplier<? extends T> initialLoader, final Optional<Duration> maxWait) {
+		Loaded<T> current = loaded;
+		if (current == null) {
+			return awaitInitialLoad(initialLoader, maxWait);
+		}
+		if (!clock.instant().isBefore(current.refreshAt)) {
+			load(loader, refreshExecutor);
+		}
+		return current.value;
+	}
+
+	/**
+	 * Start loading the value in the background, unless it is already loaded or being loaded.
+	 */
+	void preload() {
+		if (loaded == null) {
+			load(loader, refreshExecutor);
+		}
+	}
+
+	private T awaitInitialLoad(final Supplier<? extends T> initialLoader, final Optional<Duration> maxWait) {
+		CompletableFuture<T> load = load(initialLoader, Runnable::run);
+		try {
+			return maxWait.isPresent() ? load.get(maxWait.get().toNanos(), NANOSECONDS) : load.join();
+		} catch (CompletionException | ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new CompletionException(e.getCause());
+		} catch (TimeoutException e) {
+			throw new RuntimeIOException("Did not load " + name + " within " + maxWait.get(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException("Interrupted while waiting for " + name + " to load", e);
+		}
+	}
+
+	private CompletableFuture<T> load(final Supplier<? extends T> valueLoader, final Executor executor) {
+		CompletableFuture<T> load = new CompletableFuture<>();
+		while (!loading.compareAndSet(null, load)) {
+			CompletableFuture<T> inProgress = loading.get();
+			if (inProgress != null) {
+				return inProgress;
+			}
+		}
+		executor.execute(() -> {
+			try {
+				T value = valueLoader.get();
+				loaded = new Loaded<>(value, clock.instant().plus(refreshInterval));
+				load.complete(value);
+			} catch (RuntimeException e) {
+				Loaded<T> stale = loaded;
+				if (stale != null) {
+					LOG.warn("Failed to refresh {}, keeps the previously loaded value and retries in {}: {}: '{}'",
+							name, failedRefreshRetryInterval, e.getClass().getSimpleName(), e.getMessage());
+					loaded = new Loaded<>(stale.value, clock.instant().plus(failedRefreshRetryInterval));
+				}
+				load.completeExceptionally(e);
+			} finally {
+				loading.compareAndSet(load, null);
+			}
+		});
+		return load;
+	}
+
+	private static Executor newDaemonThreadPerRefresh(final String name) {
+		return refresh -> {
+			Thread thread = new Thread(refresh, name + "-refresh");
+			thread.setDaemon(true);
+			thread.start();
+		};
+	}
+
+	private static final class Loaded<T> {
+		final T value;
+		final Instant refreshAt;
+
+		Loaded(final T value, final Instant refreshAt) {
+			this.value = value;
+			this.refreshAt = refreshAt;
+		}
+	}
+}
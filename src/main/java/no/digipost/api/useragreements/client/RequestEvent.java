@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a request {@link ApiService} sends to the API, from creating the request
+ * until the response has been handled, or for a streamed response, opened.
+ */
+@Name("no.digipost.useragreements.Request")
+@Label("Digipost Request")
+@Description("A request to the Digipost user agreements API")
+@Category({"Digipost", "User Agreements"})
+@StackTrace(false)
+final class RequestEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Sender")
+	@Description("The sender id the request is sent on behalf of, or 0 if none")
+	long sender;
+
+	@Label("Status")
+	@Description("The status code of the response, or 0 if no response was received")
+	int status;
+
+	@Label("Bytes Sent")
+	@DataAmount
+	long bytesSent;
+
+	@Label("Bytes Received")
+	@Description("The bytes read from the body of the response, which is not known for a streamed response")
+	@DataAmount
+	long bytesReceived;
+
+	@Label("Marshal")
+	@Timespan
+	long marshal;
+
+	@Label("Sign")
+	@Timespan
+	long sign;
+
+	@Label("Network")
+	@Timespan
+	long network;
+
+	@Label("Unmarshal")
+	@Timespan
+	long unmarshal;
+
+}
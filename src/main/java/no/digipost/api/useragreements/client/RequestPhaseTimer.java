@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+
+import static java.time.Duration.ofNanos;
+
+/**
+ * Marks the end of each phase of one request, which {@link ApiService} passes through in order,
+ * and gives the {@link RequestTimings} when the request has completed or failed. The Flight Recorder
+ * {@link RequestEvent event} of the request begins with the timer.
+ */
+final class RequestPhaseTimer {
+
+	private static final long NOT_REACHED = Long.MIN_VALUE;
+
+	final RequestEvent event = new RequestEvent();
+	private final long startedAt = System.nanoTime();
+	private long marshalledAt = NOT_REACHED;
+	private long signedAt = NOT_REACHED;
+	private long respondedAt = NOT_REACHED;
+	private RequestTimings timings;
+
+	RequestPhaseTimer() {
+		event.begin();
+	}
+
+	void marshalled() {
+		marshalledAt = System.nanoTime();
+	}
+
+	void signed() {
+		signedAt = System.nanoTime();
+	}
+
+	/**
+	 * @return the duration of the network phase
+	 */
+	Duration responded() {
+		respondedAt = System.nanoTime();
+		return ofNanos(respondedAt - signedAt);
+	}
+
+	/**
+	 * The request has completed, or failed in the phase after the last one which was marked.
+	 * The timings are fixed when this is first invoked.
+	 */
+	RequestTimings completed() {
+		if (timings != null) {
+			return timings;
+		}
+		long[] marks = { marshalledAt, signedAt, respondedAt, System.nanoTime() };
+		long[] durations = new long[marks.length];
+		long phaseStartedAt = startedAt;
+		for (int i = 0; i < marks.length; i++) {
+			boolean reached = marks[i] != NOT_REACHED;
+			durations[i] = (reached ? marks[i] : marks[marks.length - 1]) - phaseStartedAt;
+			if (!reached) {
+				break;
+			}
+			phaseStartedAt = marks[i];
+		}
+		timings = new RequestTimings(ofNanos(durations[0]), ofNanos(durations[1]), ofNanos(durations[2]), ofNanos(durations[3]));
+		return timings;
+	}
+}
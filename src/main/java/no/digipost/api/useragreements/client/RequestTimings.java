@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * How long each phase of a request took, to tell whether the time of a request is spent in the client or waiting
+ * for the API. A phase which was not reached, because an earlier phase failed, has zero duration.
+ */
+public final class RequestTimings {
+
+	private final Duration marshal;
+	private final Duration sign;
+	private final Duration network;
+	private final Duration unmarshal;
+
+	RequestTimings(final Duration marshal, final Duration sign, final Duration network, final Duration unmarshal) {
+		this.marshal = marshal;
+		this.sign = sign;
+		this.network = network;
+		this.unmarshal = unmarshal;
+	}
+
+	/**
+	 * @return the time creating the request, including marshalling and hashing its body
+	 */
+	public Duration getMarshal() {
+		return marshal;
+	}
+
+	/**
+	 * @return the time dating and signing the request
+	 */
+	public Duration getSign() {
+		return sign;
+	}
+
+	/**
+	 * @return the time from sending the request until the response was received, including waiting for a
+	 *         connection, and excluding reading the body of the response
+	 */
+	public Duration getNetwork() {
+		return network;
+	}
+
+	/**
+	 * @return the time reading and unmarshalling the body of the response. For a streamed response, e.g. of
+	 *         agreement owners, this is only the time until the first element can be read.
+	 */
+	public Duration getUnmarshal() {
+		return unmarshal;
+	}
+
+	/**
+	 * @return the time of all the phases
+	 */
+	public Duration getTotal() {
+		return marshal.plus(sign).plus(network).plus(unmarshal);
+	}
+
+	@Override
+	public String toString() {
+		return format("marshal %.3f ms, sign %.3f ms, network %.3f ms, unmarshal %.3f ms",
+				marshal.toNanos() / 1e6, sign.toNanos() / 1e6, network.toNanos() / 1e6, unmarshal.toNanos() / 1e6);
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for caching the results of lookups in the client, with
+ * {@link DigipostUserAgreementsClient.Builder#cacheAgreements(ResultCacheSettings)} and
+ * {@link DigipostUserAgreementsClient.Builder#cacheIdentifications(ResultCacheSettings)}.
+ * A cached result expires a given time after it was fetched, and results describing that
+ * what was looked up is missing, e.g. {@link GetAgreementResult.FailedReason#NO_AGREEMENT}
+ * or a user who is not a Digipost user, may be given a shorter time to live than successful results.
+ */
+public final class ResultCacheSettings {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+	/**
+	 * Cache results for the given duration after they are fetched. Results describing a missing
+	 * user or agreement are cached for the same duration, unless
+	 * {@link #failuresExpireAfterWrite(Duration) set otherwise}.
+	 *
+	 * @param timeToLive how long a result is cached
+	 * @return the settings
+	 */
+	public static ResultCacheSettings expireAfterWrite(final Duration timeToLive) {
+		return new ResultCacheSettings(timeToLive, timeToLive, DEFAULT_MAXIMUM_SIZE, Clock.systemUTC());
+	}
+
+
+	final Duration timeToLive;
+	final Duration failureTimeToLive;
+	final long maximumSize;
+	final Clock clock;
+
+	private ResultCacheSettings(final Duration timeToLive, final Duration failureTimeToLive, final long maximumSize, final Clock clock) {
+		this.timeToLive = requirePositive(timeToLive, "timeToLive");
+		this.failureTimeToLive = requirePositive(failureTimeToLive, "failureTimeToLive");
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("maximumSize must be positive, was " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+		this.clock = Objects.requireNonNull(clock, "clock cannot be null");
+	}
+
+	/**
+	 * @param failureTimeToLive how long a result describing a missing user or agreement, or a user who
+	 *                          is not a Digipost user, is cached
+	 * @return new settings with the given time to live for failed results
+	 */
+	public ResultCacheSettings failuresExpireAfterWrite(final Duration failureTimeToLive) {
+		return new ResultCacheSettings(timeToLive, failureTimeToLive, maximumSize, clock);
+	}
+
+	/**
+	 * @param maximumSize the maximum amount of cached results, the default is {@value #DEFAULT_MAXIMUM_SIZE}.
+	 *                    The least recently used results are evicted when the cache grows beyond this size.
+	 * @return new settings with the given maximum size
+	 */
+	public ResultCacheSettings maximumSize(final long maximumSize) {
+		return new ResultCacheSettings(timeToLive, failureTimeToLive, maximumSize, clock);
+	}
+
+	/**
+	 * @param clock the clock to determine when cached results expire, mostly useful for testing
+	 * @return new settings with the given clock
+	 */
+	public ResultCacheSettings clock(final Clock clock) {
+		return new ResultCacheSettings(timeToLive, failureTimeToLive, maximumSize, clock);
+	}
+
+	private static Duration requirePositive(final Duration duration, final String name) {
+		Objects.requireNonNull(duration, name + " cannot be null");
+		if (duration.isNegative() || duration.isZero()) {
+			throw new IllegalArgumentException(name + " must be positive, was " + duration);
+		}
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultCacheSettings{timeToLive=" + timeToLive + ", failureTimeToLive=" + failureTimeToLive + ", maximumSize=" + maximumSize + "}";
+	}
+}
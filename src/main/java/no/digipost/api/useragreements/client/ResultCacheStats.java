@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+/**
+ * A snapshot of the amount of lookups served by a result cache of the client.
+ * If the cache is not enabled, every lookup is counted as a miss.
+ */
+public final class ResultCacheStats {
+
+	private final long hitCount;
+	private final long missCount;
+
+	ResultCacheStats(final long hitCount, final long missCount) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+	}
+
+	/**
+	 * @return the amount of lookups served by a cached result
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the amount of lookups which required a request to the API
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the ratio of lookups served by a cached result, or {@code 0} if there has not been any lookups
+	 */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultCacheStats{hitCount=" + hitCount + ", missCount=" + missCount + "}";
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.NextAllowedRequestTimeNotFoundException;
+import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+
+/**
+ * Limits the requests to each resource for each sender, as configured by {@link RateLimiterSettings}.
+ * Each resource of a sender has a bucket which holds the instant the API has said the next request is allowed,
+ * and, if a rate is configured, the theoretical arrival time of the next request according to the generic cell
+ * rate algorithm, i.e. a token bucket where a request waiting for a token reserves it.
+ */
+final class RetryAfterRateLimiter implements ApiCallInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryAfterRateLimiter.class);
+
+	interface Sleeper {
+		void sleep(Duration duration) throws InterruptedException;
+	}
+
+	private final RateLimiterSettings settings;
+	private final Clock clock;
+	private final Sleeper sleeper;
+	private final ConcurrentMap<List<Object>, Bucket> buckets = new ConcurrentHashMap<>();
+
+	RetryAfterRateLimiter(final RateLimiterSettings settings) {
+		this(settings, Clock.systemUTC(), duration -> TimeUnit.NANOSECONDS.sleep(duration.toNanos()));
+	}
+
+	RetryAfterRateLimiter(final RateLimiterSettings settings, final Clock clock, final Sleeper sleeper) {
+		this.settings = settings;
+		this.clock = clock;
+		this.sleeper = sleeper;
+	}
+
+	@Override
+	public <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		Bucket bucket = buckets.computeIfAbsent(asList(call.senderId, call.operation.resource), key -> new Bucket());
+		Optional<Duration> remainingOfDeadline = call.remainingOfDeadline();
+		if (remainingOfDeadline.filter(remaining -> remaining.isNegative() || remaining.isZero()).isPresent()) {
+			throw new RuntimeIOException("The deadline of " + call.deadline.get() + " was reached before " + call + " was allowed");
+		}
+		Duration maxWait = remainingOfDeadline.filter(remaining -> remaining.compareTo(settings.maxWait) < 0).orElse(settings.maxWait);
+		Duration wait = bucket.reserve(clock.instant(), maxWait);
+		if (!wait.isZero()) {
+			LOG.debug("Waiting {} to be allowed to do {}", wait, call);
+			try {
+				sleeper.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, "Interrupted while waiting to be allowed to do " + call, e);
+			}
+		}
+		final T result;
+		try {
+			result = execution.get();
+		} catch (TooManyRequestsException e) {
+			Duration retryAfter = e.getDelayUntilNextAllowedRequest().orElse(settings.defaultRetryAfter);
+			LOG.info("Too many requests for {}, next request is allowed in {}", call, retryAfter);
+			bucket.blockUntil(clock.instant().plus(retryAfter));
+			throw e;
+		}
+		if (result instanceof StreamingRateLimitedResponse) {
+			StreamingRateLimitedResponse<?> response = (StreamingRateLimitedResponse<?>) result;
+			bucket.blockWhenKnown(clock.instant(), () -> {
+				try {
+					return Optional.of(response.getDelayUntilNextAllowedRequest());
+				} catch (NextAllowedRequestTimeNotFoundException notYetConsumed) {
+					return Optional.empty();
+				}
+			});
+		}
+		return result;
+	}
+
+	private final class Bucket {
+
+		private Instant blockedUntil = Instant.EPOCH;
+		private Instant theoreticalArrivalTime = Instant.EPOCH;
+		private Instant pendingDelayReceivedAt;
+		private Supplier<Optional<Duration>> pendingDelay;
+
+		/**
+		 * @param maxWait the longest the request may wait, or else it fails without reserving anything
+		 */
+		synchronized Duration reserve(final Instant now, final Duration maxWait) {
+			resolvePendingDelay();
+			Instant allowedAt = now.isBefore(blockedUntil) ? blockedUntil : now;
+			if (settings.interval.isPresent()) {
+				Instant conformingFrom = theoreticalArrivalTime.minus(burstTolerance());
+				if (conformingFrom.isAfter(allowedAt)) {
+					allowedAt = conformingFrom;
+				}
+			}
+			Duration wait = Duration.between(now, allowedAt);
+			if (wait.compareTo(maxWait) > 0) {
+				throw new TooManyRequestsException(wait);
+			}
+			if (settings.interval.isPresent()) {
+				theoreticalArrivalTime = (theoreticalArrivalTime.isAfter(allowedAt) ? theoreticalArrivalTime : allowedAt).plus(settings.interval.get());
+			}
+			return wait;
+		}
+
+		synchronized void blockUntil(final Instant instant) {
+			if (instant.isAfter(blockedUntil)) {
+				blockedUntil = instant;
+			}
+			Instant onlyOneRequestAt = instant.plus(burstTolerance());
+			if (onlyOneRequestAt.isAfter(theoreticalArrivalTime)) {
+				theoreticalArrivalTime = onlyOneRequestAt;
+			}
+		}
+
+		synchronized void blockWhenKnown(final Instant receivedAt, final Supplier<Optional<Duration>> delay) {
+			pendingDelayReceivedAt = receivedAt;
+			pendingDelay = delay;
+		}
+
+		private void resolvePendingDelay() {
+			if (pendingDelay != null) {
+				Optional<Duration> delay = pendingDelay.get();
+				if (delay.isPresent()) {
+					blockUntil(pendingDelayReceivedAt.plus(delay.get()));
+					pendingDelay = null;
+				}
+			}
+		}
+
+		private Duration burstTolerance() {
+			return settings.interval.map(interval -> interval.multipliedBy(settings.burst - 1)).orElse(Duration.ZERO);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for retrying idempotent calls which fail with an I/O error, a {@code 5xx} server error or
+ * {@code 429 Too Many Requests}, enabled with {@link DigipostUserAgreementsClient.Builder#retry(RetrySettings)}.
+ * <p>
+ * The delay before each retry grows exponentially from the {@link #backoff(Duration, Duration) initial backoff}
+ * up to the maximum backoff, and is drawn at random between zero and the exponential delay ("full jitter"),
+ * so that clients failing at the same time do not retry at the same time. After a {@code 429 Too Many Requests},
+ * the retry waits at least the delay given by the {@code Retry-After} of the response. A call is not retried if the
+ * retry would exceed the {@link #deadline(Duration) deadline} of the call, and the last failure is thrown instead.
+ * Each retry is a new request, dated and signed when it is sent.
+ */
+public final class RetrySettings {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(100);
+	public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(5);
+	public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(30);
+
+	/**
+	 * Retry with the default settings.
+	 *
+	 * @return the settings
+	 */
+	public static RetrySettings retryWithBackoff() {
+		return new RetrySettings(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_DEADLINE);
+	}
+
+
+	final int maxAttempts;
+	final Duration initialBackoff;
+	final Duration maxBackoff;
+	final Duration deadline;
+
+	private RetrySettings(final int maxAttempts, final Duration initialBackoff, final Duration maxBackoff, final Duration deadline) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialBackoff = Objects.requireNonNull(initialBackoff, "initialBackoff cannot be null");
+		this.maxBackoff = Objects.requireNonNull(maxBackoff, "maxBackoff cannot be null");
+		this.deadline = Objects.requireNonNull(deadline, "deadline cannot be null");
+		if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+			throw new IllegalArgumentException(
+					"initialBackoff cannot be negative, and maxBackoff cannot be less than initialBackoff, was " + initialBackoff + " and " + maxBackoff);
+		}
+		if (deadline.isNegative() || deadline.isZero()) {
+			throw new IllegalArgumentException("deadline must be positive, was " + deadline);
+		}
+	}
+
+	/**
+	 * @param maxAttempts the maximum amount of attempts of a call, including the first one,
+	 *                    the default is {@link #DEFAULT_MAX_ATTEMPTS}
+	 * @return new settings with the given maximum attempts
+	 */
+	public RetrySettings maxAttempts(final int maxAttempts) {
+		return new RetrySettings(maxAttempts, initialBackoff, maxBackoff, deadline);
+	}
+
+	/**
+	 * @param initialBackoff the upper bound of the delay before the first retry, which is doubled for each retry,
+	 *                       the default is {@link #DEFAULT_INITIAL_BACKOFF}
+	 * @param maxBackoff the upper bound of the delay before any retry, the default is {@link #DEFAULT_MAX_BACKOFF}
+	 * @return new settings with the given backoff
+	 */
+	public RetrySettings backoff(final Duration initialBackoff, final Duration maxBackoff) {
+		return new RetrySettings(maxAttempts, initialBackoff, maxBackoff, deadline);
+	}
+
+	/**
+	 * @param deadline the longest time a call may take, including all attempts and the delays between them,
+	 *                 the default is {@link #DEFAULT_DEADLINE}
+	 * @return new settings with the given deadline
+	 */
+	public RetrySettings deadline(final Duration deadline) {
+		return new RetrySettings(maxAttempts, initialBackoff, maxBackoff, deadline);
+	}
+
+	@Override
+	public String toString() {
+		return "RetrySettings{maxAttempts=" + maxAttempts + ", initialBackoff=" + initialBackoff +
+				", maxBackoff=" + maxBackoff + ", deadline=" + deadline + "}";
+	}
+}
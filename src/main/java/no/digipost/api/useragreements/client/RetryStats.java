@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+/**
+ * A snapshot of the amount of calls and retries done by the client, as configured by {@link RetrySettings}.
+ * If retries are not enabled, all the counts are zero.
+ */
+public final class RetryStats {
+
+	private final long calls;
+	private final long retries;
+	private final long succeededAfterRetry;
+	private final long exhausted;
+
+	RetryStats(final long calls, final long retries, final long succeededAfterRetry, final long exhausted) {
+		this.calls = calls;
+		this.retries = retries;
+		this.succeededAfterRetry = succeededAfterRetry;
+		this.exhausted = exhausted;
+	}
+
+	/**
+	 * @return the amount of calls which may be retried
+	 */
+	public long getCallCount() {
+		return calls;
+	}
+
+	/**
+	 * @return the amount of retries, i.e. attempts after the first attempt of a call
+	 */
+	public long getRetryCount() {
+		return retries;
+	}
+
+	/**
+	 * @return the amount of calls which succeeded after one or more retries
+	 */
+	public long getSucceededAfterRetryCount() {
+		return succeededAfterRetry;
+	}
+
+	/**
+	 * @return the amount of calls which failed with a retryable failure, but were not retried any more
+	 *         because of the maximum attempts or the deadline
+	 */
+	public long getExhaustedCount() {
+		return exhausted;
+	}
+
+	@Override
+	public String toString() {
+		return "RetryStats{callCount=" + calls + ", retryCount=" + retries +
+				", succeededAfterRetryCount=" + succeededAfterRetry + ", exhaustedCount=" + exhausted + "}";
+	}
+}
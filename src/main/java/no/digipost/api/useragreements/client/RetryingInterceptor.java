@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.RetryAfterRateLimiter.Sleeper;
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static no.digipost.api.useragreements.client.ErrorCode.CLIENT_TECHNICAL_ERROR;
+
+/**
+ * Retries the calls of {@link Operation#idempotent idempotent} operations which fail transiently, as described
+ * by {@link RetrySettings}. Each attempt invokes the execution of the call again, which creates, dates and signs a
+ * new request, and when this is the outermost interceptor, each attempt is also limited by the other interceptors.
+ * A call is not retried beyond the deadline of the {@link ApiCall#deadline call} if it is shorter than the one of the settings.
+ */
+final class RetryingInterceptor implements ApiCallInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryingInterceptor.class);
+
+	private final RetrySettings settings;
+	private final LongSupplier nanoTime;
+	private final DoubleSupplier jitter;
+	private final Sleeper sleeper;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder succeededAfterRetry = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+
+	RetryingInterceptor(final RetrySettings settings) {
+		this(settings, System::nanoTime, () -> ThreadLocalRandom.current().nextDouble(), duration -> TimeUnit.NANOSECONDS.sleep(duration.toNanos()));
+	}
+
+	/**
+	 * @param jitter gives the random factor, from {@code 0} inclusive to {@code 1} exclusive, applied to the backoff
+	 */
+	RetryingInterceptor(final RetrySettings settings, final LongSupplier nanoTime, final DoubleSupplier jitter, final Sleeper sleeper) {
+		this.settings = settings;
+		this.nanoTime = nanoTime;
+		this.jitter = jitter;
+		this.sleeper = sleeper;
+	}
+
+	@Override
+	public <T> T intercept(final ApiCall call, final Supplier<T> execution) {
+		if (!call.operation.idempotent) {
+			return execution.get();
+		}
+		calls.increment();
+		Duration deadline = call.deadline.filter(callDeadline -> callDeadline.compareTo(settings.deadline) < 0).orElse(settings.deadline);
+		long start = nanoTime.getAsLong();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				T result = execution.get();
+				if (attempt > 1) {
+					succeededAfterRetry.increment();
+				}
+				return result;
+			} catch (RuntimeException e) {
+				Optional<Duration> delay = retryDelay(e, attempt);
+				if (!delay.isPresent()) {
+					throw e;
+				}
+				Duration elapsed = Duration.ofNanos(nanoTime.getAsLong() - start);
+				if (attempt >= settings.maxAttempts || elapsed.plus(delay.get()).compareTo(deadline) > 0) {
+					exhausted.increment();
+					LOG.info("Giving up {} after {} attempts and {}: {}: '{}'", call, attempt, elapsed, e.getClass().getSimpleName(), e.getMessage());
+					throw e;
+				}
+				LOG.debug("Retrying {} in {} after attempt {} failed: {}: '{}'", call, delay.get(), attempt, e.getClass().getSimpleName(), e.getMessage());
+				retries.increment();
+				try {
+					sleeper.sleep(delay.get());
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					UserAgreementsApiException interruptedRetry = new UserAgreementsApiException(CLIENT_TECHNICAL_ERROR, "Interrupted while waiting to retry " + call, interrupted);
+					interruptedRetry.addSuppressed(e);
+					throw interruptedRetry;
+				}
+			}
+		}
+	}
+
+	RetryStats stats() {
+		return new RetryStats(calls.sum(), retries.sum(), succeededAfterRetry.sum(), exhausted.sum());
+	}
+
+	/**
+	 * @return how long to wait before retrying after the given failure of the given attempt,
+	 *         or empty if the failure should not be retried
+	 */
+	private Optional<Duration> retryDelay(final RuntimeException failure, final int attempt) {
+		if (failure instanceof TooManyRequestsException) {
+			Duration backoff = backoff(attempt);
+			return Optional.of(((TooManyRequestsException) failure).getDelayUntilNextAllowedRequest()
+					.filter(retryAfter -> retryAfter.compareTo(backoff) > 0)
+					.orElse(backoff));
+		} else if (failure instanceof RuntimeIOException) {
+			return Optional.of(backoff(attempt));
+		} else if (failure instanceof UnexpectedResponseException) {
+			int status = ((UnexpectedResponseException) failure).getStatusCode();
+			return status >= 500 || status == 429 ? Optional.of(backoff(attempt)) : Optional.empty();
+		} else {
+			return Optional.empty();
+		}
+	}
+
+	private Duration backoff(final int attempt) {
+		Duration ceiling = settings.initialBackoff;
+		for (int i = 1; i < attempt && ceiling.compareTo(settings.maxBackoff) < 0; i++) {
+			ceiling = ceiling.multipliedBy(2);
+		}
+		if (ceiling.compareTo(settings.maxBackoff) > 0) {
+			ceiling = settings.maxBackoff;
+		}
+		return Duration.ofNanos((long) (ceiling.toNanos() * jitter.getAsDouble()));
+	}
+}
@@ -22,6 +22,8 @@ import static java.lang.String.format;
 
 public class UnexpectedResponseException extends UserAgreementsApiException {
 
+	private final int statusCode;
+
 	public UnexpectedResponseException(final StatusLine status, final ErrorCode errorCode, final String errorMessage) {
 		this(status, errorCode, errorMessage, null);
 	}
@@ -32,9 +34,17 @@ public class UnexpectedResponseException extends UserAgreementsApiException {
 				status.getReasonPhrase(),
 				errorCode,
 				errorMessage), cause);
+		this.statusCode = status.getStatusCode();
 	}
 
 	public UnexpectedResponseException(final StatusLine status, final Error error) {
 		this(status, error.getCode(), error.getMessage());
 	}
+
+	/**
+	 * @return the HTTP status code of the unexpected response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
 }
@@ -15,9 +15,12 @@
  */
 package no.digipost.api.useragreements.client;
 
+import java.util.Optional;
+
 public class UserAgreementsApiException extends RuntimeException {
 
 	private final ErrorCode errorCode;
+	private RequestTimings requestTimings;
 
 	public UserAgreementsApiException(final ErrorCode errorCode, final String message) {
 		super(message);
@@ -37,4 +40,20 @@ public class UserAgreementsApiException extends RuntimeException {
 	public ErrorCode getErrorCode() {
 		return errorCode;
 	}
+
+	/**
+	 * @return the timings of the phases of the request which failed, if the failure happened while performing a request
+	 */
+	public Optional<RequestTimings> getRequestTimings() {
+		return Optional.ofNullable(requestTimings);
+	}
+
+	/**
+	 * Attach the timings of the request which failed, unless timings of a request are already attached.
+	 */
+	void attachRequestTimings(final RequestTimings requestTimings) {
+		if (this.requestTimings == null) {
+			this.requestTimings = requestTimings;
+		}
+	}
 }
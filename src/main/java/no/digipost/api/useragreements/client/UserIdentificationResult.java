@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+/**
+ * The outcome of identifying one user as part of a
+ * {@link DigipostUserAgreementsClient#identifyUsers(SenderId, java.util.stream.Stream) bulk identification}.
+ * A failed identification contains the exception which caused it, and
+ * {@link Result#getValue() getting the value} of a failed result will rethrow the exception.
+ */
+public class UserIdentificationResult {
+
+	private final UserId userId;
+	private final Result<IdentificationResult, Exception> result;
+
+	static UserIdentificationResult success(final UserId userId, final IdentificationResult identificationResult) {
+		return new UserIdentificationResult(userId, new Result.Success<>(identificationResult));
+	}
+
+	static UserIdentificationResult failure(final UserId userId, final Exception exception) {
+		return new UserIdentificationResult(userId, new Result.Failure<>(exception, () -> exception instanceof RuntimeException
+				? (RuntimeException) exception
+				: new UserAgreementsApiException(ErrorCode.CLIENT_TECHNICAL_ERROR, "Identification of user failed", exception)));
+	}
+
+	private UserIdentificationResult(final UserId userId, final Result<IdentificationResult, Exception> result) {
+		this.userId = userId;
+		this.result = result;
+	}
+
+	public UserId getUserId() {
+		return userId;
+	}
+
+	public Result<IdentificationResult, Exception> getResult() {
+		return result;
+	}
+
+	public boolean isSuccess() {
+		return result.isSuccess();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("UserIdentificationResult{");
+		sb.append("userId=").append(userId);
+		sb.append(", result=").append(result);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.filters;
+
+import no.digipost.api.useragreements.client.filters.request.RequestContentHashFilter;
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
+import no.digipost.api.useragreements.client.filters.request.RequestDateInterceptor;
+import no.digipost.api.useragreements.client.filters.request.RequestSignatureInterceptor;
+import no.digipost.api.useragreements.client.filters.request.RequestUserAgentInterceptor;
+import no.digipost.api.useragreements.client.filters.response.ResponseDateInterceptor;
+import no.digipost.api.useragreements.client.security.Signer;
+import org.apache.hc.core5.http.protocol.HttpProcessor;
+import org.apache.hc.core5.http.protocol.HttpProcessorBuilder;
+
+/**
+ * The processing every request to and response from the Digipost API must go through, independent
+ * of which HTTP client is used to send the requests: requests are dated and signed, and the
+ * date of responses is verified.
+ */
+public final class DigipostHttpProcessor {
+
+	public static HttpProcessor create(final Signer signer) {
+		return create(signer, new RequestContentSHA256Filter());
+	}
+
+	public static HttpProcessor create(final Signer signer, final RequestContentHashFilter hashFilter) {
+		return HttpProcessorBuilder.create()
+				.addAllLast(new RequestDateInterceptor(), new RequestUserAgentInterceptor(), new RequestSignatureInterceptor(signer, hashFilter))
+				.addAllLast(new ResponseDateInterceptor())
+				.build();
+	}
+
+	private DigipostHttpProcessor() {}
+}
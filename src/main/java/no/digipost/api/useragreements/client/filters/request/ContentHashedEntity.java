@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.filters.request;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+
+/**
+ * A repeatable request entity which carries the hash of its content. The hash is computed
+ * while the content is written, see {@link RequestContentHashFilter#createEntity(java.util.function.Consumer, ContentType)},
+ * so that the content need not be read back and copied to be hashed when the request is signed.
+ */
+public final class ContentHashedEntity extends ByteArrayEntity {
+
+	private final String hashHeader;
+	private final String hash;
+
+	ContentHashedEntity(final byte[] content, final int length, final ContentType contentType, final String hashHeader, final String hash) {
+		super(content, 0, length, contentType);
+		this.hashHeader = hashHeader;
+		this.hash = hash;
+	}
+
+	/**
+	 * @return the name of the header the hash is sent in, e.g. {@value no.digipost.api.useragreements.client.Headers#X_Content_SHA256}
+	 */
+	public String getHashHeader() {
+		return hashHeader;
+	}
+
+	/**
+	 * @return the base64 encoded hash of the content
+	 */
+	public String getHash() {
+		return hash;
+	}
+}
@@ -15,12 +15,19 @@
  */
 package no.digipost.api.useragreements.client.filters.request;
 
+import com.google.common.io.ByteStreams;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpRequest;
 import org.bouncycastle.crypto.ExtendedDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Base64;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public abstract class RequestContentHashFilter {
@@ -39,11 +46,66 @@ public abstract class RequestContentHashFilter {
 
 	public void settContentHashHeader(final byte[] data, final HttpRequest httpRequest) {
 		ExtendedDigest instance = digestSupplier.get();
-		byte[] result = new byte[instance.getDigestSize()];
 		instance.update(data, 0, data.length);
-		instance.doFinal(result, 0);
-		String hash = base64Encoder.encodeToString(result);
+		setHeader(httpRequest, digestOf(instance));
+	}
+
+	/**
+	 * Set the hash header for the given request entity. If the entity is a {@link ContentHashedEntity}
+	 * hashed by this filter, the hash it carries is used, and the content is not read.
+	 */
+	public void settContentHashHeader(final HttpEntity entity, final HttpRequest httpRequest) throws IOException {
+		if (entity instanceof ContentHashedEntity && header.equals(((ContentHashedEntity) entity).getHashHeader())) {
+			setHeader(httpRequest, ((ContentHashedEntity) entity).getHash());
+		} else {
+			settContentHashHeader(ByteStreams.toByteArray(entity.getContent()), httpRequest);
+		}
+	}
+
+	/**
+	 * Create a request entity with the content written by the given writer. The content is hashed
+	 * as it is written, and the resulting entity is not copied from the buffer it was written to.
+	 */
+	public ContentHashedEntity createEntity(final Consumer<? super OutputStream> contentWriter, final ContentType contentType) {
+		HashingOutputStream content = new HashingOutputStream(digestSupplier.get());
+		contentWriter.accept(content);
+		return content.toEntity(contentType);
+	}
+
+	private void setHeader(final HttpRequest httpRequest, final String hash) {
 		httpRequest.setHeader(header, hash);
 		log.debug(RequestContentHashFilter.class.getSimpleName() + " satt headeren " + header + "=" + hash);
 	}
+
+	private String digestOf(final ExtendedDigest digest) {
+		byte[] result = new byte[digest.getDigestSize()];
+		digest.doFinal(result, 0);
+		return base64Encoder.encodeToString(result);
+	}
+
+	private final class HashingOutputStream extends ByteArrayOutputStream {
+
+		private final ExtendedDigest digest;
+
+		HashingOutputStream(final ExtendedDigest digest) {
+			super(1024);
+			this.digest = digest;
+		}
+
+		@Override
+		public void write(final int b) {
+			super.write(b);
+			digest.update((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			super.write(b, off, len);
+			digest.update(b, off, len);
+		}
+
+		ContentHashedEntity toEntity(final ContentType contentType) {
+			return new ContentHashedEntity(buf, count, contentType, header, digestOf(digest));
+		}
+	}
 }
@@ -15,7 +15,6 @@
  */
 package no.digipost.api.useragreements.client.filters.request;
 
-import com.google.common.io.ByteStreams;
 import no.digipost.api.useragreements.client.Headers;
 import no.digipost.api.useragreements.client.security.Signer;
 import org.apache.hc.core5.http.ClassicHttpRequest;
@@ -59,6 +58,9 @@ public class RequestSignatureInterceptor implements HttpRequestInterceptor {
 
 	@Override
 	public void process(HttpRequest httpRequest, EntityDetails entityDetails, HttpContext httpContext) throws HttpException, IOException {
+		SignRequestEvent event = new SignRequestEvent();
+		event.begin();
+		long bytesHashed = 0;
 		if(httpRequest instanceof ClassicHttpRequest) {
 			ClassicHttpRequest request = (ClassicHttpRequest) httpRequest;
 			HttpEntity rqEntity = request.getEntity();
@@ -66,14 +68,22 @@ public class RequestSignatureInterceptor implements HttpRequestInterceptor {
 			if (rqEntity == null) {
 				setSignatureHeader(httpRequest);
 			} else {
-				byte[] entityBytes = ByteStreams.toByteArray(rqEntity.getContent());
-				hashFilter.settContentHashHeader(entityBytes, request);
+				hashFilter.settContentHashHeader(rqEntity, request);
 				setSignatureHeader(httpRequest);
+				bytesHashed = rqEntity.getContentLength();
 			}
 		} else {
 			setSignatureHeader(httpRequest);
 		}
 
-
+		event.end();
+		if (event.shouldCommit()) {
+			event.method = httpRequest.getMethod();
+			// without the query, which may contain the personal identification numbers of users
+			String path = httpRequest.getPath();
+			event.path = path != null && path.indexOf('?') >= 0 ? path.substring(0, path.indexOf('?')) : path;
+			event.bytesHashed = Math.max(bytesHashed, 0);
+			event.commit();
+		}
 	}
 }
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.filters.request;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of hashing the body and signing a request.
+ */
+@Name("no.digipost.useragreements.SignRequest")
+@Label("Digipost Sign Request")
+@Description("Hashing the body and signing a request to the Digipost user agreements API")
+@Category({"Digipost", "User Agreements"})
+@StackTrace(false)
+final class SignRequestEvent extends jdk.jfr.Event {
+
+	@Label("Method")
+	String method;
+
+	@Label("Path")
+	String path;
+
+	@Label("Bytes Hashed")
+	@Description("The size of the body of the request, or 0 if it has none")
+	@DataAmount
+	long bytesHashed;
+
+}
@@ -16,12 +16,12 @@
 package no.digipost.api.useragreements.client.response;
 
 import jakarta.xml.bind.DataBindingException;
-import jakarta.xml.bind.JAXB;
 import no.digipost.api.useragreements.client.Error;
 import no.digipost.api.useragreements.client.ErrorCode;
 import no.digipost.api.useragreements.client.Headers;
 import no.digipost.api.useragreements.client.RuntimeIOException;
 import no.digipost.api.useragreements.client.UnexpectedResponseException;
+import no.digipost.api.useragreements.client.xml.JaxbMarshaller;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.HttpEntity;
@@ -102,8 +102,19 @@ public final class ResponseUtils {
 		return streamXmlDocumentsOf(getResponseEntityContent(response))
 				.peek(RESPONSE_PAYLOAD_LOG::trace)
 				.map(xml -> {
+					UnmarshalEvent event = new UnmarshalEvent();
+					event.begin();
 					try {
-						return JAXB.unmarshal(new ByteArrayInputStream(xml.getBytes()), returnType);
+						byte[] bytes = xml.getBytes();
+						T entity = JaxbMarshaller.getInstance().unmarshal(new ByteArrayInputStream(bytes), returnType);
+						event.end();
+						if (event.shouldCommit()) {
+							event.type = returnType.getSimpleName();
+							event.status = response.getCode();
+							event.bytes = bytes.length;
+							event.commit();
+						}
+						return entity;
 					} catch (IllegalStateException | DataBindingException e) {
 						throw new UnexpectedResponseException(new StatusLine(response), ErrorCode.GENERAL_ERROR, xml, e);
 					}
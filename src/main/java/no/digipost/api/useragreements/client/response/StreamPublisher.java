@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the elements of a {@link Stream} to one {@link Flow.Subscriber}, pulling elements
+ * from the stream only as they are requested by the subscriber. The stream is closed when
+ * it is exhausted, fails, or the subscription is cancelled.
+ * <p>
+ * All interaction with the stream and all signals to the subscriber happen in a drain loop,
+ * which is run by at most one thread at a time on the given {@link Executor}. Demand signaled
+ * while the loop is running, including from within {@code onNext}, is picked up by the running loop.
+ */
+final class StreamPublisher<T> implements Flow.Publisher<T> {
+
+	private final Stream<T> elements;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	StreamPublisher(Stream<T> elements, Executor executor) {
+		this.elements = elements;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber cannot be null");
+		if (subscribed.getAndSet(true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override public void request(long n) { }
+				@Override public void cancel() { }
+			});
+			subscriber.onError(new IllegalStateException("The response can only be consumed once, and already has a subscriber"));
+			return;
+		}
+		StreamSubscription subscription = new StreamSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+
+	private final class StreamSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger drainRequests = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable invalidRequest;
+		private Iterator<T> iterator;
+		private boolean done;
+
+		StreamSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Requested amount of elements must be positive, was " + n);
+			} else {
+				demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+			}
+			scheduleDrain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			scheduleDrain();
+		}
+
+		private void scheduleDrain() {
+			if (drainRequests.getAndIncrement() == 0) {
+				executor.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			int missed = 1;
+			do {
+				if (!done) {
+					emitRequested();
+				}
+				missed = drainRequests.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void emitRequested() {
+			try {
+				if (iterator == null) {
+					iterator = elements.iterator();
+				}
+				while (!cancelled && invalidRequest == null && demand.get() > 0) {
+					if (!iterator.hasNext()) {
+						terminate(null);
+						return;
+					}
+					T next = iterator.next();
+					demand.decrementAndGet();
+					subscriber.onNext(next);
+				}
+				if (invalidRequest != null) {
+					terminate(invalidRequest);
+				} else if (cancelled) {
+					done = true;
+					elements.close();
+				}
+			} catch (Throwable e) {
+				terminate(e);
+			}
+		}
+
+		private void terminate(Throwable error) {
+			done = true;
+			try {
+				elements.close();
+			} catch (RuntimeException e) {
+				if (error == null) {
+					error = e;
+				} else {
+					error.addSuppressed(e);
+				}
+			}
+			if (cancelled) {
+				return;
+			}
+			if (error != null) {
+				subscriber.onError(error);
+			} else {
+				subscriber.onComplete();
+			}
+		}
+	}
+}
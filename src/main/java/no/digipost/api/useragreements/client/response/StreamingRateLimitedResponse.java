@@ -16,6 +16,8 @@
 package no.digipost.api.useragreements.client.response;
 
 import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -39,6 +41,7 @@ public class StreamingRateLimitedResponse<T> {
 	private final Stream<T> elements;
 	private final AtomicBoolean consumed = new AtomicBoolean(false);
 	private final Supplier<Duration> delayUntilNextAllowedRequest;
+	private final boolean recorded;
 
 	public <S extends WithDelayUntilNextAllowedRequestTime> StreamingRateLimitedResponse(Stream<S> responseElements, Function<? super S, Stream<T>> flatMapper) {
 		this(responseElements, new DeferredDelayUntilNextAllowedRequest(), flatMapper);
@@ -52,16 +55,24 @@ public class StreamingRateLimitedResponse<T> {
 	}
 
 	public StreamingRateLimitedResponse(Stream<T> elements, Supplier<Duration> delayUntilNextAllowedRequest) {
+		this(elements, delayUntilNextAllowedRequest, false);
+	}
+
+	/**
+	 * @param recorded if the consumption of the elements is already recorded, i.e. they are mapped from the elements of another response
+	 */
+	private StreamingRateLimitedResponse(Stream<T> elements, Supplier<Duration> delayUntilNextAllowedRequest, boolean recorded) {
 		this.elements = elements;
 		this.delayUntilNextAllowedRequest = delayUntilNextAllowedRequest;
+		this.recorded = recorded;
 	}
 
 	public <R> StreamingRateLimitedResponse<R> map(Function<? super T, R> mapper) {
-		return new StreamingRateLimitedResponse<>(asStream().map(mapper), delayUntilNextAllowedRequest);
+		return new StreamingRateLimitedResponse<>(asStream().map(mapper), delayUntilNextAllowedRequest, true);
 	}
 
 	public <R> StreamingRateLimitedResponse<R> flatMap(Function<? super T, Stream<R>> mapper) {
-		return new StreamingRateLimitedResponse<>(asStream().flatMap(mapper), delayUntilNextAllowedRequest);
+		return new StreamingRateLimitedResponse<>(asStream().flatMap(mapper), delayUntilNextAllowedRequest, true);
 	}
 
 	/**
@@ -75,7 +86,7 @@ public class StreamingRateLimitedResponse<T> {
 	 */
 	public void forEach(ResponseElementHandler<T> handler) {
 		try (Stream<T> autoClosed = asStream()) {
-			elements.forEach(id -> {
+			autoClosed.forEach(id -> {
 				try {
 					handler.handle(id);
 				} catch (RuntimeException e) {
@@ -121,7 +132,35 @@ public class StreamingRateLimitedResponse<T> {
 	 */
 	public Stream<T> asStream() {
 		switchToConsumedState();
-		return elements;
+		return recorded ? elements : StreamingResponseRecording.record(elements, delayUntilNextAllowedRequest);
+	}
+
+	/**
+	 * Expose the retrieved elements as a {@link Flow.Publisher}, which reads from the response
+	 * only as its subscriber requests more elements. The response is closed when all elements
+	 * have been published, if reading the response fails, or if the subscription is cancelled.
+	 * {@link #getDelayUntilNextAllowedRequest()} may be invoked when the subscriber
+	 * has been {@link Flow.Subscriber#onComplete() completed}.
+	 * <p>
+	 * Elements are read from the response and published on the thread which requests them.
+	 * Use {@link #toPublisher(Executor)} to read and publish on other threads.
+	 *
+	 * @return the elements of the response as a Publisher, which accepts one subscriber.
+	 */
+	public Flow.Publisher<T> toPublisher() {
+		return toPublisher(Runnable::run);
+	}
+
+	/**
+	 * Expose the retrieved elements as a {@link Flow.Publisher}, reading from the response and
+	 * publishing to the subscriber on the given executor. See {@link #toPublisher()}.
+	 *
+	 * @param executor the executor to read and publish elements on. Reading from the response
+	 *                 blocks, so this should not be an executor with few threads shared by other tasks.
+	 * @return the elements of the response as a Publisher, which accepts one subscriber.
+	 */
+	public Flow.Publisher<T> toPublisher(Executor executor) {
+		return new StreamPublisher<>(asStream(), executor);
 	}
 
 	private void switchToConsumedState() {
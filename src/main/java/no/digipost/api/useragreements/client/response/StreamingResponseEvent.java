@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of consuming a {@link StreamingRateLimitedResponse}, from acquiring its elements
+ * until they are exhausted or closed.
+ */
+@Name("no.digipost.useragreements.StreamingResponse")
+@Label("Digipost Streaming Response")
+@Description("Consuming a streamed response of the Digipost user agreements API")
+@Category({"Digipost", "User Agreements"})
+@StackTrace(false)
+final class StreamingResponseEvent extends jdk.jfr.Event {
+
+	@Label("Elements")
+	long elements;
+
+	@Label("Delay Until Next Allowed Request")
+	@Description("The delay given by the response, or 0 if it was not read")
+	@Timespan
+	long delayUntilNextAllowedRequest;
+
+}
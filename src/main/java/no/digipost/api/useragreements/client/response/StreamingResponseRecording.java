@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import java.time.Duration;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Records the consumption of the elements of a response as a {@link StreamingResponseEvent}, which is
+ * committed when the elements are exhausted or closed, whichever happens first.
+ */
+final class StreamingResponseRecording<T> implements Spliterator<T> {
+
+	static <T> Stream<T> record(Stream<T> elements, Supplier<Duration> delayUntilNextAllowedRequest) {
+		StreamingResponseEvent event = new StreamingResponseEvent();
+		if (!event.isEnabled()) {
+			return elements;
+		}
+		event.begin();
+		StreamingResponseRecording<T> recording = new StreamingResponseRecording<>(elements.spliterator(), event, delayUntilNextAllowedRequest);
+		return StreamSupport.stream(recording, false).onClose(recording::end).onClose(elements::close);
+	}
+
+
+	private final Spliterator<T> elements;
+	private final StreamingResponseEvent event;
+	private final Supplier<Duration> delayUntilNextAllowedRequest;
+	private final AtomicBoolean ended = new AtomicBoolean(false);
+	private long consumedElements;
+
+	private StreamingResponseRecording(Spliterator<T> elements, StreamingResponseEvent event, Supplier<Duration> delayUntilNextAllowedRequest) {
+		this.elements = elements;
+		this.event = event;
+		this.delayUntilNextAllowedRequest = delayUntilNextAllowedRequest;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if (elements.tryAdvance(action)) {
+			consumedElements++;
+			return true;
+		}
+		end();
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		elements.forEachRemaining(element -> {
+			consumedElements++;
+			action.accept(element);
+		});
+		end();
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		return elements.estimateSize();
+	}
+
+	@Override
+	public int characteristics() {
+		// not sized, so that the elements are traversed, and recorded, also when they are only counted
+		return elements.characteristics() & ~(SIZED | SUBSIZED);
+	}
+
+	private void end() {
+		if (ended.getAndSet(true)) {
+			return;
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.elements = consumedElements;
+			Duration delay = delayUntilNextAllowedRequest.get();
+			event.delayUntilNextAllowedRequest = delay != null ? delay.toNanos() : 0;
+			event.commit();
+		}
+	}
+}
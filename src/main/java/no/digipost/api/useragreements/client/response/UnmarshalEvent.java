@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of unmarshalling one XML document from the body of a response.
+ */
+@Name("no.digipost.useragreements.Unmarshal")
+@Label("Digipost Unmarshal")
+@Description("Unmarshalling an XML document from a response of the Digipost user agreements API")
+@Category({"Digipost", "User Agreements"})
+@StackTrace(false)
+final class UnmarshalEvent extends jdk.jfr.Event {
+
+	@Label("Type")
+	String type;
+
+	@Label("Status")
+	int status;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream of concatenated XML documents, each starting with an XML declaration,
+ * as a sequence of separate documents. The stream presents one document at a time, and reaching
+ * the start of the next document is signaled as end of stream until {@link #nextDocument()} is invoked.
+ * This allows each document to be given to an XML parser, which would otherwise reject the
+ * content following the root element of the first document.
+ * <p>
+ * Documents are separated by scanning the bytes for the start of an XML declaration,
+ * {@code <?xml}, using a fixed size buffer, so memory usage is independent of the size of the documents.
+ */
+public final class XmlDocumentsInputStream extends InputStream {
+
+	private static final byte[] XML_DECLARATION_START = {'<', '?', 'x', 'm', 'l'};
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+	private boolean markupRead;
+	private boolean endOfDocument = true;
+
+	public XmlDocumentsInputStream(InputStream in) {
+		this(in, 8192);
+	}
+
+	XmlDocumentsInputStream(InputStream in, int bufferSize) {
+		if (bufferSize < XML_DECLARATION_START.length) {
+			throw new IllegalArgumentException("bufferSize must be at least " + XML_DECLARATION_START.length + ", was " + bufferSize);
+		}
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Skip any remaining content of the current document, and advance to the next.
+	 * This must be invoked before reading the first document.
+	 *
+	 * @return {@code true} if there is another document to read, {@code false} if the
+	 *         end of the underlying stream has been reached.
+	 */
+	public boolean nextDocument() throws IOException {
+		byte[] discarded = new byte[256];
+		while (read(discarded, 0, discarded.length) != -1) {
+			continue;
+		}
+		endOfDocument = false;
+		markupRead = false;
+		while (available(1)) {
+			if (!Character.isWhitespace(buffer[position])) {
+				return true;
+			}
+			position++;
+		}
+		endOfDocument = true;
+		return false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int read = 0;
+		while (read < len && !endOfDocument) {
+			if (position == limit && (read > 0 || !available(1))) {
+				break;
+			}
+			if (buffer[position] == '<') {
+				if (limit - position < XML_DECLARATION_START.length && read > 0) {
+					break;
+				}
+				if (markupRead && available(XML_DECLARATION_START.length) && isXmlDeclarationStart()) {
+					endOfDocument = true;
+					break;
+				}
+				markupRead = true;
+			}
+			b[off + read++] = buffer[position++];
+		}
+		return read > 0 ? read : -1;
+	}
+
+	private boolean isXmlDeclarationStart() {
+		for (int i = 0; i < XML_DECLARATION_START.length; i++) {
+			if (Character.toLowerCase(buffer[position + i]) != XML_DECLARATION_START[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ensure that at least the given amount of bytes are available in the buffer,
+	 * reading from the underlying stream if necessary.
+	 *
+	 * @return {@code false} if the underlying stream ended before the amount of bytes were available
+	 */
+	private boolean available(int amount) throws IOException {
+		if (limit - position >= amount) {
+			return true;
+		}
+		System.arraycopy(buffer, position, buffer, 0, limit - position);
+		limit -= position;
+		position = 0;
+		while (limit < amount) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read == -1) {
+				return false;
+			}
+			limit += read;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.transport;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+
+import java.io.IOException;
+
+/**
+ * {@link HttpTransport} using Apache HttpClient.
+ */
+public class ApacheHttpTransport implements HttpTransport {
+
+	private final CloseableHttpClient httpClient;
+
+	public ApacheHttpTransport(final CloseableHttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	@Override
+	public <T> T execute(final ClassicHttpRequest request, final HttpClientResponseHandler<? extends T> responseHandler) throws IOException {
+		return httpClient.execute(request, responseHandler);
+	}
+
+	@Override
+	public ClassicHttpResponse executeOpen(final ClassicHttpRequest request) throws IOException {
+		return httpClient.executeOpen(null, request, null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+}
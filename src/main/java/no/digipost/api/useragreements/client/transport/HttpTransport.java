@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.transport;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sends requests to the Digipost API and receives the responses. The requests given to a transport
+ * are complete, i.e. already dated and signed, and the transport must send them as they are, without
+ * altering any of the signed headers.
+ *
+ * @see ApacheHttpTransport
+ * @see JavaNetHttpTransport
+ */
+public interface HttpTransport extends Closeable {
+
+	/**
+	 * Execute a request and process the response with the given handler. Any resources
+	 * associated with the response are released when this method returns.
+	 *
+	 * @param request the request to send
+	 * @param responseHandler handles the response
+	 * @return the result of the response handler
+	 */
+	<T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<? extends T> responseHandler) throws IOException;
+
+	/**
+	 * Execute a request and return the response with its entity still open, for streaming the content.
+	 * The caller is responsible for closing the response.
+	 *
+	 * @param request the request to send
+	 * @return the response, which must be closed
+	 */
+	ClassicHttpResponse executeOpen(ClassicHttpRequest request) throws IOException;
+
+}
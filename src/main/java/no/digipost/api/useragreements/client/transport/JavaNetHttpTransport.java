@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.transport;
+
+import org.apache.hc.client5.http.ClientProtocolException;
+import org.apache.hc.client5.http.config.Configurable;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static java.time.Duration.ofMillis;
+import static no.digipost.http.client.HttpClientDefaults.CONNECT_TIMEOUT_MS;
+import static no.digipost.http.client.HttpClientDefaults.SOCKET_TIMEOUT_MS;
+
+/**
+ * {@link HttpTransport} using the {@link HttpClient} included in the Java runtime, which supports
+ * HTTP/2 and requires no additional dependencies.
+ * <p>
+ * Requests are signed including their {@code Date} header, which the {@link HttpClient} of Java 11 refuses
+ * to send, so this transport requires Java 12 or later.
+ */
+public class JavaNetHttpTransport implements HttpTransport {
+
+	/**
+	 * Headers which are set by {@link HttpClient} itself, and are not allowed to be set on a request.
+	 */
+	private static final List<String> RESTRICTED_HEADERS = Arrays.asList("connection", "content-length", "expect", "host", "upgrade");
+
+	/**
+	 * @return whether the {@link HttpClient} of the Java runtime allows setting the {@code Date} header,
+	 *         which is required to send signed requests. This is the case from Java 12.
+	 */
+	public static boolean isSupportedByRuntime() {
+		return Runtime.version().feature() >= 12;
+	}
+
+	/**
+	 * @throws IllegalStateException if the {@link HttpClient} of the Java runtime does not allow setting the {@code Date} header
+	 * @see #isSupportedByRuntime()
+	 */
+	public static void requireSupportedByRuntime() {
+		if (!isSupportedByRuntime()) {
+			throw new IllegalStateException(
+					"The java.net.http.HttpClient of Java " + Runtime.version().feature() + " does not allow setting the Date header " +
+					"of signed requests. Use Java 12 or later, or the default Apache HttpClient.");
+		}
+	}
+
+	/**
+	 * @return a {@link HttpClient.Builder} with the same connect timeout as the default Apache HttpClient
+	 */
+	public static HttpClient.Builder defaultHttpClientBuilder() {
+		return HttpClient.newBuilder().connectTimeout(ofMillis(CONNECT_TIMEOUT_MS));
+	}
+
+	private final HttpClient httpClient;
+	private final Duration responseTimeout;
+
+	public JavaNetHttpTransport(final HttpClient httpClient) {
+		this(httpClient, ofMillis(SOCKET_TIMEOUT_MS));
+	}
+
+	/**
+	 * @param httpClient the client to send requests with
+	 * @param responseTimeout how long to wait for the response headers of a request
+	 */
+	public JavaNetHttpTransport(final HttpClient httpClient, final Duration responseTimeout) {
+		requireSupportedByRuntime();
+		this.httpClient = httpClient;
+		this.responseTimeout = responseTimeout;
+	}
+
+	@Override
+	public <T> T execute(final ClassicHttpRequest request, final HttpClientResponseHandler<? extends T> responseHandler) throws IOException {
+		try (ClassicHttpResponse response = executeOpen(request)) {
+			T result = responseHandler.handleResponse(response);
+			EntityUtils.consume(response.getEntity());
+			return result;
+		} catch (HttpException e) {
+			throw new ClientProtocolException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public ClassicHttpResponse executeOpen(final ClassicHttpRequest request) throws IOException {
+		HttpResponse<InputStream> response;
+		try {
+			response = httpClient.send(toJavaNetRequest(request), BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for response to " + request);
+			interrupted.initCause(e);
+			throw interrupted;
+		}
+		return toClassicResponse(response);
+	}
+
+	private HttpRequest toJavaNetRequest(final ClassicHttpRequest request) throws IOException {
+		HttpRequest.Builder javaNetRequest = HttpRequest.newBuilder()
+				.timeout(responseTimeoutOf(request))
+				.method(request.getMethod(), bodyOf(request.getEntity()));
+		try {
+			javaNetRequest.uri(request.getUri());
+		} catch (URISyntaxException e) {
+			throw new ClientProtocolException("Invalid URI of request " + request + ": " + e.getMessage(), e);
+		}
+		for (Header header : request.getHeaders()) {
+			if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+				javaNetRequest.header(header.getName(), header.getValue());
+			}
+		}
+		HttpEntity entity = request.getEntity();
+		if (entity != null && entity.getContentType() != null && !request.containsHeader(HttpHeaders.CONTENT_TYPE)) {
+			javaNetRequest.header(HttpHeaders.CONTENT_TYPE, entity.getContentType());
+		}
+		return javaNetRequest.build();
+	}
+
+	/**
+	 * @return the response timeout of the request, if it has been given a shorter one than the default of this transport
+	 */
+	private Duration responseTimeoutOf(final ClassicHttpRequest request) {
+		RequestConfig config = request instanceof Configurable ? ((Configurable) request).getConfig() : null;
+		if (config != null && config.getResponseTimeout() != null && config.getResponseTimeout().isEnabled()) {
+			Duration requestTimeout = ofMillis(Math.max(config.getResponseTimeout().toMilliseconds(), 1));
+			return requestTimeout.compareTo(responseTimeout) < 0 ? requestTimeout : responseTimeout;
+		}
+		return responseTimeout;
+	}
+
+	private static BodyPublisher bodyOf(final HttpEntity entity) throws IOException {
+		return entity != null ? BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity)) : BodyPublishers.noBody();
+	}
+
+	private static ClassicHttpResponse toClassicResponse(final HttpResponse<InputStream> response) {
+		BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(response.statusCode());
+		classicResponse.setVersion(response.version() == HttpClient.Version.HTTP_2 ? HttpVersion.HTTP_2 : HttpVersion.HTTP_1_1);
+		response.headers().map().forEach((name, values) -> values.forEach(value -> classicResponse.addHeader(name, value)));
+		ContentType contentType = response.headers().firstValue(HttpHeaders.CONTENT_TYPE).map(ContentType::parse).orElse(null);
+		long contentLength = response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1);
+		classicResponse.setEntity(new InputStreamEntity(response.body(), contentLength, contentType));
+		return classicResponse;
+	}
+
+	/**
+	 * The {@link HttpClient} has no resources which must be explicitly released, so this does nothing.
+	 */
+	@Override
+	public void close() {
+	}
+}
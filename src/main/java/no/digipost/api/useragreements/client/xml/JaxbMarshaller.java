@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.xml;
+
+import jakarta.xml.bind.DataBindingException;
+import jakarta.xml.bind.JAXB;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import no.digipost.api.useragreements.client.Agreement;
+import no.digipost.api.useragreements.client.AgreementOwners;
+import no.digipost.api.useragreements.client.Agreements;
+import no.digipost.api.useragreements.client.Document;
+import no.digipost.api.useragreements.client.DocumentContent;
+import no.digipost.api.useragreements.client.DocumentCount;
+import no.digipost.api.useragreements.client.Documents;
+import no.digipost.api.useragreements.client.EntryPoint;
+import no.digipost.api.useragreements.client.Error;
+import no.digipost.api.useragreements.client.Identification;
+import no.digipost.api.useragreements.client.IdentificationResult;
+
+import javax.xml.transform.stream.StreamSource;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Marshalling and unmarshalling of the API model using one {@link JAXBContext}, created once, and
+ * pools of {@link Marshaller}s and {@link Unmarshaller}s, which are expensive to create but not thread-safe.
+ * This is used instead of the {@link JAXB} facade, which only caches the context of the last used class,
+ * and creates a new marshaller or unmarshaller for every invocation.
+ * <p>
+ * Classes which are not part of the API model are delegated to {@link JAXB}, and, as with {@link JAXB},
+ * failures are thrown as {@link DataBindingException}.
+ */
+public final class JaxbMarshaller {
+
+	private static final int POOL_SIZE = 64;
+
+	private static final class Model {
+		static final JaxbMarshaller INSTANCE = new JaxbMarshaller(POOL_SIZE,
+				Agreement.class, Agreements.class, AgreementOwners.class, Document.class, DocumentContent.class, DocumentCount.class,
+				Documents.class, EntryPoint.class, Error.class, Identification.class, IdentificationResult.class);
+	}
+
+	/**
+	 * @return the marshaller for the classes of the user agreements API
+	 */
+	public static JaxbMarshaller getInstance() {
+		return Model.INSTANCE;
+	}
+
+	private final Set<Class<?>> classes;
+	private final JAXBContext context;
+	private final BlockingQueue<Marshaller> marshallers;
+	private final BlockingQueue<Unmarshaller> unmarshallers;
+
+	JaxbMarshaller(int poolSize, Class<?> ... classes) {
+		this.classes = new HashSet<>(Arrays.asList(classes));
+		try {
+			this.context = JAXBContext.newInstance(classes);
+		} catch (JAXBException e) {
+			throw new DataBindingException("Unable to create JAXBContext for " + this.classes + ": " + e.getMessage(), e);
+		}
+		this.marshallers = new ArrayBlockingQueue<>(poolSize);
+		this.unmarshallers = new ArrayBlockingQueue<>(poolSize);
+	}
+
+	public <T> T unmarshal(InputStream xml, Class<T> type) {
+		if (!classes.contains(type)) {
+			return JAXB.unmarshal(xml, type);
+		}
+		Unmarshaller unmarshaller = unmarshallers.poll();
+		try {
+			if (unmarshaller == null) {
+				unmarshaller = context.createUnmarshaller();
+			}
+			T unmarshalled = unmarshaller.unmarshal(new StreamSource(xml), type).getValue();
+			unmarshallers.offer(unmarshaller);
+			return unmarshalled;
+		} catch (JAXBException e) {
+			throw new DataBindingException(e.getMessage(), e);
+		}
+	}
+
+	public void marshal(Object object, OutputStream xml) {
+		if (!classes.contains(object.getClass())) {
+			JAXB.marshal(object, xml);
+			return;
+		}
+		Marshaller marshaller = marshallers.poll();
+		try {
+			if (marshaller == null) {
+				marshaller = context.createMarshaller();
+			}
+			marshaller.marshal(object, xml);
+			marshallers.offer(marshaller);
+		} catch (JAXBException e) {
+			throw new DataBindingException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static no.digipost.api.useragreements.client.ClientTestSupport.call;
+import static no.digipost.api.useragreements.client.ClientTestSupport.callWithDeadline;
+import static no.digipost.api.useragreements.client.ClientTestSupport.callWithoutSender;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private final ApiCall getAgreement = call(Operation.GET_AGREEMENT);
+	private final ApiCall identifyUser = callWithoutSender(Operation.IDENTIFY_USER);
+	private final AtomicLong nanoTime = new AtomicLong();
+
+	@Test
+	public void growsOnlyWhileLimitIsUtilized() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().initialLimit(2), nanoTime::get);
+
+		for (int i = 0; i < 10; i++) {
+			limiter.intercept(getAgreement, () -> taking(10));
+		}
+
+		assertThat(limiter.getLimit(Operation.GET_AGREEMENT), is(3));
+	}
+
+	@Test
+	public void growsUpToMaxLimitWhenUtilized() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().initialLimit(2).limits(1, 4), nanoTime::get);
+
+		for (int i = 0; i < 10; i++) {
+			limiter.intercept(getAgreement, () -> limiter.intercept(getAgreement, () -> taking(10)));
+		}
+
+		assertThat(limiter.getLimit(Operation.GET_AGREEMENT), is(4));
+	}
+
+	@Test
+	public void shrinksOnTooManyRequests() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive(), nanoTime::get);
+
+		try {
+			limiter.intercept(getAgreement, () -> {
+				throw new TooManyRequestsException();
+			});
+			fail("should throw " + TooManyRequestsException.class.getSimpleName());
+		} catch (TooManyRequestsException expected) {
+		}
+
+		assertThat(limiter.getLimit(Operation.GET_AGREEMENT), is(9));
+		assertThat(limiter.getLimit(Operation.IDENTIFY_USER), is(10));
+	}
+
+	@Test
+	public void shrinksWhenLatencyRises() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().limits(1, 10), nanoTime::get);
+		for (int i = 0; i < 20; i++) {
+			limiter.intercept(identifyUser, () -> taking(10));
+		}
+		assertThat(limiter.getLimit(Operation.IDENTIFY_USER), is(10));
+
+		for (int i = 0; i < 3; i++) {
+			limiter.intercept(identifyUser, () -> taking(100));
+		}
+
+		assertThat(limiter.getLimit(Operation.IDENTIFY_USER), lessThan(10));
+	}
+
+	@Test
+	public void shrinksOnlyOncePerLatencyWindow() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().limits(1, 10), nanoTime::get);
+		for (int i = 0; i < 20; i++) {
+			limiter.intercept(identifyUser, () -> taking(10));
+		}
+
+		limiter.intercept(identifyUser, () -> limiter.intercept(identifyUser, () -> limiter.intercept(identifyUser,
+				() -> limiter.intercept(identifyUser, () -> taking(300)))));
+		assertThat(limiter.getLimit(Operation.IDENTIFY_USER), is(9));
+
+		limiter.intercept(identifyUser, () -> taking(300));
+		assertThat(limiter.getLimit(Operation.IDENTIFY_USER), is(8));
+	}
+
+	@Test
+	public void callsExceedingLimitWaitForCallInFlight() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().initialLimit(1).limits(1, 1));
+		CountDownLatch firstStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		AtomicBoolean secondExecuted = new AtomicBoolean();
+
+		Thread first = new Thread(() -> limiter.intercept(getAgreement, () -> {
+			firstStarted.countDown();
+			return await(releaseFirst);
+		}));
+		first.start();
+		firstStarted.await();
+		Thread second = new Thread(() -> limiter.intercept(getAgreement, () -> secondExecuted.getAndSet(true)));
+		second.start();
+		while (second.getState() != Thread.State.WAITING) {
+			Thread.sleep(5);
+		}
+		assertThat(secondExecuted.get(), is(false));
+
+		releaseFirst.countDown();
+		second.join(5000);
+		assertThat(secondExecuted.get(), is(true));
+	}
+
+	@Test
+	public void callsWaitForTheConcurrencyLimitOnlyUntilTheirDeadline() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimiterSettings.adaptive().initialLimit(1).limits(1, 1));
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		CountDownLatch firstStarted = new CountDownLatch(1);
+		Thread first = new Thread(() -> limiter.intercept(getAgreement, () -> {
+			firstStarted.countDown();
+			return await(releaseFirst);
+		}));
+		first.start();
+		firstStarted.await();
+
+		ApiCall withDeadline = callWithDeadline(Operation.GET_AGREEMENT, Duration.ofMillis(100));
+		long start = System.nanoTime();
+		try {
+			limiter.intercept(withDeadline, () -> "executed");
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(Duration.ofNanos(System.nanoTime() - start), lessThan(Duration.ofSeconds(2)));
+		} finally {
+			releaseFirst.countDown();
+			first.join(5000);
+		}
+		assertThat("slot of the first call is released", limiter.intercept(getAgreement, () -> "executed"), is("executed"));
+	}
+
+	private Object taking(long millis) {
+		nanoTime.addAndGet(MILLISECONDS.toNanos(millis));
+		return null;
+	}
+
+	private static Object await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		return null;
+	}
+}
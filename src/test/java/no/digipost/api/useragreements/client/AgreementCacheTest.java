@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.message.StatusLine;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Optional;
+
+import static java.time.Duration.ofMinutes;
+import static java.time.Duration.ofSeconds;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.GetAgreementResult.FailedReason.NO_AGREEMENT;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AgreementCacheTest {
+
+	@Rule
+	public final MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock
+	private ApiService apiService;
+
+	@Mock
+	private Clock clock;
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+	private final GetAgreementResult agreement = new GetAgreementResult(new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+	private final GetAgreementResult noAgreement = new GetAgreementResult(NO_AGREEMENT, () -> new UnexpectedResponseException(new StatusLine(HttpVersion.HTTP_1_1, 404, "Not Found"), ErrorCode.AGREEMENT_NOT_FOUND, "not found"));
+
+	private Instant now = Instant.parse("2024-01-01T12:00:00Z");
+	private DigipostUserAgreementsClient client;
+
+	@Before
+	public void createClient() {
+		when(clock.instant()).thenAnswer(invocation -> now);
+		client = new DigipostUserAgreementsClient(apiService, ExecutionMode.PLATFORM_THREADS, Optional.of(
+				ResultCacheSettings.expireAfterWrite(ofMinutes(10)).failuresExpireAfterWrite(ofMinutes(1)).clock(clock)), Optional.empty(), Optional.empty());
+	}
+
+	@Test
+	public void cachesAgreementUntilItExpires() {
+		givenResults(agreement);
+
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+		passTime(ofMinutes(9));
+		assertThat(client.getAgreement(senderId, new AgreementType(FETCH_MESSAGES.getType()), userId), sameInstance(agreement));
+		verifyRequests(1);
+
+		passTime(ofMinutes(1));
+		client.getAgreement(senderId, FETCH_MESSAGES, userId);
+		verifyRequests(2);
+	}
+
+	@Test
+	public void cachesMissingAgreementForShorterTime() {
+		givenResults(noAgreement, agreement);
+
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId).getFailedReason(), is(NO_AGREEMENT));
+		passTime(ofSeconds(59));
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId).getFailedReason(), is(NO_AGREEMENT));
+		verifyRequests(1);
+
+		passTime(ofSeconds(1));
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+		verifyRequests(2);
+	}
+
+	@Test
+	public void creatingOrDeletingAgreementInvalidatesIt() {
+		givenResults(noAgreement, agreement, noAgreement);
+
+		client.getAgreement(senderId, FETCH_MESSAGES, userId);
+		client.createOrReplaceAgreement(senderId, agreement.getAgreement());
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+
+		client.deleteAgreement(senderId, FETCH_MESSAGES, userId);
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(noAgreement));
+		verifyRequests(3);
+	}
+
+	@Test
+	public void doesNotCacheResultOfLookupWhichWasInFlightWhenAgreementWasCreated() {
+		when(apiService.getAgreement(eq(senderId), any(), eq(userId), isNull(), any()))
+				.thenAnswer(invocation -> {
+					client.createOrReplaceAgreement(senderId, agreement.getAgreement());
+					return noAgreement;
+				})
+				.thenReturn(agreement);
+
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(noAgreement));
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+		assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+		verifyRequests(2);
+	}
+
+	@Test
+	public void doesNotCacheExceptions() {
+		when(apiService.getAgreement(eq(senderId), any(), eq(userId), isNull(), any()))
+				.thenThrow(new UnexpectedResponseException(new StatusLine(HttpVersion.HTTP_1_1, 500, "Internal Server Error"), ErrorCode.GENERAL_ERROR, "failed"))
+				.thenReturn(agreement);
+
+		try {
+			client.getAgreement(senderId, FETCH_MESSAGES, userId);
+			fail("should throw exception");
+		} catch (UnexpectedResponseException e) {
+			assertThat(client.getAgreement(senderId, FETCH_MESSAGES, userId), sameInstance(agreement));
+		}
+		verifyRequests(2);
+	}
+
+	private void givenResults(GetAgreementResult first, GetAgreementResult ... subsequent) {
+		when(apiService.getAgreement(eq(senderId), any(), eq(userId), isNull(), any())).thenReturn(first, subsequent);
+	}
+
+	private void verifyRequests(int amount) {
+		verify(apiService, times(amount)).getAgreement(eq(senderId), any(), eq(userId), isNull(), any());
+	}
+
+	private void passTime(Duration duration) {
+		now = now.plus(duration);
+	}
+}
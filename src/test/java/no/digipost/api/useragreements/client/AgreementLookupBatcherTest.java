@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.message.StatusLine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static java.util.Arrays.asList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.GetAgreementResult.FailedReason.NO_AGREEMENT;
+import static no.digipost.api.useragreements.client.GetAgreementResult.FailedReason.UNKNOWN_USER;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class AgreementLookupBatcherTest {
+
+	@Rule
+	public final MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock
+	private ApiService apiService;
+
+	@Mock
+	private ApiService otherApiService;
+
+	private static final AgreementType OTHER_TYPE = new AgreementType("other-type");
+	private static final AgreementType MISSING_TYPE = new AgreementType("missing-type");
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+
+	@Test
+	public void lookupsWithinWindowShareOneRequestForAllAgreements() throws Exception {
+		when(apiService.getAgreements(eq(senderId), eq(userId), isNull(), any())).thenReturn(new Agreements(asList(
+				new Agreement(FETCH_MESSAGES, userId, new HashMap<>()), new Agreement(OTHER_TYPE, userId, new HashMap<>()))));
+		AgreementLookupBatcher batcher = new AgreementLookupBatcher(ofMillis(300));
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<CompletableFuture<GetAgreementResult>> results = asList(
+					CompletableFuture.supplyAsync(() -> batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null), executor),
+					CompletableFuture.supplyAsync(() -> batcher.getAgreement(apiService, senderId, new AgreementType("other-type"), userId, null), executor),
+					CompletableFuture.supplyAsync(() -> batcher.getAgreement(apiService, senderId, MISSING_TYPE, userId, null), executor));
+
+			assertThat(results.get(0).get().getAgreement().getType().getType(), is(FETCH_MESSAGES.getType()));
+			assertThat(results.get(1).get().getAgreement().getType().getType(), is(OTHER_TYPE.getType()));
+			assertThat(results.get(2).get().getFailedReason(), is(NO_AGREEMENT));
+		} finally {
+			executor.shutdown();
+		}
+		verify(apiService, times(1)).getAgreements(eq(senderId), eq(userId), isNull(), any());
+	}
+
+	@Test
+	public void lookupsWithDifferentServicesShareOneRequest() throws Exception {
+		when(apiService.getAgreements(eq(senderId), eq(userId), isNull(), any())).thenReturn(new Agreements(asList(new Agreement(FETCH_MESSAGES, userId, new HashMap<>()))));
+		AgreementLookupBatcher batcher = new AgreementLookupBatcher(ofMillis(300));
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CompletableFuture<GetAgreementResult> first = CompletableFuture.supplyAsync(() -> batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null), executor);
+			Thread.sleep(50);
+			CompletableFuture<GetAgreementResult> second = CompletableFuture.supplyAsync(() -> batcher.getAgreement(otherApiService, senderId, FETCH_MESSAGES, userId, null), executor);
+
+			assertThat(first.get().isSuccess(), is(true));
+			assertThat(second.get().isSuccess(), is(true));
+		} finally {
+			executor.shutdown();
+		}
+		verify(apiService, times(1)).getAgreements(eq(senderId), eq(userId), isNull(), any());
+		verifyZeroInteractions(otherApiService);
+	}
+
+	@Test
+	public void lookupAfterWindowSendsNewRequest() {
+		when(apiService.getAgreements(eq(senderId), eq(userId), isNull(), any())).thenReturn(new Agreements(asList()));
+		AgreementLookupBatcher batcher = new AgreementLookupBatcher(ofMillis(1));
+
+		assertThat(batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null).getFailedReason(), is(NO_AGREEMENT));
+		assertThat(batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null).getFailedReason(), is(NO_AGREEMENT));
+		verify(apiService, times(2)).getAgreements(eq(senderId), eq(userId), isNull(), any());
+	}
+
+	@Test
+	public void interruptedLookupDoesNotSendTheRequest() {
+		AgreementLookupBatcher batcher = new AgreementLookupBatcher(ofSeconds(10));
+
+		Thread.currentThread().interrupt();
+		try {
+			batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null);
+			fail("should throw " + UserAgreementsApiException.class.getSimpleName());
+		} catch (UserAgreementsApiException e) {
+			assertThat(e.getErrorCode(), is(ErrorCode.CLIENT_TECHNICAL_ERROR));
+			assertThat(Thread.interrupted(), is(true));
+		}
+		verifyZeroInteractions(apiService);
+	}
+
+	@Test
+	public void unknownUserIsFannedOutAsUnknownUser() {
+		when(apiService.getAgreements(eq(senderId), eq(userId), isNull(), any())).thenThrow(
+				new UnexpectedResponseException(new StatusLine(HttpVersion.HTTP_1_1, 404, "Not Found"), ErrorCode.UNKNOWN_USER_ID, "unknown user"));
+		AgreementLookupBatcher batcher = new AgreementLookupBatcher(ofMillis(1));
+
+		assertThat(batcher.getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null).getFailedReason(), is(UNKNOWN_USER));
+	}
+
+	@Test(expected = UnexpectedResponseException.class)
+	public void otherErrorsAreThrown() {
+		when(apiService.getAgreements(eq(senderId), eq(userId), isNull(), any())).thenThrow(
+				new UnexpectedResponseException(new StatusLine(HttpVersion.HTTP_1_1, 500, "Internal Server Error"), ErrorCode.GENERAL_ERROR, "failed"));
+
+		new AgreementLookupBatcher(ofMillis(1)).getAgreement(apiService, senderId, FETCH_MESSAGES, userId, null);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.apache.hc.core5.http.message.StatusLine;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.StreamSupport.stream;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AgreementOwnersReaderTest {
+
+	private static final StatusLine OK = new StatusLine(org.apache.hc.core5.http.HttpVersion.HTTP_1_1, 200, "OK");
+
+	@Test
+	public void readsUserIdsFromConcatenatedDocuments() {
+		String content = document(null, "1", "2") + "\n" + document(Duration.ofSeconds(30), "3");
+		try (AgreementOwnersReader reader = new AgreementOwnersReader(OK, new ByteArrayInputStream(content.getBytes(UTF_8)))) {
+			assertThat(stream(spliteratorUnknownSize(reader, ORDERED), false).collect(toList()), contains(UserId.of("1"), UserId.of("2"), UserId.of("3")));
+			assertThat(reader.getDelayUntilNextAllowedRequest(), is(Duration.ofSeconds(30)));
+		}
+	}
+
+	@Test
+	public void yieldsUserIdsBeforeReadingTheRestOfTheResponse() {
+		String beginning = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><agreement-owners xmlns=\"http://api.digipost.no/user/schema/v2\"><id>1</id><id>2</id>";
+		InputStream neverEnding = new InputStream() {
+			@Override
+			public int read() {
+				return ' ';
+			}
+		};
+		try (AgreementOwnersReader reader = new AgreementOwnersReader(OK, new SequenceInputStream(new ByteArrayInputStream(beginning.getBytes(UTF_8)), neverEnding))) {
+			assertThat(reader.next(), is(UserId.of("1")));
+			assertThat(reader.next(), is(UserId.of("2")));
+		}
+	}
+
+	@Test(expected = UnexpectedResponseException.class)
+	public void failsOnUnexpectedDocument() throws IOException {
+		String content = "<?xml version=\"1.0\"?><error xmlns=\"http://api.digipost.no/user/schema/v2\"/>";
+		try (AgreementOwnersReader reader = new AgreementOwnersReader(OK, new ByteArrayInputStream(content.getBytes(UTF_8)))) {
+			reader.hasNext();
+		}
+	}
+
+	private static String document(Duration delay, String ... ids) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+				.append("<agreement-owners xmlns=\"http://api.digipost.no/user/schema/v2\">\n");
+		Stream.of(ids).forEach(id -> xml.append("  <id>").append(id).append("</id>\n"));
+		if (delay != null) {
+			xml.append("  <seconds-until-next-allowed-request>").append(delay.getSeconds()).append("</seconds-until-next-allowed-request>\n");
+		}
+		return xml.append("</agreement-owners>\n").toString();
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkUserIdentificationTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@Test
+	public void yieldsResultsInOrderOfGivenUserIds() {
+		try (Stream<UserIdentificationResult> results = BulkUserIdentification.identifyAll(userIds("1", "2", "3", "4"), userId -> IdentificationResult.digipost(), executor, 2, 100)) {
+			assertThat(results.map(UserIdentificationResult::getUserId).collect(toList()), contains(userIds("1", "2", "3", "4").toArray()));
+		}
+	}
+
+	@Test
+	public void identifiesRepeatedUserIdsOnce() {
+		AtomicInteger identifications = new AtomicInteger();
+		Function<UserId, IdentificationResult> identify = userId -> {
+			identifications.incrementAndGet();
+			return IdentificationResult.digipost();
+		};
+		try (Stream<UserIdentificationResult> results = BulkUserIdentification.identifyAll(userIds("1", "2", "1", "2", "3"), identify, executor, 2, 100)) {
+			assertThat(results.map(UserIdentificationResult::getUserId).collect(toList()), contains(userIds("1", "2", "3").toArray()));
+		}
+		assertThat(identifications.get(), is(3));
+	}
+
+	@Test
+	public void neverExceedsMaxConcurrentRequests() {
+		AtomicInteger inProgress = new AtomicInteger();
+		AtomicInteger maxInProgress = new AtomicInteger();
+		Function<UserId, IdentificationResult> identify = userId -> {
+			maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			inProgress.decrementAndGet();
+			return IdentificationResult.digipost();
+		};
+		Stream<UserId> userIds = IntStream.range(0, 200).mapToObj(String::valueOf).map(UserId::of);
+		try (Stream<UserIdentificationResult> results = BulkUserIdentification.identifyAll(userIds, identify, executor, 4, 100)) {
+			assertThat(results.count(), is(200L));
+		}
+		assertThat(maxInProgress.get(), lessThanOrEqualTo(4));
+	}
+
+	@Test
+	public void failedIdentificationDoesNotStopTheRemainingIdentifications() {
+		Function<UserId, IdentificationResult> identify = userId -> {
+			if (userId.equals(UserId.of("2"))) {
+				throw new RuntimeIOException("connection reset");
+			}
+			return IdentificationResult.digipost();
+		};
+		try (Stream<UserIdentificationResult> results = BulkUserIdentification.identifyAll(userIds("1", "2", "3"), identify, executor, 2, 100)) {
+			List<UserIdentificationResult> all = results.collect(toList());
+			assertThat(all.size(), is(3));
+			assertTrue(all.get(0).isSuccess());
+			assertThat(all.get(1).getResult().getError(), instanceOf(RuntimeIOException.class));
+			assertTrue(all.get(2).isSuccess());
+		}
+	}
+
+	@Test
+	public void rejectsMaxConcurrentRequestsBelowOneBeforeCreatingThreads() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		DigipostUserAgreementsClient client = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate()).build();
+		try {
+			client.identifyUsers(SenderId.of(1234L), userIds("1"), 0);
+			fail("should throw " + IllegalArgumentException.class.getSimpleName());
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("maxConcurrentRequests must be at least 1, was 0"));
+		}
+	}
+
+	@Test(expected = RuntimeIOException.class)
+	public void gettingValueOfFailedIdentificationRethrowsTheCause() {
+		UserIdentificationResult.failure(UserId.of("1"), new RuntimeIOException("connection reset")).getResult().getValue();
+	}
+
+	private static Stream<UserId> userIds(String ... ids) {
+		return Stream.of(ids).map(UserId::of);
+	}
+}
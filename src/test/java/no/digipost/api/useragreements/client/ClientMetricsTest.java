@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClientMetricsTest {
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+	private final RecordingMetrics metrics = new RecordingMetrics();
+
+	private KeyPair keyPair;
+	private StubDigipostServer server;
+	private DigipostUserAgreementsClient client;
+
+	@Before
+	public void startServerAndClient() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		keyPair = keyPairGenerator.generateKeyPair();
+		server = new StubDigipostServer(keyPair.getPublic());
+		client = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate())
+				.serviceEndpoint(server.getServiceEndpoint())
+				.metrics(metrics)
+				.build();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void recordsCallsAndResponsesPerOperation() {
+		client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+		client.getAgreements(senderId, userId);
+
+		assertThat(metrics.events, contains(
+				"bytesSent CREATE_OR_REPLACE_AGREEMENT", "connectionLeased", "responseReceived CREATE_OR_REPLACE_AGREEMENT 201", "callSucceeded CREATE_OR_REPLACE_AGREEMENT",
+				"connectionLeased", "responseReceived GET_AGREEMENTS 200", "bytesReceived GET_AGREEMENTS", "callSucceeded GET_AGREEMENTS"));
+		assertThat(metrics.bytes, everyItem(greaterThan(0L)));
+	}
+
+	@Test
+	public void recordsTooManyRequestsWithRetryAfter() {
+		server.tooManyRequests(1, Duration.ofSeconds(2));
+		try {
+			client.getAgreements(senderId, userId);
+			fail("Should be rejected");
+		} catch (TooManyRequestsException e) {
+			assertThat(metrics.events, hasItem("responseReceived GET_AGREEMENTS 429"));
+			assertThat(metrics.events, hasItem("tooManyRequests GET_AGREEMENTS PT2S"));
+			assertThat(metrics.events, hasItem("callFailed GET_AGREEMENTS " + e.getErrorCode()));
+		}
+	}
+
+	@Test
+	public void recordsErrorCodeOfFailedCall() {
+		server.serverErrors(1);
+		try {
+			client.getAgreements(senderId, userId);
+			fail("Should fail");
+		} catch (UnexpectedResponseException e) {
+			assertThat(metrics.events, hasItem("responseReceived GET_AGREEMENTS 503"));
+			assertThat(metrics.events, hasItem("callFailed GET_AGREEMENTS GENERAL_ERROR"));
+		}
+	}
+
+	@Test
+	public void recordsPhasesOfEachRequest() {
+		server.latency(Duration.ofMillis(50), Duration.ZERO);
+
+		client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+
+		assertThat(metrics.requestTimings, hasSize(1));
+		RequestTimings timings = metrics.requestTimings.get(0);
+		assertThat(timings.getMarshal(), greaterThan(Duration.ZERO));
+		assertThat(timings.getSign(), greaterThan(Duration.ZERO));
+		assertThat(timings.getNetwork(), greaterThanOrEqualTo(Duration.ofMillis(50)));
+		assertThat(timings.getTotal(), greaterThan(timings.getNetwork()));
+	}
+
+	@Test
+	public void attachesPhasesOfFailedRequestToException() {
+		server.serverErrors(1);
+		try {
+			client.getAgreements(senderId, userId);
+			fail("Should fail");
+		} catch (UnexpectedResponseException e) {
+			assertThat(e.getRequestTimings(), is(Optional.of(metrics.requestTimings.get(metrics.requestTimings.size() - 1))));
+			assertThat(e.getRequestTimings().get().getUnmarshal(), greaterThan(Duration.ZERO));
+		}
+	}
+
+	@Test
+	public void failingMetricsDoNotChangeTheOutcomeOfCalls() {
+		ClientMetrics failingMetrics = (ClientMetrics) Proxy.newProxyInstance(ClientMetrics.class.getClassLoader(),
+				new Class<?>[] {ClientMetrics.class}, (proxy, method, args) -> {
+					throw new IllegalStateException(method.getName() + " failed");
+				});
+		DigipostUserAgreementsClient failingMetricsClient = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate())
+				.serviceEndpoint(server.getServiceEndpoint())
+				.metrics(failingMetrics)
+				.build();
+
+		failingMetricsClient.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+		failingMetricsClient.getAgreements(senderId, userId);
+
+		server.serverErrors(1);
+		try {
+			failingMetricsClient.getAgreements(senderId, userId);
+			fail("Should fail");
+		} catch (UnexpectedResponseException e) {
+			assertThat(e.getErrorCode(), is(ErrorCode.GENERAL_ERROR));
+		}
+	}
+
+	@Test
+	public void recordsMetersTaggedByOperationAndOutcome() {
+		List<String> meters = new CopyOnWriteArrayList<>();
+		ClientMetrics meterMetrics = new MeterClientMetrics(new MeterClientMetrics.Meters() {
+			@Override
+			public void time(String name, Duration duration, String... tags) {
+				meters.add(name + " " + String.join(",", tags));
+			}
+
+			@Override
+			public void summarize(String name, double amount, String... tags) {
+				meters.add(name + " " + String.join(",", tags));
+			}
+
+			@Override
+			public void count(String name, String... tags) {
+				meters.add(name + " " + String.join(",", tags));
+			}
+		});
+
+		meterMetrics.callSucceeded("GET_AGREEMENT", Duration.ofMillis(10));
+		meterMetrics.callFailed("GET_AGREEMENT", Duration.ofMillis(10), ErrorCode.AGREEMENT_NOT_FOUND);
+		meterMetrics.responseReceived("GET_AGREEMENT", 404, Duration.ofMillis(8));
+		meterMetrics.tooManyRequests("IDENTIFY_USER", Optional.empty());
+
+		assertThat(meters, contains(
+				"digipost.useragreements.calls operation,GET_AGREEMENT,outcome,SUCCESS",
+				"digipost.useragreements.calls operation,GET_AGREEMENT,outcome,AGREEMENT_NOT_FOUND",
+				"digipost.useragreements.requests operation,GET_AGREEMENT,status,404",
+				"digipost.useragreements.too.many.requests operation,IDENTIFY_USER"));
+		assertThat(meters.stream().filter(meter -> !meter.startsWith(MeterClientMetrics.PREFIX)).collect(toList()), is(empty()));
+	}
+
+
+	private static final class RecordingMetrics implements ClientMetrics {
+
+		final List<String> events = new CopyOnWriteArrayList<>();
+		final List<Long> bytes = new CopyOnWriteArrayList<>();
+		final List<RequestTimings> requestTimings = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void callSucceeded(String operation, Duration latency) {
+			events.add("callSucceeded " + operation);
+		}
+
+		@Override
+		public void callFailed(String operation, Duration latency, ErrorCode errorCode) {
+			events.add("callFailed " + operation + " " + errorCode);
+		}
+
+		@Override
+		public void responseReceived(String operation, int statusCode, Duration latency) {
+			events.add("responseReceived " + operation + " " + statusCode);
+		}
+
+		@Override
+		public void requestCompleted(String operation, RequestTimings timings) {
+			requestTimings.add(timings);
+		}
+
+		@Override
+		public void tooManyRequests(String operation, Optional<Duration> retryAfter) {
+			events.add("tooManyRequests " + operation + retryAfter.map(delay -> " " + delay).orElse(""));
+		}
+
+		@Override
+		public void bytesSent(String operation, long bytes) {
+			events.add("bytesSent " + operation);
+			this.bytes.add(bytes);
+		}
+
+		@Override
+		public void bytesReceived(String operation, long bytes) {
+			events.add("bytesReceived " + operation);
+			this.bytes.add(bytes);
+		}
+
+		@Override
+		public void connectionLeased(Duration leaseTime) {
+			events.add("connectionLeased");
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.util.DateUtils;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.message.StatusLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static no.digipost.api.useragreements.client.util.DateUtils.GMT;
+
+/**
+ * Calls and responses shared by the tests of the interceptors and of the clients against a local server.
+ */
+final class ClientTestSupport {
+
+	private static final URI ANY_URI = URI.create("http://localhost/");
+
+	/**
+	 * @return a call of the operation for sender 1
+	 */
+	static ApiCall call(Operation operation) {
+		return call(operation, SenderId.of(1L));
+	}
+
+	static ApiCall call(Operation operation, SenderId senderId) {
+		return new ApiCall(operation, Optional.of(senderId), ANY_URI);
+	}
+
+	static ApiCall callWithoutSender(Operation operation) {
+		return new ApiCall(operation, Optional.empty(), ANY_URI);
+	}
+
+	/**
+	 * @return a call of the operation for sender 1, with a deadline counted from now
+	 */
+	static ApiCall callWithDeadline(Operation operation, Duration deadline) {
+		return new ApiCall(operation, Optional.of(SenderId.of(1L)), ANY_URI, Optional.of(deadline), System.nanoTime());
+	}
+
+	static UnexpectedResponseException serverError(int status) {
+		return new UnexpectedResponseException(new StatusLine(HttpVersion.HTTP_1_1, status, "Error"), ErrorCode.GENERAL_ERROR, "failed");
+	}
+
+	/**
+	 * Respond to a request received by a {@link com.sun.net.httpserver.HttpServer}, as the API would, with the
+	 * given entity marshalled as XML, or with no content if the entity is {@code null}.
+	 */
+	static void respond(HttpExchange exchange, int status, Object entity) throws IOException {
+		exchange.getRequestBody().readAllBytes();
+		exchange.getResponseHeaders().set("Date", DateUtils.formatDate(ZonedDateTime.now(GMT)));
+		if (entity == null) {
+			exchange.sendResponseHeaders(status, -1);
+		} else {
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			JAXB.marshal(entity, xml);
+			exchange.getResponseHeaders().set("Content-Type", ApiService.DIGIPOST_MEDIA_TYPE_USERS_V2);
+			exchange.sendResponseHeaders(status, xml.size());
+			try (OutputStream body = exchange.getResponseBody()) {
+				xml.writeTo(body);
+			}
+		}
+		exchange.close();
+	}
+
+	private ClientTestSupport() {}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.transport.HttpTransport;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.protocol.HttpProcessorBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.singleJaxbEntityHandler;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.voidOkHandler;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CoalescedReadsTest {
+
+	private static final int CALLERS = 10;
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+	private final BlockingTransport transport = new BlockingTransport();
+	private final ApiService apiService = new ApiService(URI.create("http://localhost"), BrokerId.of(1L), transport, HttpProcessorBuilder.create().build(), true, emptyList());
+
+	@Test
+	public void concurrentIdenticalReadsShareOneRequest() throws Exception {
+		List<Object> results = callConcurrently(() -> apiService.getAgreements(senderId, userId, null, singleJaxbEntityHandler(Agreements.class)));
+
+		assertThat(transport.requests.get(), is(1));
+		assertThat(results, hasSize(CALLERS));
+		assertThat(results, everyItem(sameInstance(results.get(0))));
+		assertThat(results.get(0), instanceOf(Agreements.class));
+	}
+
+	@Test
+	public void failureIsPropagatedToEveryCaller() throws Exception {
+		transport.status = 500;
+		List<Object> results = callConcurrently(() -> apiService.getAgreements(senderId, userId, null, singleJaxbEntityHandler(Agreements.class)));
+
+		assertThat(transport.requests.get(), is(1));
+		assertThat(results, everyItem(instanceOf(UnexpectedResponseException.class)));
+	}
+
+	@Test
+	public void readsAfterCompletedRequestSendNewRequest() {
+		transport.release.countDown();
+		apiService.getAgreements(senderId, userId, null, singleJaxbEntityHandler(Agreements.class));
+		apiService.getAgreements(senderId, userId, null, singleJaxbEntityHandler(Agreements.class));
+
+		assertThat(transport.requests.get(), is(2));
+	}
+
+	@Test
+	public void writesAreNotCoalesced() throws Exception {
+		transport.status = 201;
+		callConcurrently(() -> {
+			apiService.createAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()), null, voidOkHandler());
+			return null;
+		});
+
+		assertThat(transport.requests.get(), is(CALLERS));
+	}
+
+	@Test
+	public void streamedReadsAreNotCoalesced() throws Exception {
+		List<Object> results = callConcurrently(() -> {
+			try (Stream<UserId> owners = apiService.getAgreementOwners(senderId, FETCH_MESSAGES, null).asStream()) {
+				return owners.count();
+			}
+		});
+
+		assertThat(transport.requests.get(), is(CALLERS));
+		assertThat(results, hasSize(CALLERS));
+		assertThat(results, everyItem(is(2L)));
+	}
+
+	/**
+	 * Starts the callers and releases the transport when all of them are waiting,
+	 * either for the transport or for a request in flight.
+	 */
+	private List<Object> callConcurrently(Supplier<?> call) throws InterruptedException {
+		List<Object> results = new CopyOnWriteArrayList<>();
+		List<Thread> callers = IntStream.range(0, CALLERS).mapToObj(i -> new Thread(() -> {
+			try {
+				results.add(call.get());
+			} catch (RuntimeException e) {
+				results.add(e);
+			}
+		})).collect(toList());
+		callers.forEach(Thread::start);
+		while (!callers.stream().allMatch(caller -> caller.getState() == Thread.State.WAITING)) {
+			Thread.sleep(5);
+		}
+		transport.release.countDown();
+		for (Thread caller : callers) {
+			caller.join();
+		}
+		return results;
+	}
+
+	private static final class BlockingTransport implements HttpTransport {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger requests = new AtomicInteger();
+		volatile int status = 200;
+
+		@Override
+		public <T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<? extends T> responseHandler) throws IOException {
+			awaitRelease();
+			try (ClassicHttpResponse response = new BasicClassicHttpResponse(status)) {
+				if (status != 201) {
+					ByteArrayOutputStream xml = new ByteArrayOutputStream();
+					JAXB.marshal(status == 200
+							? new Agreements(singletonList(new Agreement(FETCH_MESSAGES, UserId.of("01017012345"), new HashMap<>())))
+							: new Error(ErrorCode.GENERAL_ERROR, "failed"), xml);
+					response.setEntity(new ByteArrayEntity(xml.toByteArray(), ContentType.APPLICATION_XML));
+				}
+				return responseHandler.handleResponse(response);
+			} catch (org.apache.hc.core5.http.HttpException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public ClassicHttpResponse executeOpen(ClassicHttpRequest request) {
+			awaitRelease();
+			ClassicHttpResponse response = new BasicClassicHttpResponse(200);
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			JAXB.marshal(new AgreementOwners(asList(UserId.of("01017012345"), UserId.of("02017012345")), Duration.ofSeconds(10)), xml);
+			response.setEntity(new ByteArrayEntity(xml.toByteArray(), ContentType.APPLICATION_XML));
+			return response;
+		}
+
+		private void awaitRelease() {
+			requests.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.util.DateUtils;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class DigipostUserAgreementsAsyncClientHttp2Test {
+
+	private static final int REQUESTS = 20;
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final ScheduledExecutorService responseDelay = Executors.newSingleThreadScheduledExecutor();
+	private final Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+	private final List<HttpRequest> receivedRequests = new CopyOnWriteArrayList<>();
+	private final AtomicInteger inProgress = new AtomicInteger();
+	private final AtomicInteger maxInProgress = new AtomicInteger();
+
+	private HttpAsyncServer server;
+	private DigipostUserAgreementsAsyncClient client;
+
+	@Before
+	public void startServerAndClient() throws Exception {
+		server = H2ServerBootstrap.bootstrap()
+				.setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+				.register("*", new CreatingAgreementsHandler())
+				.create();
+		server.start();
+		ListenerEndpoint endpoint = server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP).get();
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		client = new DigipostUserAgreementsAsyncClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate())
+				.serviceEndpoint(URI.create("http://localhost:" + ((InetSocketAddress) endpoint.getAddress()).getPort()))
+				.useHttp2()
+				.build();
+	}
+
+	@After
+	public void stopServerAndClient() {
+		client.close();
+		server.close(CloseMode.IMMEDIATE);
+		responseDelay.shutdownNow();
+	}
+
+	@Test
+	public void multiplexesConcurrentRequestsOverOneConnection() {
+		createAgreementsConcurrently();
+
+		assertThat(connections.size(), is(1));
+		assertThat(maxInProgress.get(), greaterThan(1));
+	}
+
+	@Test
+	public void signsEachRequest() {
+		createAgreementsConcurrently();
+
+		assertThat(receivedRequests.size(), is(REQUESTS));
+		for (HttpRequest request : receivedRequests) {
+			assertThat(request.getFirstHeader("Date"), notNullValue());
+			assertThat(request.getFirstHeader(Headers.X_Content_SHA256), notNullValue());
+			assertThat(request.getFirstHeader(Headers.X_Digipost_Signature), notNullValue());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void http2CanNotBeCombinedWithProxy() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		new DigipostUserAgreementsAsyncClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate())
+				.useProxy(new HttpHost("proxy.example.com", 8080))
+				.useHttp2()
+				.build();
+	}
+
+	private void createAgreementsConcurrently() {
+		IntStream.range(0, REQUESTS)
+				.mapToObj(i -> client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, UserId.of(String.valueOf(i)), new HashMap<>())))
+				.collect(toList())
+				.forEach(CompletableFuture::join);
+	}
+
+	private final class CreatingAgreementsHandler implements AsyncServerRequestHandler<Message<HttpRequest, String>> {
+
+		@Override
+		public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+			return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+		}
+
+		@Override
+		public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context) {
+			receivedRequests.add(message.getHead());
+			connections.add(HttpCoreContext.castOrCreate(context).getEndpointDetails().getRemoteAddress());
+			maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+			responseDelay.schedule(() -> {
+				inProgress.decrementAndGet();
+				responseTrigger.submitResponse(AsyncResponseBuilder.create(201)
+						.setHeader("Date", DateUtils.formatDate(ZonedDateTime.now(DateUtils.GMT)))
+						.build(), context);
+				return null;
+			}, 50, MILLISECONDS);
+		}
+	}
+}
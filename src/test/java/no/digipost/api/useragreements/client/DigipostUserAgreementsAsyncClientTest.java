@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.ClientTestSupport.respond;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DigipostUserAgreementsAsyncClientTest {
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+	private final Map<String, Headers> receivedHeaders = new ConcurrentHashMap<>();
+
+	private HttpServer server;
+	private DigipostUserAgreementsAsyncClient client;
+
+	@Before
+	public void startServerAndClient() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/" + senderId.serialize() + "/user-agreements", exchange -> {
+			receivedHeaders.put(exchange.getRequestMethod(), exchange.getRequestHeaders());
+			if ("GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 200, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+			} else {
+				respond(exchange, 201, null);
+			}
+		});
+		server.createContext("/404", exchange -> respond(exchange, 404, new Error(ErrorCode.DOCUMENT_NOT_FOUND, "no such document")));
+		server.start();
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		client = new DigipostUserAgreementsAsyncClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate())
+				.serviceEndpoint(URI.create("http://localhost:" + server.getAddress().getPort()))
+				.build();
+	}
+
+	@After
+	public void stopServerAndClient() {
+		client.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void getsAgreementWithSignedRequest() throws Exception {
+		GetAgreementResult result = client.getAgreement(senderId, FETCH_MESSAGES, userId).get();
+
+		assertThat(result.getAgreement().getUserId(), is(userId));
+		Headers headers = receivedHeaders.get("GET");
+		assertThat(headers.getFirst(no.digipost.api.useragreements.client.Headers.X_Digipost_Signature), notNullValue());
+		assertThat(headers.getFirst(no.digipost.api.useragreements.client.Headers.X_Digipost_UserId), is("1"));
+		assertThat(headers.getFirst("Date"), notNullValue());
+	}
+
+	@Test
+	public void includesContentHashOfRequestBody() throws Exception {
+		client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>())).get();
+
+		Headers headers = receivedHeaders.get("POST");
+		assertThat(headers.getFirst(no.digipost.api.useragreements.client.Headers.X_Content_SHA256), notNullValue());
+		assertThat(headers.getFirst(no.digipost.api.useragreements.client.Headers.X_Digipost_Signature), notNullValue());
+	}
+
+	@Test
+	public void completesExceptionallyWithUnexpectedResponse() throws Exception {
+		try {
+			client.getDocument(SenderId.of(404L), FETCH_MESSAGES, 1L).get();
+			fail("should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(UnexpectedResponseException.class));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import no.digipost.api.useragreements.client.transport.JavaNetHttpTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.ClientTestSupport.respond;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(Parameterized.class)
+public class DigipostUserAgreementsClientTransportTest {
+
+	@Parameters(name = "{0}")
+	public static List<Object[]> transports() {
+		return asList(
+				new Object[] {"Apache HttpClient", UnaryOperator.<DigipostUserAgreementsClient.Builder>identity()},
+				new Object[] {"java.net.http.HttpClient", (UnaryOperator<DigipostUserAgreementsClient.Builder>) DigipostUserAgreementsClient.Builder::useJavaNetHttpClient});
+	}
+
+	@Parameter(0)
+	public String transportName;
+
+	@Parameter(1)
+	public UnaryOperator<DigipostUserAgreementsClient.Builder> transport;
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+	private final UserId slowUserId = UserId.of("01017099999");
+	private final Map<String, Boolean> validSignatures = new ConcurrentHashMap<>();
+
+	private KeyPair keyPair;
+	private HttpServer server;
+	private DigipostUserAgreementsClient client;
+
+	@Before
+	public void startServerAndClient() throws Exception {
+		assumeTrue("java.net.http.HttpClient is not supported by Java " + Runtime.version().feature(),
+				!transportName.startsWith("java.net") || JavaNetHttpTransport.isSupportedByRuntime());
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		keyPair = keyPairGenerator.generateKeyPair();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/" + senderId.serialize() + "/user-agreements", exchange -> {
+			validSignatures.put(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(), hasValidSignature(exchange));
+			if (exchange.getRequestURI().getPath().endsWith("/agreement-owners")) {
+				respond(exchange, 200, new AgreementOwners(asList(userId, UserId.of("01017054321")), Duration.ofSeconds(10)));
+			} else if ("GET".equals(exchange.getRequestMethod())) {
+				if (exchange.getRequestURI().getQuery().contains(slowUserId.serialize())) {
+					sleep(Duration.ofSeconds(3));
+				}
+				respond(exchange, 200, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+			} else {
+				respond(exchange, 201, null);
+			}
+		});
+		server.createContext("/", exchange -> {
+			sleep(Duration.ofSeconds(3));
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.start();
+
+		client = transport.apply(new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate()))
+				.serviceEndpoint(URI.create("http://localhost:" + server.getAddress().getPort()))
+				.build();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void sendsSignedGetRequest() {
+		GetAgreementResult result = client.getAgreement(senderId, FETCH_MESSAGES, userId);
+
+		assertThat(result.getAgreement().getUserId(), is(userId));
+		assertThat(validSignatures.get("GET /1234/user-agreements"), is(true));
+	}
+
+	@Test
+	public void sendsSignedPostRequestWithContentHash() {
+		client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+
+		assertThat(validSignatures.get("POST /1234/user-agreements"), is(true));
+	}
+
+	@Test
+	public void streamsAgreementOwners() {
+		try (Stream<UserId> owners = client.getAgreementOwners(senderId, FETCH_MESSAGES).asStream()) {
+			assertThat(owners.collect(toList()), contains(userId, UserId.of("01017054321")));
+		}
+		assertThat(validSignatures.get("GET /1234/user-agreements/agreement-owners"), is(true));
+	}
+
+	@Test
+	public void completesCallWithinDeadline() {
+		GetAgreementResult result = client.withDeadline(Duration.ofSeconds(10)).getAgreement(senderId, FETCH_MESSAGES, userId);
+
+		assertThat(result.getAgreement().getUserId(), is(userId));
+	}
+
+	@Test
+	public void failsCallWhenDeadlineIsReached() {
+		long start = System.nanoTime();
+		try {
+			client.withDeadline(Duration.ofMillis(300)).getAgreement(senderId, FETCH_MESSAGES, slowUserId);
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(Duration.ofNanos(System.nanoTime() - start), lessThan(Duration.ofSeconds(2)));
+		}
+	}
+
+	@Test
+	public void fetchesEntryPointWithinDeadlineOfTheCallNeedingIt() {
+		long start = System.nanoTime();
+		try {
+			client.withDeadline(Duration.ofMillis(300)).identifyUser(senderId, userId);
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(Duration.ofNanos(System.nanoTime() - start), lessThan(Duration.ofSeconds(2)));
+		}
+	}
+
+	/**
+	 * Verifies the signature the same way as the Digipost API, i.e. from the request as it was received.
+	 */
+	private boolean hasValidSignature(HttpExchange exchange) {
+		com.sun.net.httpserver.Headers headers = exchange.getRequestHeaders();
+		StringBuilder signed = new StringBuilder()
+				.append(exchange.getRequestMethod()).append("\n")
+				.append(exchange.getRequestURI().getPath().toLowerCase()).append("\n");
+		for (String header : asList("date", "x-content-sha256", "x-digipost-userid")) {
+			if (headers.containsKey(header)) {
+				signed.append(header).append(": ").append(headers.getFirst(header)).append("\n");
+			}
+		}
+		String query = exchange.getRequestURI().getRawQuery();
+		signed.append(query != null ? query.toLowerCase() : "").append("\n");
+		try {
+			Signature signature = Signature.getInstance("SHA256withRSA");
+			signature.initVerify(keyPair.getPublic());
+			signature.update(signed.toString().getBytes(UTF_8));
+			return signature.verify(Base64.getDecoder().decode(headers.getFirst(Headers.X_Digipost_Signature)));
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static void sleep(Duration duration) {
+		try {
+			Thread.sleep(duration.toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
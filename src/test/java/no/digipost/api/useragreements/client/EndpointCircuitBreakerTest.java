@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.EndpointCircuitBreaker.State;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.time.Duration.ofSeconds;
+import static no.digipost.api.useragreements.client.ClientTestSupport.call;
+import static no.digipost.api.useragreements.client.ClientTestSupport.serverError;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class EndpointCircuitBreakerTest {
+
+	private final CircuitBreakerSettings settings = CircuitBreakerSettings.tripOnFailuresOrSlowCalls()
+			.window(10, 4).openFor(ofSeconds(30)).halfOpenProbes(2).slowCallThreshold(ofSeconds(2), 0.5);
+	private final AtomicInteger executions = new AtomicInteger();
+	private long nanoTime;
+	private final EndpointCircuitBreaker breaker = new EndpointCircuitBreaker(settings, () -> nanoTime);
+
+	private final ApiCall getAgreement = call(Operation.GET_AGREEMENT);
+
+	@Test
+	public void opensOnFailureRateAndFailsFast() {
+		failTimes(2, getAgreement, () -> new RuntimeIOException("connection reset"));
+		breaker.intercept(getAgreement, this::respond);
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.CLOSED));
+
+		failTimes(1, getAgreement, () -> serverError(503));
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.OPEN));
+
+		nanoTime += ofSeconds(10).toNanos();
+		try {
+			breaker.intercept(getAgreement, this::respond);
+			fail("should throw " + CircuitBreakerOpenException.class.getSimpleName());
+		} catch (CircuitBreakerOpenException e) {
+			assertThat(e.getEndpoint(), is("/user-agreements"));
+			assertThat(e.getRemainingOpenDuration(), is(ofSeconds(20)));
+		}
+		assertThat(executions.get(), is(4));
+	}
+
+	@Test
+	public void opensOnSlowCallRate() {
+		for (int i = 0; i < 4; i++) {
+			breaker.intercept(getAgreement, i % 2 == 0 ? slowly(ofSeconds(3)) : this::respond);
+		}
+
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.OPEN));
+	}
+
+	@Test
+	public void countsOnlyTheCallsOfTheWindowAfterItHasWrappedAround() {
+		for (int i = 0; i < 6; i++) {
+			breaker.intercept(getAgreement, this::respond);
+		}
+		failTimes(4, getAgreement, () -> serverError(500));
+		for (int i = 0; i < 26; i++) {
+			breaker.intercept(getAgreement, this::respond);
+		}
+		failTimes(4, getAgreement, () -> serverError(500));
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.CLOSED));
+
+		failTimes(1, getAgreement, () -> serverError(500));
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.OPEN));
+	}
+
+	@Test
+	public void clientErrorsAreNotFailures() {
+		failTimes(4, getAgreement, () -> serverError(404));
+
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.CLOSED));
+	}
+
+	@Test
+	public void endpointsHaveSeparateBreakers() {
+		failTimes(4, call(Operation.GET_DOCUMENT), () -> serverError(500));
+
+		assertThat(breaker.getState(Operation.GET_DOCUMENT_CONTENT), is(State.OPEN));
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.CLOSED));
+		breaker.intercept(getAgreement, this::respond);
+	}
+
+	@Test
+	public void halfOpenLetsProbesThroughAndClosesWhenTheySucceed() {
+		failTimes(4, getAgreement, () -> serverError(500));
+		nanoTime += ofSeconds(30).toNanos();
+
+		breaker.intercept(getAgreement, () -> {
+			breaker.intercept(getAgreement, this::respond);
+			try {
+				breaker.intercept(getAgreement, this::respond);
+				fail("should only let " + settings.halfOpenProbes + " probes through");
+			} catch (CircuitBreakerOpenException e) {
+				assertThat(e.getRemainingOpenDuration(), is(Duration.ZERO));
+			}
+			return respond();
+		});
+
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.CLOSED));
+	}
+
+	@Test
+	public void failedProbeOpensTheBreakerAgain() {
+		failTimes(4, getAgreement, () -> serverError(500));
+		nanoTime += ofSeconds(30).toNanos();
+
+		failTimes(1, getAgreement, () -> new RuntimeIOException("connection reset"));
+
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(State.OPEN));
+	}
+
+	private void failTimes(int times, ApiCall call, Supplier<RuntimeException> failure) {
+		for (int i = 0; i < times; i++) {
+			try {
+				breaker.intercept(call, () -> {
+					executions.incrementAndGet();
+					throw failure.get();
+				});
+				fail("should throw");
+			} catch (UserAgreementsApiException expected) {
+			}
+		}
+	}
+
+	private String respond() {
+		executions.incrementAndGet();
+		return "response";
+	}
+
+	private Supplier<String> slowly(Duration latency) {
+		return () -> {
+			nanoTime += latency.toNanos();
+			return respond();
+		};
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class ExecutionModeTest {
+
+	@Test
+	public void platformThreadsAreNamedDaemonThreads() throws Exception {
+		ExecutorService executor = ExecutionMode.PLATFORM_THREADS.newExecutor("test", 2);
+		try {
+			Thread thread = executor.submit(Thread::currentThread).get();
+			assertThat(thread.getName(), startsWith("digipost-test-"));
+			assertThat(thread.isDaemon(), is(true));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void virtualThreadsAreUsedWhenSupportedByTheRuntime() throws Exception {
+		ExecutorService executor = ExecutionMode.VIRTUAL_THREADS.newExecutor("test", 2);
+		try {
+			Thread thread = executor.submit(Thread::currentThread).get();
+			assertThat(thread.getName(), startsWith("digipost-test-"));
+			assertThat(isVirtual(thread), is(Runtime.version().feature() >= 21));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean isVirtual(Thread thread) throws Exception {
+		try {
+			return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class FlightRecorderEventsTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+
+	private StubDigipostServer server;
+	private DigipostUserAgreementsClient client;
+	private Recording recording;
+
+	@Before
+	public void startServerClientAndRecording() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+		server = new StubDigipostServer(keyPair.getPublic());
+		client = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate())
+				.serviceEndpoint(server.getServiceEndpoint())
+				.build();
+		recording = new Recording();
+		for (String event : new String[] {"Request", "SignRequest", "Unmarshal", "StreamingResponse"}) {
+			recording.enable("no.digipost.useragreements." + event).withoutThreshold();
+		}
+		recording.start();
+	}
+
+	@After
+	public void stopServerAndRecording() {
+		recording.close();
+		server.close();
+	}
+
+	@Test
+	public void recordsRequestsWithTheirOperationStatusAndPhases() throws Exception {
+		client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+		client.getAgreements(senderId, userId);
+
+		List<RecordedEvent> requests = recordedEvents("Request");
+		assertThat(requests.stream().map(e -> e.getString("operation") + " " + e.getInt("status")).collect(toList()),
+				contains("CREATE_OR_REPLACE_AGREEMENT 201", "GET_AGREEMENTS 200"));
+		RecordedEvent getAgreements = requests.stream().filter(e -> e.getString("operation").equals("GET_AGREEMENTS")).findFirst().get();
+		assertThat(getAgreements.getLong("sender"), is(1234L));
+		assertThat(getAgreements.getLong("bytesReceived"), greaterThan(0L));
+		assertThat(getAgreements.getDuration("network"), greaterThan(Duration.ZERO));
+		assertThat(getAgreements.getDuration("sign"), greaterThan(Duration.ZERO));
+		RecordedEvent createAgreement = requests.stream().filter(e -> e.getString("operation").equals("CREATE_OR_REPLACE_AGREEMENT")).findFirst().get();
+		assertThat(createAgreement.getLong("bytesSent"), greaterThan(0L));
+	}
+
+	@Test
+	public void recordsSigningWithoutQuery() throws Exception {
+		client.getAgreements(senderId, userId);
+
+		List<RecordedEvent> signings = recordedEvents("SignRequest");
+		assertThat(signings.stream().map(e -> e.getString("method") + " " + e.getString("path")).collect(toList()), hasItem("GET /1234/user-agreements"));
+		assertThat(signings.stream().map(e -> e.getString("path")).collect(toList()), not(hasItem(containsString(userId.serialize()))));
+	}
+
+	@Test
+	public void recordsUnmarshalling() throws Exception {
+		client.getAgreements(senderId, userId);
+
+		List<RecordedEvent> unmarshalled = recordedEvents("Unmarshal");
+		assertThat(unmarshalled.stream().map(e -> e.getString("type") + " " + e.getInt("status")).collect(toList()), contains("Agreements 200"));
+		assertThat(unmarshalled.get(0).getLong("bytes"), greaterThan(0L));
+	}
+
+	@Test
+	public void recordsConsumingStreamedResponse() throws Exception {
+		server.agreementOwners(3, 20);
+
+		client.getAgreementOwners(senderId, FETCH_MESSAGES).forEach(owner -> {});
+
+		List<RecordedEvent> streamed = recordedEvents("StreamingResponse");
+		assertThat(streamed.stream().map(e -> e.getLong("elements")).collect(toList()), contains(60L));
+		assertThat(streamed.get(0).getDuration("delayUntilNextAllowedRequest"), is(Duration.ofSeconds(10)));
+	}
+
+	@Test
+	public void recordsConsumingMappedStreamedResponseOnce() throws Exception {
+		server.agreementOwners(3, 20);
+
+		client.getAgreementOwners(senderId, FETCH_MESSAGES).map(UserId::toString).forEach(owner -> {});
+
+		assertThat(recordedEvents("StreamingResponse").stream().map(e -> e.getLong("elements")).collect(toList()), contains(60L));
+	}
+
+	@Test
+	public void recordsStreamedResponseWhenExhaustedWithoutBeingClosed() throws Exception {
+		server.agreementOwners(3, 20);
+
+		client.getAgreementOwners(senderId, FETCH_MESSAGES).asStream().forEach(owner -> {});
+
+		assertThat(recordedEvents("StreamingResponse").stream().map(e -> e.getLong("elements")).collect(toList()), contains(60L));
+	}
+
+	@Test
+	public void recordsStreamedResponseWhenOnlyCounted() throws Exception {
+		server.agreementOwners(3, 20);
+
+		try (Stream<UserId> owners = client.getAgreementOwners(senderId, FETCH_MESSAGES).asStream()) {
+			assertThat(owners.count(), is(60L));
+		}
+
+		assertThat(recordedEvents("StreamingResponse").stream().map(e -> e.getLong("elements")).collect(toList()), contains(60L));
+	}
+
+	private List<RecordedEvent> recordedEvents(String name) throws Exception {
+		recording.stop();
+		Path file = folder.newFile().toPath();
+		recording.dump(file);
+		return RecordingFile.readAllEvents(file).stream()
+				.filter(event -> event.getEventType().getName().equals("no.digipost.useragreements." + name))
+				.collect(toList());
+	}
+}
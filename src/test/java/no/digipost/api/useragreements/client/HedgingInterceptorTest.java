@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.sun.net.httpserver.HttpServer;
+import no.digipost.api.useragreements.client.transport.ApacheHttpTransport;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.protocol.HttpProcessorBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.ClientTestSupport.call;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class HedgingInterceptorTest {
+
+	private final ApiCall getAgreement = call(Operation.GET_AGREEMENT);
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final AtomicInteger executions = new AtomicInteger();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void callsCompletingWithinTheDelayAreNotHedged() {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofSeconds(10)).maxHedgeRatio(1), executor);
+
+		String result = hedging.intercept(getAgreement, () -> "response " + executions.incrementAndGet());
+
+		assertThat(result, is("response 1"));
+		assertThat(executions.get(), is(1));
+	}
+
+	@Test
+	public void slowCallCompletesWithHedgeAndCancelsTheSlowRequest() throws InterruptedException {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofMillis(10)).maxHedgeRatio(1), executor);
+		CountDownLatch slowRequestCancelled = new CountDownLatch(1);
+
+		String result = hedging.intercept(getAgreement, () -> {
+			if (executions.incrementAndGet() == 1) {
+				try {
+					new CountDownLatch(1).await();
+				} catch (InterruptedException e) {
+					slowRequestCancelled.countDown();
+				}
+				return "slow";
+			}
+			return "hedge";
+		});
+
+		assertThat(result, is("hedge"));
+		assertThat(slowRequestCancelled.await(5, SECONDS), is(true));
+	}
+
+	@Test
+	public void losingRequestIsAbortedAndReleasesItsConnection() throws Exception {
+		CountDownLatch releaseSlowResponse = new CountDownLatch(1);
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		ExecutorService serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/", exchange -> {
+			if (requests.incrementAndGet() == 1) {
+				try {
+					releaseSlowResponse.await(30, SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			exchange.sendResponseHeaders(204, -1);
+			exchange.close();
+		});
+		server.start();
+		PoolingHttpClientConnectionManager connections = PoolingHttpClientConnectionManagerBuilder.create().build();
+		try (CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connections).build()) {
+			HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofMillis(50)).maxHedgeRatio(1), executor);
+			ApiService apiService = new ApiService(URI.create("http://localhost:" + server.getAddress().getPort()), BrokerId.of(1L),
+					new ApacheHttpTransport(httpClient), HttpProcessorBuilder.create().build(), false, singletonList(hedging));
+
+			apiService.getAgreement(SenderId.of(1L), FETCH_MESSAGES, UserId.of("01017012345"), null, response -> null);
+
+			assertThat("requests sent", requests.get(), is(2));
+			long waitUntil = System.nanoTime() + SECONDS.toNanos(5);
+			while (connections.getTotalStats().getLeased() > 0 && System.nanoTime() < waitUntil) {
+				Thread.sleep(10);
+			}
+			assertThat("leased connections while the slow response is still pending", connections.getTotalStats().getLeased(), is(0));
+		} finally {
+			releaseSlowResponse.countDown();
+			server.stop(0);
+			serverThreads.shutdownNow();
+		}
+	}
+
+	@Test
+	public void abortedLosingRequestIsNotRecordedAsFailureByTheCircuitBreaker() throws InterruptedException {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofMillis(10)).maxHedgeRatio(1), executor);
+		EndpointCircuitBreaker breaker = new EndpointCircuitBreaker(CircuitBreakerSettings.tripOnFailuresOrSlowCalls().window(10, 1));
+		CountDownLatch attemptsCompleted = new CountDownLatch(2);
+
+		String result = hedging.intercept(getAgreement, () -> {
+			try {
+				return breaker.intercept(getAgreement, () -> {
+					if (executions.incrementAndGet() == 1) {
+						CountDownLatch aborted = new CountDownLatch(1);
+						AttemptCancellation.onCancel(aborted::countDown);
+						while (aborted.getCount() > 0) {
+							try {
+								aborted.await();
+							} catch (InterruptedException e) {
+							}
+						}
+						// the I/O of the aborted request fails before its thread is interrupted
+						Thread.interrupted();
+						throw new RuntimeIOException("Socket closed");
+					}
+					return "hedge";
+				});
+			} finally {
+				attemptsCompleted.countDown();
+			}
+		});
+
+		assertThat(result, is("hedge"));
+		assertThat(attemptsCompleted.await(5, SECONDS), is(true));
+		assertThat(breaker.getState(Operation.GET_AGREEMENT), is(EndpointCircuitBreaker.State.CLOSED));
+	}
+
+	@Test
+	public void hedgingIsLimitedToTheMaxHedgeRatio() {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofMillis(5)).maxHedgeRatio(0.5), executor);
+
+		IntStream.range(0, 4).forEach(i -> hedging.intercept(getAgreement, slowFirstRequest(ofMillis(100))));
+
+		assertThat("executions of 4 calls, of which 2 are hedged", executions.get(), is(6));
+	}
+
+	@Test
+	public void failureOfTheOnlyRequestIsThrownWithoutHedging() {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(ofSeconds(10)).maxHedgeRatio(1), executor);
+		RuntimeIOException failure = new RuntimeIOException("connection reset");
+
+		try {
+			hedging.intercept(getAgreement, () -> {
+				executions.incrementAndGet();
+				throw failure;
+			});
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(e, is(failure));
+		}
+		assertThat(executions.get(), is(1));
+	}
+
+	@Test
+	public void callsWhichAreNotReadOnlyAreNotHedged() {
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().initialDelay(Duration.ZERO).maxHedgeRatio(1), executor);
+		Thread caller = Thread.currentThread();
+
+		Thread executingThread = hedging.intercept(call(Operation.CREATE_OR_REPLACE_AGREEMENT), Thread::currentThread);
+
+		assertThat(executingThread, is(caller));
+	}
+
+	@Test
+	public void delayIsThePercentileOfRecentLatencies() {
+		AtomicLong nanoTime = new AtomicLong();
+		HedgingInterceptor hedging = new HedgingInterceptor(HedgingSettings.hedgeSlowReads().atPercentile(50), executor,
+				() -> nanoTime.addAndGet(ofMillis(1).toNanos()));
+
+		IntStream.range(0, HedgingInterceptor.MIN_LATENCY_SAMPLES).forEach(i -> hedging.intercept(getAgreement, () -> "response"));
+
+		assertThat(hedging.getHedgeDelay(Operation.GET_AGREEMENT), is(Optional.of(ofMillis(1))));
+		assertThat(hedging.getHedgeDelay(Operation.GET_AGREEMENTS), is(Optional.empty()));
+	}
+
+	private Supplier<String> slowFirstRequest(Duration latency) {
+		AtomicInteger requests = new AtomicInteger();
+		return () -> {
+			executions.incrementAndGet();
+			if (requests.incrementAndGet() == 1) {
+				try {
+					Thread.sleep(latency.toMillis());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "slow";
+			}
+			return "hedge";
+		};
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Optional;
+
+import static java.time.Duration.ofHours;
+import static java.time.Duration.ofMinutes;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdentificationCacheTest {
+
+	@Rule
+	public final MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock
+	private ApiService apiService;
+
+	@Mock
+	private Clock clock;
+
+	private final UserId userId = UserId.of("01017012345");
+	private final IdentificationResult digipostUser = IdentificationResult.digipost();
+	private final IdentificationResult unidentifiedUser = new IdentificationResult();
+
+	private Instant now = Instant.parse("2024-01-01T12:00:00Z");
+	private DigipostUserAgreementsClient client;
+
+	@Before
+	public void createClient() {
+		when(clock.instant()).thenAnswer(invocation -> now);
+		client = new DigipostUserAgreementsClient(apiService, ExecutionMode.PLATFORM_THREADS, Optional.empty(), Optional.of(
+				ResultCacheSettings.expireAfterWrite(ofHours(1)).failuresExpireAfterWrite(ofMinutes(5)).clock(clock)), Optional.empty());
+	}
+
+	@Test
+	public void identificationIsSharedByAllSenders() {
+		when(apiService.identifyUser(any(), eq(userId), isNull(), any())).thenReturn(digipostUser);
+
+		assertThat(client.identifyUser(SenderId.of(1L), userId), sameInstance(digipostUser));
+		assertThat(client.identifyUser(SenderId.of(2L), userId), sameInstance(digipostUser));
+		assertThat(client.identifyUser(SenderId.of(3L), UserId.of("01017012345")), sameInstance(digipostUser));
+
+		verify(apiService, times(1)).identifyUser(any(), eq(userId), isNull(), any());
+		assertThat(client.getIdentificationCacheStats().getHitCount(), is(2L));
+		assertThat(client.getIdentificationCacheStats().getMissCount(), is(1L));
+		assertThat(client.getIdentificationCacheStats().getHitRate(), closeTo(2.0 / 3, 0.001));
+	}
+
+	@Test
+	public void usersNotInDigipostAreCachedForShorterTime() {
+		when(apiService.identifyUser(any(), eq(userId), isNull(), any())).thenReturn(unidentifiedUser, digipostUser);
+
+		assertThat(client.identifyUser(SenderId.of(1L), userId), sameInstance(unidentifiedUser));
+		now = now.plus(ofMinutes(4));
+		assertThat(client.identifyUser(SenderId.of(1L), userId), sameInstance(unidentifiedUser));
+		now = now.plus(ofMinutes(1));
+		assertThat(client.identifyUser(SenderId.of(1L), userId), sameInstance(digipostUser));
+		now = now.plus(ofMinutes(59));
+		assertThat(client.identifyUser(SenderId.of(1L), userId), sameInstance(digipostUser));
+
+		verify(apiService, times(2)).identifyUser(any(), eq(userId), isNull(), any());
+		assertThat(client.getIdentificationCacheStats().getHitCount(), is(2L));
+		assertThat(client.getIdentificationCacheStats().getMissCount(), is(2L));
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+
+/**
+ * Drives a {@link DigipostUserAgreementsClient} against a {@link StubDigipostServer} from a number of threads
+ * for a given duration, and reports the throughput, the median and 99th percentile latency, and the errors
+ * for each operation. Run it from the test classpath, e.g.
+ * <pre>
+ * mvn -Pload-test verify -Dload.threads=32 -Dload.duration=PT1M -Dload.latency=PT0.02S -Dload.serverErrorRate=0.01
+ * </pre>
+ * Add {@code -Dload.executionMode=VIRTUAL_THREADS} to compare the {@link ExecutionMode execution modes} of the bulk operations.
+ * The latency is measured per client call, and so includes any retries, waiting in rate limiters and the like
+ * which the client is configured with. The mean time of each phase of the requests is reported as well,
+ * see {@link RequestTimings}.
+ */
+public final class LoadGenerator {
+
+	interface Call {
+		void perform(DigipostUserAgreementsClient client, UserId userId);
+	}
+
+	/**
+	 * The amount of users identified, all concurrently, by each identifyUsers call, which runs
+	 * its requests on threads given by the {@link ExecutionMode}.
+	 */
+	static final int BULK_SIZE = 20;
+
+	static final Map<String, Call> OPERATIONS;
+	static {
+		SenderId senderId = SenderId.of(1234L);
+		Map<String, Call> operations = new LinkedHashMap<>();
+		operations.put("identifyUser", (client, userId) -> client.identifyUser(senderId, userId));
+		operations.put("createOrReplaceAgreement", (client, userId) -> client.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>())));
+		operations.put("getAgreement", (client, userId) -> client.getAgreement(senderId, FETCH_MESSAGES, userId));
+		operations.put("getAgreements", (client, userId) -> client.getAgreements(senderId, userId));
+		operations.put("deleteAgreement", (client, userId) -> client.deleteAgreement(senderId, FETCH_MESSAGES, userId));
+		operations.put("getDocuments", (client, userId) -> client.getDocuments(senderId, FETCH_MESSAGES, userId, GetDocumentsQuery.empty()));
+		operations.put("getDocumentCount", (client, userId) -> client.getDocumentCount(senderId, FETCH_MESSAGES, userId, GetDocumentsQuery.empty()));
+		operations.put("getAgreementOwners", (client, userId) -> client.getAgreementOwners(senderId, FETCH_MESSAGES).asStream().count());
+		operations.put("identifyUsers", (client, userId) -> client.identifyUsers(senderId, randomUserIds().limit(BULK_SIZE).collect(toList()), BULK_SIZE).count());
+		OPERATIONS = unmodifiableMap(operations);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Integer.getInteger("load.threads", 16);
+		Duration duration = Duration.parse(System.getProperty("load.duration", "PT30S"));
+		Duration latency = Duration.parse(System.getProperty("load.latency", "PT0.005S"));
+		double tooManyRequestsRate = Double.parseDouble(System.getProperty("load.tooManyRequestsRate", "0"));
+		double serverErrorRate = Double.parseDouble(System.getProperty("load.serverErrorRate", "0"));
+		boolean javaNetHttpClient = Boolean.getBoolean("load.javaNetHttpClient");
+		ExecutionMode executionMode = ExecutionMode.valueOf(System.getProperty("load.executionMode", ExecutionMode.PLATFORM_THREADS.name()));
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+		try (StubDigipostServer server = new StubDigipostServer(keyPair.getPublic())) {
+			server.latency(latency, latency.dividedBy(2))
+				.tooManyRequests(tooManyRequestsRate, Duration.ofSeconds(1))
+				.serverErrors(serverErrorRate);
+			PhaseTotals phases = new PhaseTotals();
+			DigipostUserAgreementsClient.Builder builder = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate())
+					.serviceEndpoint(server.getServiceEndpoint())
+					.executionMode(executionMode)
+					.metrics(phases);
+			if (javaNetHttpClient) {
+				builder.useJavaNetHttpClient();
+			}
+			System.out.println("Running " + threads + " threads for " + duration + " against " + server.getServiceEndpoint() +
+					" with latency " + latency + ", 429 rate " + tooManyRequestsRate + ", 5xx rate " + serverErrorRate +
+					", " + executionMode + (executionMode == ExecutionMode.VIRTUAL_THREADS && !ExecutionMode.VirtualThreads.isSupported() ? " (not supported, using platform threads)" : ""));
+			Report report = new LoadGenerator(builder.build(), threads).run(duration);
+			System.out.println(report);
+			System.out.println(phases);
+			System.out.println("Server received " + server.getRequestCount() + " requests, " + server.getInvalidSignatureCount() + " with invalid signature");
+		}
+	}
+
+
+	private final DigipostUserAgreementsClient client;
+	private final int threads;
+
+	LoadGenerator(DigipostUserAgreementsClient client, int threads) {
+		this.client = client;
+		this.threads = threads;
+	}
+
+	/**
+	 * Call random operations until the given duration has passed.
+	 */
+	Report run(Duration duration) throws Exception {
+		long stopAt = System.nanoTime() + duration.toNanos();
+		List<String> operations = new ArrayList<>(OPERATIONS.keySet());
+		return run(() -> System.nanoTime() < stopAt ? operations.get(ThreadLocalRandom.current().nextInt(operations.size())) : null);
+	}
+
+	/**
+	 * Call each operation the given amount of times, so that every operation is sampled regardless of the speed of the machine.
+	 */
+	Report run(int callsPerOperation) throws Exception {
+		Queue<String> calls = new ConcurrentLinkedQueue<>();
+		for (int i = 0; i < callsPerOperation; i++) {
+			calls.addAll(OPERATIONS.keySet());
+		}
+		return run(calls::poll);
+	}
+
+	private static Stream<UserId> randomUserIds() {
+		return ThreadLocalRandom.current().longs(0, 100_000_000_000L).mapToObj(id -> UserId.of(String.format("%011d", id)));
+	}
+
+	/**
+	 * @param nextOperation gives the operation each thread calls next, or {@code null} when the run is complete
+	 */
+	private Report run(Supplier<String> nextOperation) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long startedAt = System.nanoTime();
+			List<Future<Map<String, Samples>>> workers = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(() -> runWhile(nextOperation)));
+			}
+			Map<String, Samples> samples = new LinkedHashMap<>();
+			for (Future<Map<String, Samples>> worker : workers) {
+				worker.get().forEach((operation, workerSamples) -> samples.merge(operation, workerSamples, Samples::merge));
+			}
+			return new Report(samples, Duration.ofNanos(System.nanoTime() - startedAt));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Map<String, Samples> runWhile(Supplier<String> nextOperation) {
+		Map<String, Samples> samples = new LinkedHashMap<>();
+		for (String operation = nextOperation.get(); operation != null; operation = nextOperation.get()) {
+			UserId userId = randomUserIds().findFirst().get();
+			long callStartedAt = System.nanoTime();
+			boolean failed = false;
+			try {
+				OPERATIONS.get(operation).perform(client, userId);
+			} catch (RuntimeException e) {
+				failed = true;
+			}
+			samples.computeIfAbsent(operation, o -> new Samples()).add(System.nanoTime() - callStartedAt, failed);
+		}
+		return samples;
+	}
+
+
+	static final class Samples {
+		private long[] latencies = new long[1024];
+		private int count;
+		private int errors;
+
+		void add(long latencyNanos, boolean failed) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latencyNanos;
+			if (failed) {
+				errors++;
+			}
+		}
+
+		Samples merge(Samples other) {
+			for (int i = 0; i < other.count; i++) {
+				add(other.latencies[i], false);
+			}
+			errors += other.errors;
+			return this;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		int getErrors() {
+			return errors;
+		}
+
+		Duration getPercentile(double percentile) {
+			if (count == 0) {
+				return Duration.ZERO;
+			}
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			return Duration.ofNanos(sorted[(int) Math.ceil(percentile / 100 * count) - 1]);
+		}
+	}
+
+	/**
+	 * Sums the time of each phase of the requests of each operation, to report the mean.
+	 */
+	static final class PhaseTotals implements ClientMetrics {
+		private final Map<String, LongAdder[]> totals = new ConcurrentSkipListMap<>();
+
+		@Override
+		public void requestCompleted(String operation, RequestTimings timings) {
+			LongAdder[] operationTotals = totals.computeIfAbsent(operation, o -> Stream.generate(LongAdder::new).limit(5).toArray(LongAdder[]::new));
+			operationTotals[0].increment();
+			operationTotals[1].add(timings.getMarshal().toNanos());
+			operationTotals[2].add(timings.getSign().toNanos());
+			operationTotals[3].add(timings.getNetwork().toNanos());
+			operationTotals[4].add(timings.getUnmarshal().toNanos());
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder(String.format("%-28s %10s %10s %10s %10s %10s%n", "operation", "requests", "marshal ms", "sign ms", "network ms", "unmarsh ms"));
+			totals.forEach((operation, operationTotals) -> {
+				long requests = operationTotals[0].sum();
+				report.append(String.format("%-28s %10d %10.3f %10.3f %10.3f %10.3f%n", operation, requests,
+						operationTotals[1].sum() / 1e6 / requests, operationTotals[2].sum() / 1e6 / requests,
+						operationTotals[3].sum() / 1e6 / requests, operationTotals[4].sum() / 1e6 / requests));
+			});
+			return report.toString();
+		}
+	}
+
+	static final class Report {
+		private final Map<String, Samples> samples;
+		private final Duration elapsed;
+
+		Report(Map<String, Samples> samples, Duration elapsed) {
+			this.samples = samples;
+			this.elapsed = elapsed;
+		}
+
+		Samples getSamples(String operation) {
+			return samples.getOrDefault(operation, new Samples());
+		}
+
+		double getThroughput() {
+			return samples.values().stream().mapToInt(Samples::getCount).sum() / (elapsed.toNanos() / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder(String.format("%-28s %10s %10s %8s %10s %10s%n", "operation", "calls", "calls/s", "errors", "p50 ms", "p99 ms"));
+			double seconds = elapsed.toNanos() / 1e9;
+			samples.forEach((operation, operationSamples) -> report.append(String.format("%-28s %10d %10.1f %8d %10.2f %10.2f%n",
+					operation, operationSamples.getCount(), operationSamples.getCount() / seconds, operationSamples.getErrors(),
+					operationSamples.getPercentile(50).toNanos() / 1e6, operationSamples.getPercentile(99).toNanos() / 1e6)));
+			return report.append(String.format("%-28s %10s %10.1f%n", "total", "", getThroughput())).toString();
+		}
+	}
+}
@@ -16,16 +16,20 @@
 package no.digipost.api.useragreements.client;
 
 import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.xml.JaxbMarshaller;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URISyntaxException;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static co.unruly.matchers.OptionalMatchers.contains;
 import static java.util.Arrays.asList;
@@ -71,4 +75,20 @@ public class MarshallingTest {
 		assertThat(unmarshalled.getDelayUntilNextAllowedRequest(), contains(delay));
 		assertThat(unmarshalled.getIds(), is(accountNumbers));
 	}
+
+	@Test
+	public void pooledMarshallersCanBeUsedConcurrentlyForDifferentTypes() {
+		JaxbMarshaller marshaller = JaxbMarshaller.getInstance();
+		UserId userId = UserId.of("01017012345");
+		IntStream.range(0, 1000).parallel().forEach(i -> {
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			if (i % 2 == 0) {
+				marshaller.marshal(new Agreement(AgreementType.FETCH_MESSAGES, userId, new HashMap<>()), xml);
+				assertThat(marshaller.unmarshal(new ByteArrayInputStream(xml.toByteArray()), Agreement.class).getUserId(), is(userId));
+			} else {
+				marshaller.marshal(new Error(ErrorCode.AGREEMENT_NOT_FOUND, "not found " + i), xml);
+				assertThat(marshaller.unmarshal(new ByteArrayInputStream(xml.toByteArray()), Error.class).getMessage(), is("not found " + i));
+			}
+		});
+	}
 }
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofMinutes;
+import static java.time.Duration.ofSeconds;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class RefreshAheadCacheTest {
+
+	@Rule
+	public final MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock
+	private Clock clock;
+
+	private final Queue<Runnable> backgroundTasks = new ArrayDeque<>();
+	private final AtomicInteger loads = new AtomicInteger();
+	private Supplier<String> loader = () -> "value-" + loads.incrementAndGet();
+	private Instant now = Instant.parse("2024-01-01T12:00:00Z");
+	private RefreshAheadCache<String> cache;
+
+	@Before
+	public void createCache() {
+		when(clock.instant()).thenAnswer(invocation -> now);
+		cache = new RefreshAheadCache<>("test", () -> loader.get(), ofMinutes(5), ofSeconds(30), backgroundTasks::add, clock);
+	}
+
+	@Test
+	public void loadsOnFirstAccess() {
+		assertThat(cache.get(), is("value-1"));
+		assertThat(cache.get(), is("value-1"));
+		assertThat(loads.get(), is(1));
+		assertThat(backgroundTasks.isEmpty(), is(true));
+	}
+
+	@Test
+	public void servesPreviousValueWhileRefreshing() {
+		cache.get();
+		now = now.plus(ofMinutes(5));
+
+		assertThat(cache.get(), is("value-1"));
+		assertThat(cache.get(), is("value-1"));
+		assertThat(backgroundTasks.size(), is(1));
+
+		runBackgroundTasks();
+		assertThat(cache.get(), is("value-2"));
+	}
+
+	@Test
+	public void servesPreviousValueWhenRefreshFails() {
+		cache.get();
+		loader = () -> {
+			throw new RuntimeException("unavailable");
+		};
+		now = now.plus(ofMinutes(6));
+		cache.get();
+		runBackgroundTasks();
+
+		assertThat(cache.get(), is("value-1"));
+		assertThat(backgroundTasks.isEmpty(), is(true));
+
+		now = now.plus(ofSeconds(30));
+		loader = () -> "recovered";
+		assertThat(cache.get(), is("value-1"));
+		runBackgroundTasks();
+		assertThat(cache.get(), is("recovered"));
+	}
+
+	@Test
+	public void initialLoadFailureIsThrownAndRetried() {
+		loader = () -> {
+			throw new IllegalStateException("unavailable");
+		};
+		try {
+			cache.get();
+			fail("should throw exception");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("unavailable"));
+		}
+
+		loader = () -> "value";
+		assertThat(cache.get(), is("value"));
+	}
+
+	@Test
+	public void preloadsInBackground() {
+		cache.preload();
+		cache.preload();
+		assertThat(backgroundTasks.size(), is(1));
+
+		runBackgroundTasks();
+		assertThat(cache.get(), is("value-1"));
+		assertThat(loads.get(), is(1));
+	}
+
+	@Test
+	public void initialLoadUsesTheGivenLoader() {
+		assertThat(cache.get(() -> "loaded within deadline", Optional.of(ofSeconds(1))), is("loaded within deadline"));
+		assertThat(cache.get(), is("loaded within deadline"));
+		assertThat(loads.get(), is(0));
+	}
+
+	@Test
+	public void waitsForInitialLoadByAnotherCallerOnlyUntilMaxWait() {
+		cache.preload();
+
+		try {
+			cache.get(() -> "not used", Optional.of(ofMillis(50)));
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(loads.get(), is(0));
+		}
+
+		runBackgroundTasks();
+		assertThat(cache.get(), is("value-1"));
+	}
+
+	private void runBackgroundTasks() {
+		for (Runnable task = backgroundTasks.poll(); task != null; task = backgroundTasks.poll()) {
+			task.run();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class RequestPhaseTimerTest {
+
+	@Test
+	public void timesEachPhaseFromTheEndOfThePreviousOne() throws Exception {
+		RequestPhaseTimer timer = new RequestPhaseTimer();
+		Thread.sleep(5);
+		timer.marshalled();
+		Thread.sleep(10);
+		timer.signed();
+		Thread.sleep(20);
+		Duration network = timer.responded();
+		Thread.sleep(5);
+
+		RequestTimings timings = timer.completed();
+
+		assertThat(timings.getMarshal(), greaterThanOrEqualTo(Duration.ofMillis(5)));
+		assertThat(timings.getSign(), greaterThanOrEqualTo(Duration.ofMillis(10)));
+		assertThat(timings.getNetwork(), is(network));
+		assertThat(timings.getNetwork(), greaterThanOrEqualTo(Duration.ofMillis(20)));
+		assertThat(timings.getUnmarshal(), greaterThanOrEqualTo(Duration.ofMillis(5)));
+		assertThat(timer.completed(), sameInstance(timings));
+	}
+
+	@Test
+	public void failedPhaseLastsUntilCompletedAndLaterPhasesAreZero() throws Exception {
+		RequestPhaseTimer timer = new RequestPhaseTimer();
+		timer.marshalled();
+		timer.signed();
+		Thread.sleep(10);
+
+		RequestTimings timings = timer.completed();
+
+		assertThat(timings.getNetwork(), greaterThanOrEqualTo(Duration.ofMillis(10)));
+		assertThat(timings.getUnmarshal(), is(Duration.ZERO));
+	}
+}
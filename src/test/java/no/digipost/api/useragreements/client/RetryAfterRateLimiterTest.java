@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static no.digipost.api.useragreements.client.ClientTestSupport.call;
+import static no.digipost.api.useragreements.client.ClientTestSupport.callWithDeadline;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class RetryAfterRateLimiterTest {
+
+	@Rule
+	public final MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock
+	private Clock clock;
+
+	private final ApiCall getAgreement = call(Operation.GET_AGREEMENT, SenderId.of(1L));
+	private final List<Duration> waits = new ArrayList<>();
+	private final AtomicInteger executions = new AtomicInteger();
+	private Instant now = Instant.parse("2024-01-01T12:00:00Z");
+
+	@Before
+	public void useFakeTime() {
+		when(clock.instant()).thenAnswer(invocation -> now);
+	}
+
+	@Test
+	public void waitsForRetryAfterOfTooManyRequests() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter());
+		tooManyRequests(limiter, getAgreement, ofSeconds(10));
+
+		now = now.plus(ofSeconds(4));
+		limiter.intercept(getAgreement, this::execute);
+
+		assertThat(waits, contains(ofSeconds(6)));
+		assertThat(executions.get(), is(2));
+	}
+
+	@Test
+	public void failsWithoutWaitingWhenWaitExceedsTheDeadlineOfTheCall() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter());
+		tooManyRequests(limiter, getAgreement, ofSeconds(10));
+
+		ApiCall withDeadline = callWithDeadline(Operation.GET_AGREEMENT, ofMillis(300));
+		try {
+			limiter.intercept(withDeadline, this::execute);
+			fail("should throw " + TooManyRequestsException.class.getSimpleName());
+		} catch (TooManyRequestsException e) {
+			assertThat(e.getDelayUntilNextAllowedRequest(), is(Optional.of(ofSeconds(10))));
+		}
+		assertThat(executions.get(), is(1));
+		assertThat(waits, empty());
+	}
+
+	@Test
+	public void failsWithoutSendingRequestWhenWaitIsTooLong() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter().maxWait(ofSeconds(5)));
+		tooManyRequests(limiter, getAgreement, ofSeconds(10));
+
+		try {
+			limiter.intercept(getAgreement, this::execute);
+			fail("should throw " + TooManyRequestsException.class.getSimpleName());
+		} catch (TooManyRequestsException e) {
+			assertThat(e.getDelayUntilNextAllowedRequest(), is(Optional.of(ofSeconds(10))));
+		}
+		assertThat(executions.get(), is(1));
+		assertThat(waits, empty());
+	}
+
+	@Test
+	public void resourcesAndSendersAreLimitedSeparately() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter());
+		tooManyRequests(limiter, getAgreement, ofSeconds(10));
+
+		limiter.intercept(call(Operation.GET_AGREEMENT, SenderId.of(2L)), this::executeWithoutTimePassing);
+		limiter.intercept(call(Operation.GET_DOCUMENTS, SenderId.of(1L)), this::executeWithoutTimePassing);
+		limiter.intercept(call(Operation.GET_AGREEMENTS, SenderId.of(1L)), this::executeWithoutTimePassing);
+
+		assertThat(waits, contains(ofSeconds(10)));
+	}
+
+	@Test
+	public void limitsRateAfterBurst() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter().limitTo(10, 2));
+
+		for (int i = 0; i < 4; i++) {
+			limiter.intercept(getAgreement, this::executeWithoutTimePassing);
+		}
+
+		assertThat(waits, contains(ofMillis(100), ofMillis(100)));
+	}
+
+	@Test
+	public void spreadsOutWaitingRequestsAfterTooManyRequests() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter().limitTo(10, 5));
+		tooManyRequests(limiter, getAgreement, ofSeconds(1));
+
+		for (int i = 0; i < 3; i++) {
+			limiter.intercept(getAgreement, this::executeWithoutTimePassing);
+		}
+
+		assertThat(waits, contains(ofSeconds(1), ofMillis(100), ofMillis(100)));
+	}
+
+	@Test
+	public void learnsDelayFromConsumedStreamingResponse() {
+		RetryAfterRateLimiter limiter = limiter(RateLimiterSettings.honorRetryAfter());
+		ApiCall getAgreementOwners = call(Operation.GET_AGREEMENT_OWNERS, SenderId.of(1L));
+
+		StreamingRateLimitedResponse<UserId> owners = limiter.intercept(getAgreementOwners,
+				() -> new StreamingRateLimitedResponse<>(Stream.of(UserId.of("01017012345")), () -> ofSeconds(30)));
+		owners.asStream().close();
+		limiter.intercept(getAgreementOwners, this::execute);
+
+		assertThat(waits, contains(ofSeconds(30)));
+	}
+
+	private void tooManyRequests(RetryAfterRateLimiter limiter, ApiCall call, Duration retryAfter) {
+		try {
+			limiter.intercept(call, () -> {
+				executions.incrementAndGet();
+				throw new TooManyRequestsException(retryAfter);
+			});
+			fail("should throw " + TooManyRequestsException.class.getSimpleName());
+		} catch (TooManyRequestsException expected) {
+		}
+	}
+
+	private RetryAfterRateLimiter limiter(RateLimiterSettings settings) {
+		return new RetryAfterRateLimiter(settings, clock, duration -> {
+			waits.add(duration);
+			now = now.plus(duration);
+		});
+	}
+
+	private Object execute() {
+		executions.incrementAndGet();
+		now = now.plus(ofMillis(50));
+		return null;
+	}
+
+	private Object executeWithoutTimePassing() {
+		executions.incrementAndGet();
+		return null;
+	}
+}
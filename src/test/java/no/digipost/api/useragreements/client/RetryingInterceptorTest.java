@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
+import no.digipost.api.useragreements.client.filters.request.RequestDateInterceptor;
+import no.digipost.api.useragreements.client.filters.request.RequestSignatureInterceptor;
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import no.digipost.api.useragreements.client.transport.HttpTransport;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.protocol.HttpProcessorBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.singletonList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.ClientTestSupport.call;
+import static no.digipost.api.useragreements.client.ClientTestSupport.callWithoutSender;
+import static no.digipost.api.useragreements.client.ClientTestSupport.serverError;
+import static no.digipost.api.useragreements.client.DigipostUserAgreementsClient.voidOkHandler;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RetryingInterceptorTest {
+
+	private final ApiCall getAgreement = call(Operation.GET_AGREEMENT);
+	private final ApiCall identifyUser = callWithoutSender(Operation.IDENTIFY_USER);
+	private final List<Duration> waits = new ArrayList<>();
+	private long nanoTime;
+
+	@Test
+	public void retriesServerErrorsWithExponentialBackoff() {
+		RetryingInterceptor retrying = retrying(RetrySettings.retryWithBackoff().maxAttempts(4));
+
+		String result = retrying.intercept(getAgreement, failing(3, () -> serverError(503)));
+
+		assertThat(result, is("ok"));
+		assertThat(waits, contains(ofMillis(100), ofMillis(200), ofMillis(400)));
+		assertThat(retrying.stats().getRetryCount(), is(3L));
+		assertThat(retrying.stats().getSucceededAfterRetryCount(), is(1L));
+	}
+
+	@Test
+	public void waitsAtLeastRetryAfterOfTooManyRequests() {
+		RetryingInterceptor retrying = retrying(RetrySettings.retryWithBackoff());
+
+		retrying.intercept(getAgreement, failing(1, () -> new TooManyRequestsException(ofSeconds(2))));
+
+		assertThat(waits, contains(ofSeconds(2)));
+	}
+
+	@Test
+	public void givesUpAfterMaxAttempts() {
+		RetryingInterceptor retrying = retrying(RetrySettings.retryWithBackoff().maxAttempts(2));
+		RuntimeIOException failure = new RuntimeIOException("connection reset");
+
+		try {
+			retrying.intercept(getAgreement, failing(2, () -> failure));
+			fail("should throw " + RuntimeIOException.class.getSimpleName());
+		} catch (RuntimeIOException e) {
+			assertThat(e, sameInstance(failure));
+		}
+		assertThat(waits, contains(ofMillis(100)));
+		assertThat(retrying.stats().getExhaustedCount(), is(1L));
+	}
+
+	@Test
+	public void doesNotRetryBeyondTheDeadline() {
+		RetryingInterceptor retrying = retrying(RetrySettings.retryWithBackoff().deadline(ofSeconds(5)));
+
+		try {
+			retrying.intercept(getAgreement, failing(1, () -> new TooManyRequestsException(ofSeconds(10))));
+			fail("should throw " + TooManyRequestsException.class.getSimpleName());
+		} catch (TooManyRequestsException e) {
+			assertThat(waits, empty());
+		}
+		assertThat(retrying.stats().getExhaustedCount(), is(1L));
+	}
+
+	@Test
+	public void doesNotRetryClientErrorsOrOperationsWhichAreNotIdempotent() {
+		RetryingInterceptor retrying = retrying(RetrySettings.retryWithBackoff());
+
+		for (ApiCall call : new ApiCall[] {getAgreement, identifyUser}) {
+			try {
+				retrying.intercept(call, failing(1, () -> call == getAgreement ? serverError(404) : serverError(503)));
+				fail("should throw " + UnexpectedResponseException.class.getSimpleName());
+			} catch (UnexpectedResponseException e) {
+				assertThat(waits, empty());
+			}
+		}
+		assertThat(retrying.stats().getCallCount(), is(1L));
+		assertThat(retrying.stats().getRetryCount(), is(0L));
+	}
+
+	@Test
+	public void eachAttemptIsANewlyDatedAndSignedRequest() {
+		List<ClassicHttpRequest> requests = new CopyOnWriteArrayList<>();
+		HttpTransport transport = new FailingOnceTransport(requests);
+		ApiService apiService = new ApiService(URI.create("http://localhost"), BrokerId.of(1L), transport,
+				HttpProcessorBuilder.create()
+					.add(new RequestDateInterceptor())
+					.add(new RequestSignatureInterceptor(String::getBytes, new RequestContentSHA256Filter()))
+					.build(),
+				false, singletonList(retrying(RetrySettings.retryWithBackoff())));
+
+		apiService.createAgreement(SenderId.of(1L), new Agreement(FETCH_MESSAGES, UserId.of("01017012345"), new HashMap<>()), null, voidOkHandler());
+
+		assertThat(requests.size(), is(2));
+		assertThat(requests.get(1), not(sameInstance(requests.get(0))));
+		for (ClassicHttpRequest request : requests) {
+			assertThat(request.getFirstHeader("Date"), notNullValue());
+			assertThat(request.getFirstHeader(Headers.X_Digipost_Signature), notNullValue());
+		}
+	}
+
+	private RetryingInterceptor retrying(RetrySettings settings) {
+		return new RetryingInterceptor(settings, () -> nanoTime, () -> 1.0, wait -> {
+			waits.add(wait);
+			nanoTime += wait.toNanos();
+		});
+	}
+
+	private static Supplier<String> failing(int times, Supplier<RuntimeException> failure) {
+		int[] attempts = {0};
+		return () -> {
+			if (attempts[0]++ < times) {
+				throw failure.get();
+			}
+			return "ok";
+		};
+	}
+
+	private static final class FailingOnceTransport implements HttpTransport {
+
+		private final List<ClassicHttpRequest> requests;
+
+		FailingOnceTransport(List<ClassicHttpRequest> requests) {
+			this.requests = requests;
+		}
+
+		@Override
+		public <T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<? extends T> responseHandler) throws IOException {
+			requests.add(request);
+			int status = requests.size() == 1 ? 503 : 201;
+			try (ClassicHttpResponse response = new BasicClassicHttpResponse(status)) {
+				if (status != 201) {
+					ByteArrayOutputStream xml = new ByteArrayOutputStream();
+					JAXB.marshal(new Error(ErrorCode.GENERAL_ERROR, "unavailable"), xml);
+					response.setEntity(new ByteArrayEntity(xml.toByteArray(), ContentType.APPLICATION_XML));
+				}
+				return responseHandler.handleResponse(response);
+			} catch (org.apache.hc.core5.http.HttpException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public ClassicHttpResponse executeOpen(ClassicHttpRequest request) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import no.digipost.api.useragreements.client.util.DateUtils;
+import no.digipost.api.useragreements.client.xml.JaxbMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static no.digipost.api.useragreements.client.util.DateUtils.GMT;
+
+/**
+ * An embedded stand-in for the Digipost API, serving the identification, user agreements, agreement owners and
+ * user documents resources with the {@value ApiService#DIGIPOST_MEDIA_TYPE_USERS_V2} media type. Requests are rejected
+ * with {@code 403 Forbidden} unless they are signed with the private key of the given public key, the same way as
+ * the API verifies them.
+ * <p>
+ * The server may inject latency, {@code 429 Too Many Requests} with a {@code Retry-After}, and {@code 5xx} server
+ * errors into a given share of the responses, to exercise the client under adverse conditions. Used by the tests
+ * and by the {@link LoadGenerator}.
+ */
+final class StubDigipostServer implements AutoCloseable {
+
+	static {
+		// Without TCP_NODELAY, the response body written after the headers is held back until the client
+		// acknowledges the headers, which adds the delayed ACK timeout of the client to each response.
+		// The setting is read once, when the first HttpServer is created in the JVM.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private static final JaxbMarshaller JAXB_MARSHALLER = JaxbMarshaller.getInstance();
+	private static final Pattern SENDER_RESOURCE = Pattern.compile("/(\\d+)/(user-agreements|user-documents)(/.*)?");
+
+	private final PublicKey publicKey;
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "stub-digipost-server");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile Duration latency = Duration.ZERO;
+	private volatile Duration latencyJitter = Duration.ZERO;
+	private volatile double tooManyRequestsRate;
+	private volatile Duration retryAfter = Duration.ofSeconds(1);
+	private volatile double serverErrorRate;
+	private volatile int agreementOwnerDocuments = 3;
+	private volatile int agreementOwnersPerDocument = 100;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong invalidSignatures = new AtomicLong();
+
+	StubDigipostServer(PublicKey publicKey) throws IOException {
+		this.publicKey = publicKey;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	URI getServiceEndpoint() {
+		return URI.create("http://localhost:" + server.getAddress().getPort());
+	}
+
+	/**
+	 * Delay each response by the given latency, plus a random duration up to the given jitter.
+	 */
+	StubDigipostServer latency(Duration latency, Duration jitter) {
+		this.latency = latency;
+		this.latencyJitter = jitter;
+		return this;
+	}
+
+	/**
+	 * Respond to the given share of the requests with {@code 429 Too Many Requests} and the given {@code Retry-After}.
+	 */
+	StubDigipostServer tooManyRequests(double rate, Duration retryAfter) {
+		this.tooManyRequestsRate = rate;
+		this.retryAfter = retryAfter;
+		return this;
+	}
+
+	/**
+	 * Respond to the given share of the requests with {@code 503 Service Unavailable}.
+	 */
+	StubDigipostServer serverErrors(double rate) {
+		this.serverErrorRate = rate;
+		return this;
+	}
+
+	/**
+	 * Respond to agreement owner requests with the given amount of concatenated documents, each with the given
+	 * amount of user ids. The last document has the delay until the next allowed request.
+	 */
+	StubDigipostServer agreementOwners(int documents, int ownersPerDocument) {
+		this.agreementOwnerDocuments = documents;
+		this.agreementOwnersPerDocument = ownersPerDocument;
+		return this;
+	}
+
+	long getRequestCount() {
+		return requests.get();
+	}
+
+	long getInvalidSignatureCount() {
+		return invalidSignatures.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			byte[] body = exchange.getRequestBody().readAllBytes();
+			delay();
+			if (!hasValidSignature(exchange, body)) {
+				invalidSignatures.incrementAndGet();
+				respond(exchange, 403, new Error(ErrorCode.INVALID_SIGNATURE, "Invalid signature"));
+				return;
+			}
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (random.nextDouble() < tooManyRequestsRate) {
+				exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter.getSeconds()));
+				respond(exchange, 429, null);
+			} else if (random.nextDouble() < serverErrorRate) {
+				respond(exchange, 503, new Error(ErrorCode.GENERAL_ERROR, "Service unavailable"));
+			} else {
+				route(exchange, body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange, byte[] body) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		String query = exchange.getRequestURI().getRawQuery() != null ? exchange.getRequestURI().getRawQuery() : "";
+		if ("/".equals(path) && "GET".equals(method)) {
+			respond(exchange, 200, entryPoint());
+			return;
+		} else if ("/identification".equals(path) && "POST".equals(method)) {
+			JAXB_MARSHALLER.unmarshal(new ByteArrayInputStream(body), Identification.class);
+			respond(exchange, 200, IdentificationResult.digipost());
+			return;
+		}
+		Matcher senderResource = SENDER_RESOURCE.matcher(path);
+		if (!senderResource.matches()) {
+			respond(exchange, 404, new Error(ErrorCode.GENERAL_ERROR, "No resource " + path));
+			return;
+		}
+		String subResource = senderResource.group(3) != null ? senderResource.group(3) : "";
+		UserId userId = UserId.of("01017012345");
+		Agreement agreement = new Agreement(FETCH_MESSAGES, userId, new HashMap<>());
+		if ("user-agreements".equals(senderResource.group(2))) {
+			if ("/agreement-owners".equals(subResource)) {
+				respondWithAgreementOwners(exchange);
+			} else if ("POST".equals(method)) {
+				JAXB_MARSHALLER.unmarshal(new ByteArrayInputStream(body), Agreement.class);
+				respond(exchange, 201, null);
+			} else if ("DELETE".equals(method)) {
+				respond(exchange, 200, null);
+			} else if (query.contains(AgreementType.QUERY_PARAM_NAME + "=")) {
+				respond(exchange, 200, agreement);
+			} else {
+				respond(exchange, 200, new Agreements(asList(agreement)));
+			}
+		} else if (subResource.isEmpty()) {
+			respond(exchange, 200, new Documents(asList(new Document(1L), new Document(2L))));
+		} else if ("/count".equals(subResource)) {
+			respond(exchange, 200, new DocumentCount(2));
+		} else if (subResource.endsWith("/content")) {
+			respond(exchange, 200, new DocumentContent("application/pdf", URI.create("https://www.digipost.no/documents/1")));
+		} else {
+			respond(exchange, 200, new Document(Long.parseLong(subResource.substring(1))));
+		}
+	}
+
+	private Object entryPoint() {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+				"<entrypoint xmlns=\"http://api.digipost.no/user/schema/v2\">" +
+				"<link rel=\"identify_recipient\" uri=\"" + getServiceEndpoint() + "/identification\"/>" +
+				"</entrypoint>";
+		return JAXB_MARSHALLER.unmarshal(new ByteArrayInputStream(xml.getBytes(UTF_8)), EntryPoint.class);
+	}
+
+	private void respondWithAgreementOwners(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		int documents = agreementOwnerDocuments;
+		int ownersPerDocument = agreementOwnersPerDocument;
+		for (int document = 0; document < documents; document++) {
+			int first = document * ownersPerDocument;
+			List<UserId> owners = IntStream.range(first, first + ownersPerDocument)
+					.mapToObj(i -> UserId.of(String.format("%011d", i)))
+					.collect(toList());
+			JAXB_MARSHALLER.marshal(new AgreementOwners(owners, document == documents - 1 ? Duration.ofSeconds(10) : null), xml);
+		}
+		writeResponse(exchange, 200, xml);
+	}
+
+	private void delay() {
+		long jitterMillis = latencyJitter.toMillis();
+		long delayMillis = latency.toMillis() + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+		if (delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Verifies the signature the same way as the Digipost API, i.e. from the request as it was received,
+	 * including that the signed hash is the hash of the body which was received.
+	 */
+	private boolean hasValidSignature(HttpExchange exchange, byte[] body) {
+		com.sun.net.httpserver.Headers headers = exchange.getRequestHeaders();
+		if (!headers.containsKey(Headers.X_Digipost_Signature)) {
+			return false;
+		}
+		if (body.length > 0 && !sha256Of(body).equals(headers.getFirst(Headers.X_Content_SHA256))) {
+			return false;
+		}
+		StringBuilder signed = new StringBuilder()
+				.append(exchange.getRequestMethod()).append("\n")
+				.append(exchange.getRequestURI().getPath().toLowerCase()).append("\n");
+		for (String header : asList("date", "x-content-sha256", "x-digipost-userid")) {
+			if (headers.containsKey(header)) {
+				signed.append(header).append(": ").append(headers.getFirst(header)).append("\n");
+			}
+		}
+		String query = exchange.getRequestURI().getRawQuery();
+		signed.append(query != null ? query.toLowerCase() : "").append("\n");
+		try {
+			Signature signature = Signature.getInstance("SHA256withRSA");
+			signature.initVerify(publicKey);
+			signature.update(signed.toString().getBytes(UTF_8));
+			return signature.verify(Base64.getDecoder().decode(headers.getFirst(Headers.X_Digipost_Signature)));
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static String sha256Of(byte[] body) {
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, Object entity) throws IOException {
+		if (entity == null) {
+			exchange.getResponseHeaders().set("Date", DateUtils.formatDate(ZonedDateTime.now(GMT)));
+			exchange.sendResponseHeaders(status, -1);
+		} else {
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			JAXB_MARSHALLER.marshal(entity, xml);
+			writeResponse(exchange, status, xml);
+		}
+	}
+
+	private static void writeResponse(HttpExchange exchange, int status, ByteArrayOutputStream xml) throws IOException {
+		exchange.getResponseHeaders().set("Date", DateUtils.formatDate(ZonedDateTime.now(GMT)));
+		exchange.getResponseHeaders().set("Content-Type", ApiService.DIGIPOST_MEDIA_TYPE_USERS_V2);
+		exchange.sendResponseHeaders(status, xml.size());
+		try (OutputStream body = exchange.getResponseBody()) {
+			xml.writeTo(body);
+		}
+	}
+}
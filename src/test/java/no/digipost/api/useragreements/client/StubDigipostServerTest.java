@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client;
+
+import no.digipost.api.useragreements.client.filters.DigipostHttpProcessor;
+import no.digipost.api.useragreements.client.filters.request.RequestContentHashFilter;
+import no.digipost.api.useragreements.client.filters.request.RequestContentSHA256Filter;
+import no.digipost.api.useragreements.client.response.StreamingRateLimitedResponse;
+import no.digipost.api.useragreements.client.response.TooManyRequestsException;
+import no.digipost.api.useragreements.client.security.PrivateKeySigner;
+import no.digipost.api.useragreements.client.transport.ApacheHttpTransport;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static no.digipost.api.useragreements.client.AgreementType.FETCH_MESSAGES;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StubDigipostServerTest {
+
+	private final SenderId senderId = SenderId.of(1234L);
+	private final UserId userId = UserId.of("01017012345");
+
+	private KeyPair keyPair;
+	private StubDigipostServer server;
+	private DigipostUserAgreementsClient client;
+
+	@Before
+	public void startServerAndClient() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		keyPair = keyPairGenerator.generateKeyPair();
+		server = new StubDigipostServer(keyPair.getPublic());
+		client = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPair.getPrivate())
+				.serviceEndpoint(server.getServiceEndpoint())
+				.build();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void servesEachOperationOfTheClient() {
+		for (LoadGenerator.Call call : LoadGenerator.OPERATIONS.values()) {
+			call.perform(client, userId);
+		}
+
+		assertThat(server.getRequestCount(), greaterThan((long) LoadGenerator.OPERATIONS.size()));
+		assertThat(server.getInvalidSignatureCount(), is(0L));
+	}
+
+	@Test
+	public void streamsAgreementOwnersFromSeveralDocuments() {
+		server.agreementOwners(3, 50);
+
+		StreamingRateLimitedResponse<UserId> owners = client.getAgreementOwners(senderId, FETCH_MESSAGES);
+
+		assertThat(owners.asStream().count(), is(150L));
+		assertThat(owners.getDelayUntilNextAllowedRequest(), is(Duration.ofSeconds(10)));
+	}
+
+	@Test
+	public void rejectsRequestsSignedWithAnotherKey() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		DigipostUserAgreementsClient otherClient = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate())
+				.serviceEndpoint(server.getServiceEndpoint())
+				.build();
+		try {
+			otherClient.createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+			fail("Should be rejected");
+		} catch (UnexpectedResponseException e) {
+			assertThat(e.getErrorCode(), is(ErrorCode.INVALID_SIGNATURE));
+		}
+		assertThat(server.getInvalidSignatureCount(), is(1L));
+	}
+
+	@Test
+	public void rejectsRequestsWhereTheSignedHashIsNotTheHashOfTheBody() {
+		RequestContentHashFilter hashOfOtherContent = new RequestContentSHA256Filter() {
+			@Override
+			public void settContentHashHeader(HttpEntity entity, HttpRequest httpRequest) {
+				settContentHashHeader("other content".getBytes(UTF_8), httpRequest);
+			}
+		};
+		ApiService apiService = new ApiService(server.getServiceEndpoint(), BrokerId.of(1L),
+				new ApacheHttpTransport(HttpClients.createDefault()), DigipostHttpProcessor.create(new PrivateKeySigner(keyPair.getPrivate()), hashOfOtherContent));
+		try {
+			new DigipostUserAgreementsClient(apiService).createOrReplaceAgreement(senderId, new Agreement(FETCH_MESSAGES, userId, new HashMap<>()));
+			fail("Should be rejected");
+		} catch (UnexpectedResponseException e) {
+			assertThat(e.getErrorCode(), is(ErrorCode.INVALID_SIGNATURE));
+		}
+		assertThat(server.getInvalidSignatureCount(), is(1L));
+	}
+
+	@Test
+	public void injectsTooManyRequests() {
+		server.tooManyRequests(1, Duration.ofSeconds(1));
+		try {
+			client.getAgreements(senderId, userId);
+			fail("Should be rejected");
+		} catch (TooManyRequestsException e) {
+			assertThat(e.getDelayUntilNextAllowedRequest().get(), is(Duration.ofSeconds(1)));
+		}
+	}
+
+	@Test
+	public void reportsLatencyPercentilesPerOperation() throws Exception {
+		server.latency(Duration.ofMillis(2), Duration.ofMillis(2));
+
+		LoadGenerator.Report report = new LoadGenerator(client, 4).run(10);
+
+		for (String operation : LoadGenerator.OPERATIONS.keySet()) {
+			LoadGenerator.Samples samples = report.getSamples(operation);
+			assertThat(operation, samples.getCount(), is(10));
+			assertThat(operation, samples.getErrors(), is(0));
+			assertThat(operation, samples.getPercentile(50), lessThanOrEqualTo(samples.getPercentile(99)));
+			assertThat(operation, samples.getPercentile(50), greaterThan(Duration.ofMillis(1)));
+		}
+		assertThat(report.getThroughput(), greaterThan(0.0));
+	}
+}
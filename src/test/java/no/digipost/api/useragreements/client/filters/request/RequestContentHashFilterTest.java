@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.filters.request;
+
+import no.digipost.api.useragreements.client.Headers;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RequestContentHashFilterTest {
+
+	private static final byte[] CONTENT = "<identification><user-id>01017012345</user-id></identification>".getBytes(UTF_8);
+
+	private final RequestContentHashFilter hashFilter = new RequestContentSHA256Filter();
+
+	@Test
+	public void hashesContentAsItIsWritten() throws IOException {
+		ContentHashedEntity entity = hashFilter.createEntity(out -> {
+			try {
+				out.write(CONTENT, 0, 10);
+				out.write(CONTENT[10]);
+				out.write(CONTENT, 11, CONTENT.length - 11);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, ContentType.APPLICATION_XML);
+
+		assertThat(EntityUtils.toByteArray(entity), is(CONTENT));
+		assertThat(entity.getContentLength(), is((long) CONTENT.length));
+		assertThat(entity.getHashHeader(), is(Headers.X_Content_SHA256));
+		assertThat(entity.getHash(), is(hashOfContent()));
+	}
+
+	@Test
+	public void usesHashCarriedByEntityWithoutReadingContent() throws IOException {
+		ContentHashedEntity entity = new ContentHashedEntity(CONTENT, CONTENT.length, ContentType.APPLICATION_XML, Headers.X_Content_SHA256, "precomputed");
+		HttpPost request = new HttpPost("/");
+		hashFilter.settContentHashHeader(entity, request);
+
+		assertThat(request.getFirstHeader(Headers.X_Content_SHA256).getValue(), is("precomputed"));
+	}
+
+	@Test
+	public void hashesContentOfOtherEntities() throws IOException {
+		HttpPost request = new HttpPost("/");
+		hashFilter.settContentHashHeader(new ByteArrayEntity(CONTENT, ContentType.APPLICATION_XML), request);
+
+		assertThat(request.getFirstHeader(Headers.X_Content_SHA256).getValue(), is(hashOfContent()));
+	}
+
+	private String hashOfContent() {
+		HttpPost request = new HttpPost("/");
+		hashFilter.settContentHashHeader(CONTENT, request);
+		return request.getFirstHeader(Headers.X_Content_SHA256).getValue();
+	}
+}
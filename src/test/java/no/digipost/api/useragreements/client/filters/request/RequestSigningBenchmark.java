@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.filters.request;
+
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.Agreement;
+import no.digipost.api.useragreements.client.AgreementType;
+import no.digipost.api.useragreements.client.Headers;
+import no.digipost.api.useragreements.client.UserId;
+import no.digipost.api.useragreements.client.security.CryptoUtil;
+import no.digipost.api.useragreements.client.security.PrivateKeySigner;
+import no.digipost.api.useragreements.client.util.DateUtils;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures the work done for each request before it is sent: hashing the content, creating the canonical
+ * representation of the request, and signing it.
+ * <p>
+ * Run with {@code mvn -Pjmh verify -Djmh.include=RequestSigningBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = SECONDS)
+@Fork(1)
+public class RequestSigningBenchmark {
+
+	private final RequestContentSHA256Filter contentHash = new RequestContentSHA256Filter();
+	private PrivateKeySigner signer;
+	private byte[] content;
+	private HttpPost request;
+	private String canonicalRequest;
+
+	@Setup
+	public void createSignedRequest() throws NoSuchAlgorithmException {
+		CryptoUtil.addBouncyCastleProviderAndVerify_AES256_CBC_Support();
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		signer = new PrivateKeySigner(keyPairGenerator.generateKeyPair().getPrivate());
+
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		JAXB.marshal(new Agreement(AgreementType.FETCH_MESSAGES, UserId.of("01017012345"), new HashMap<>()), xml);
+		content = xml.toByteArray();
+
+		request = new HttpPost(URI.create("https://api.digipost.no/1234/user-agreements?user-id=01017012345"));
+		request.setHeader(HttpHeaders.DATE, DateUtils.formatDate(ZonedDateTime.now(DateUtils.GMT)));
+		request.setHeader(Headers.X_Digipost_UserId, "1");
+		request.setHeader(HttpHeaders.ACCEPT, "application/vnd.digipost.user-v2+xml");
+		contentHash.settContentHashHeader(content, request);
+		canonicalRequest = RequestMessageSignatureUtil.getCanonicalRequestRepresentation(new RequestToSign(request));
+	}
+
+	@Benchmark
+	public HttpPost hashContent() {
+		contentHash.settContentHashHeader(content, request);
+		return request;
+	}
+
+	@Benchmark
+	public ContentHashedEntity hashContentWhileWriting() {
+		return contentHash.createEntity(out -> {
+			try {
+				out.write(content);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, ContentType.APPLICATION_XML);
+	}
+
+	@Benchmark
+	public String canonicalRequestRepresentation() {
+		return RequestMessageSignatureUtil.getCanonicalRequestRepresentation(new RequestToSign(request));
+	}
+
+	@Benchmark
+	public byte[] sign() {
+		return signer.sign(canonicalRequest);
+	}
+}
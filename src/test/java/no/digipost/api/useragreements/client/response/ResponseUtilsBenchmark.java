@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.Agreement;
+import no.digipost.api.useragreements.client.AgreementType;
+import no.digipost.api.useragreements.client.Agreements;
+import no.digipost.api.useragreements.client.Document;
+import no.digipost.api.useragreements.client.DocumentContent;
+import no.digipost.api.useragreements.client.DocumentCount;
+import no.digipost.api.useragreements.client.Documents;
+import no.digipost.api.useragreements.client.EntryPoint;
+import no.digipost.api.useragreements.client.Error;
+import no.digipost.api.useragreements.client.ErrorCode;
+import no.digipost.api.useragreements.client.IdentificationResult;
+import no.digipost.api.useragreements.client.UserId;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures reading the responses of the API: splitting a response of concatenated XML documents into the documents,
+ * and unmarshalling the entity of a response, for each type of entity.
+ * <p>
+ * Run with {@code mvn -Pjmh verify -Djmh.include=ResponseUtilsBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = SECONDS)
+@Fork(1)
+public class ResponseUtilsBenchmark {
+
+	private static final String ENTRY_POINT_XML =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+			"<entrypoint xmlns=\"http://api.digipost.no/user/schema/v2\">" +
+			"<link rel=\"identify_recipient\" uri=\"https://api.digipost.no/identification\"/>" +
+			"</entrypoint>";
+
+	private static final Agreement AGREEMENT = new Agreement(AgreementType.FETCH_MESSAGES, UserId.of("01017012345"), new HashMap<>());
+
+	/**
+	 * The entity of a response, for each type of entity of the API.
+	 */
+	@State(Scope.Benchmark)
+	public static class Entity {
+
+		@Param({"Agreement", "Agreements", "Document", "Documents", "DocumentCount", "DocumentContent", "IdentificationResult", "EntryPoint", "Error"})
+		public String entityType;
+
+		private Class<?> type;
+		private byte[] xml;
+
+		@Setup
+		public void marshalEntity() {
+			Object instance;
+			switch (entityType) {
+				case "Agreement": instance = AGREEMENT; break;
+				case "Agreements": instance = new Agreements(asList(AGREEMENT, AGREEMENT)); break;
+				case "Document": instance = new Document(1L); break;
+				case "Documents": instance = new Documents(asList(new Document(1L), new Document(2L))); break;
+				case "DocumentCount": instance = new DocumentCount(42); break;
+				case "DocumentContent": instance = new DocumentContent("application/pdf", URI.create("https://www.digipost.no/documents/1")); break;
+				case "IdentificationResult": instance = IdentificationResult.digipost(); break;
+				case "Error": instance = new Error(ErrorCode.AGREEMENT_NOT_FOUND, "Agreement not found"); break;
+				case "EntryPoint": instance = null; break;
+				default: throw new IllegalArgumentException(entityType);
+			}
+			type = instance != null ? instance.getClass() : EntryPoint.class;
+			xml = instance != null ? marshal(instance) : ENTRY_POINT_XML.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	private byte[] concatenatedDocuments;
+
+	@Setup
+	public void concatenateDocuments() {
+		ByteArrayOutputStream documents = new ByteArrayOutputStream();
+		IntStream.range(0, 100).forEach(i -> JAXB.marshal(new Agreements(asList(AGREEMENT, AGREEMENT)), documents));
+		concatenatedDocuments = documents.toByteArray();
+	}
+
+	@Benchmark
+	public Object unmarshallEntity(Entity entity) {
+		BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+		response.setEntity(new ByteArrayEntity(entity.xml, ContentType.APPLICATION_XML));
+		return ResponseUtils.unmarshallEntity(response, entity.type);
+	}
+
+	@Benchmark
+	public Object streamXmlDocumentsOf() {
+		try (Stream<String> documents = ResponseUtils.streamXmlDocumentsOf(new ByteArrayInputStream(concatenatedDocuments))) {
+			return documents.collect(toList());
+		}
+	}
+
+	private static byte[] marshal(Object instance) {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		JAXB.marshal(instance, xml);
+		return xml.toByteArray();
+	}
+}
@@ -20,15 +20,24 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static co.unruly.matchers.Java8Matchers.where;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class StreamingRateLimitedResponseTest {
 
@@ -76,4 +85,88 @@ public class StreamingRateLimitedResponseTest {
 		expectedException.expect(NextAllowedRequestTimeNotFoundException.class);
 		response.getDelayUntilNextAllowedRequest();
 	}
+
+	@Test
+	public void publishesOnlyRequestedElements() {
+		AtomicInteger pulled = new AtomicInteger();
+		StreamingRateLimitedResponse<Integer> response = new StreamingRateLimitedResponse<>(
+				IntStream.range(0, 10).boxed().peek(i -> pulled.incrementAndGet()), () -> null);
+		RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+		response.toPublisher().subscribe(subscriber);
+
+		assertThat(subscriber.received, empty());
+		subscriber.subscription.request(3);
+		assertThat(subscriber.received, contains(0, 1, 2));
+		assertThat(pulled.get(), is(3));
+		assertFalse(subscriber.completed);
+	}
+
+	@Test
+	public void capturesDelayUntilNextAllowedRequestWhenPublisherCompletes() {
+		Duration tenMinutes = Duration.ofMinutes(10);
+		AtomicBoolean closed = new AtomicBoolean(false);
+		StreamingRateLimitedResponse<Integer> response = new StreamingRateLimitedResponse<>(
+				Stream.of(new ResponseElements(1), new ResponseElements(2, tenMinutes)).onClose(() -> closed.set(true)), ResponseElements::elements);
+		RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+		response.toPublisher().subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		assertThat(subscriber.received, contains(0, 0, 1));
+		assertTrue(subscriber.completed);
+		assertTrue(closed.get());
+		assertThat(response, where(StreamingRateLimitedResponse::getDelayUntilNextAllowedRequest, is(tenMinutes)));
+	}
+
+	@Test
+	public void closesResponseWhenSubscriptionIsCancelled() {
+		AtomicBoolean closed = new AtomicBoolean(false);
+		StreamingRateLimitedResponse<Integer> response = new StreamingRateLimitedResponse<>(
+				IntStream.range(0, 10).boxed().onClose(() -> closed.set(true)), () -> null);
+		RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+		response.toPublisher().subscribe(subscriber);
+		subscriber.subscription.request(2);
+		subscriber.subscription.cancel();
+
+		assertTrue(closed.get());
+		assertThat(subscriber.received, contains(0, 1));
+		assertFalse(subscriber.completed);
+		assertThat(subscriber.error, is((Throwable) null));
+	}
+
+	@Test
+	public void signalsErrorForNonPositiveRequest() {
+		StreamingRateLimitedResponse<Integer> response = new StreamingRateLimitedResponse<>(IntStream.range(0, 10).boxed(), () -> null);
+		RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+		response.toPublisher().subscribe(subscriber);
+		subscriber.subscription.request(0);
+
+		assertThat(subscriber.error, instanceOf(IllegalArgumentException.class));
+	}
+
+	static final class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+		final List<T> received = new ArrayList<>();
+		Flow.Subscription subscription;
+		boolean completed;
+		Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+	}
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.response;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+public class XmlDocumentsInputStreamTest {
+
+	private static final String FIRST = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><a><b>æøå</b></a>";
+	private static final String SECOND = "<?XML version=\"1.0\"?>\n<a>\n<b/></a>";
+
+	@Test
+	public void splitsConcatenatedDocuments() throws IOException {
+		assertThat(documentsOf(FIRST + "\n  " + SECOND + "\n", 8192), contains(FIRST, SECOND));
+	}
+
+	@Test
+	public void splitsDocumentsWhenDeclarationSpansBufferBoundary() throws IOException {
+		for (int bufferSize = 5; bufferSize < 20; bufferSize++) {
+			assertThat(documentsOf(FIRST + SECOND + FIRST, bufferSize), contains(FIRST, SECOND, FIRST));
+		}
+	}
+
+	@Test
+	public void doesNotSplitDocumentWithoutDeclarations() throws IOException {
+		assertThat(documentsOf("<a/>", 8192), contains("<a/>"));
+	}
+
+	@Test
+	public void emptyOrBlankContentHasNoDocuments() throws IOException {
+		assertThat(documentsOf("", 8192), empty());
+		assertThat(documentsOf(" \n ", 8192), empty());
+	}
+
+	private static List<String> documentsOf(String content, int bufferSize) throws IOException {
+		List<String> documents = new ArrayList<>();
+		try (XmlDocumentsInputStream in = new XmlDocumentsInputStream(new ByteArrayInputStream(content.getBytes(UTF_8)), bufferSize)) {
+			while (in.nextDocument()) {
+				documents.add(new String(in.readAllBytes(), UTF_8).trim());
+			}
+		}
+		return documents;
+	}
+}
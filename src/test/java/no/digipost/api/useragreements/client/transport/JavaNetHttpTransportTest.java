@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.transport;
+
+import no.digipost.api.useragreements.client.BrokerId;
+import no.digipost.api.useragreements.client.DigipostUserAgreementsClient;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JavaNetHttpTransportTest {
+
+	@Test
+	public void isSupportedFromJava12() {
+		assertThat(JavaNetHttpTransport.isSupportedByRuntime(), is(Runtime.version().feature() >= 12));
+	}
+
+	@Test
+	public void builderRejectsJavaNetHttpClientWhenTheDateHeaderCanNotBeSet() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		DigipostUserAgreementsClient.Builder builder = new DigipostUserAgreementsClient.Builder(BrokerId.of(1L), keyPairGenerator.generateKeyPair().getPrivate());
+		try {
+			builder.useJavaNetHttpClient();
+			if (!JavaNetHttpTransport.isSupportedByRuntime()) {
+				fail("should throw " + IllegalStateException.class.getSimpleName() + " on Java " + Runtime.version().feature());
+			}
+		} catch (IllegalStateException e) {
+			assertThat(JavaNetHttpTransport.isSupportedByRuntime(), is(false));
+			assertThat(e.getMessage(), containsString("Java 12"));
+		}
+	}
+}
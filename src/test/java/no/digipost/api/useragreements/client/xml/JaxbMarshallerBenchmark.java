@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.api.useragreements.client.xml;
+
+import jakarta.xml.bind.JAXB;
+import no.digipost.api.useragreements.client.Agreement;
+import no.digipost.api.useragreements.client.AgreementType;
+import no.digipost.api.useragreements.client.Document;
+import no.digipost.api.useragreements.client.Documents;
+import no.digipost.api.useragreements.client.Error;
+import no.digipost.api.useragreements.client.ErrorCode;
+import no.digipost.api.useragreements.client.IdentificationResult;
+import no.digipost.api.useragreements.client.UserId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Compares unmarshalling and marshalling with the {@link JAXB} facade to the pooled {@link JaxbMarshaller},
+ * when alternating between the types of the API, as a client under load does.
+ * <p>
+ * Run with {@code mvn -Pjmh verify -Djmh.include=JaxbMarshallerBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = SECONDS)
+@Fork(1)
+@Threads(4)
+public class JaxbMarshallerBenchmark {
+
+	private final JaxbMarshaller pooled = JaxbMarshaller.getInstance();
+	private List<Object> entities;
+	private List<byte[]> xmls;
+
+	@Setup
+	public void createEntities() {
+		UserId userId = UserId.of("01017012345");
+		entities = asList(
+				new Agreement(AgreementType.FETCH_MESSAGES, userId, new HashMap<>()),
+				new Documents(asList(new Document(1L), new Document(2L))),
+				IdentificationResult.digipost(),
+				new Error(ErrorCode.AGREEMENT_NOT_FOUND, "Agreement not found"));
+		xmls = asList(entities.stream().map(entity -> {
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			JAXB.marshal(entity, xml);
+			return xml.toByteArray();
+		}).toArray(byte[][]::new));
+	}
+
+	@Benchmark
+	public Object unmarshalWithJaxbFacade() {
+		int i = ThreadLocalRandom.current().nextInt(xmls.size());
+		return JAXB.unmarshal(new ByteArrayInputStream(xmls.get(i)), entities.get(i).getClass());
+	}
+
+	@Benchmark
+	public Object unmarshalWithPooledMarshaller() {
+		int i = ThreadLocalRandom.current().nextInt(xmls.size());
+		return pooled.unmarshal(new ByteArrayInputStream(xmls.get(i)), entities.get(i).getClass());
+	}
+
+	@Benchmark
+	public byte[] marshalWithJaxbFacade() {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream(1024);
+		JAXB.marshal(entities.get(ThreadLocalRandom.current().nextInt(entities.size())), xml);
+		return xml.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] marshalWithPooledMarshaller() {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream(1024);
+		pooled.marshal(entities.get(ThreadLocalRandom.current().nextInt(entities.size())), xml);
+		return xml.toByteArray();
+	}
+}